@@ -0,0 +1,139 @@
+package ticket_system.bench;
+
+import ticket_system.server.ServerMode;
+import ticket_system.server.TicketSystemServer;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntPredicate;
+
+/**
+ * 基准测试的公共工具：分配字节数、延迟分位数、在后台启动服务器
+ *
+ * 基准测试放在 bench 目录下，与 src 一起编译，例如：
+ *   javac -encoding UTF-8 -cp lib/* -d out $(find src bench -name '*.java')
+ *   java -Dticket.wal.file=/tmp/bench.wal -cp out:lib/* ticket_system.bench.JsonReaderBench
+ * 需要日志文件的基准测试请用 ticket.wal.file 指向临时文件，避免写入 data 目录
+ * 调用业务代码的基准测试把结果写到标准错误，业务日志（标准输出）可以重定向到 /dev/null
+ */
+final class Bench {
+    private Bench() {
+    }
+
+    /**
+     * 当前线程累计分配的字节数（HotSpot 支持；不支持时返回 -1）
+     */
+    static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    /**
+     * 已排序延迟数组的分位数，p 取 0-100
+     */
+    static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.ceil(p / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    /**
+     * 延迟摘要：p50 / p99（毫秒）
+     */
+    static String latency(long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        return String.format("p50 %.2f ms, p99 %.2f ms",
+                percentile(sorted, 50) / 1e6, percentile(sorted, 99) / 1e6);
+    }
+
+    /**
+     * 结果输出到标准错误
+     */
+    static void report(String format, Object... args) {
+        System.err.printf(format + "%n", args);
+    }
+
+    /**
+     * 单线程重复执行 op：先预热 iterations / 10 次，再输出每次操作的耗时和分配字节数
+     */
+    static void measure(String name, int iterations, Runnable op) {
+        for (int i = 0; i < iterations / 10; i++) {
+            op.run();
+        }
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            op.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        bytes = allocatedBytes() - bytes;
+        report("%s: %.1f ns/op, %.1f B/op", name, (double) elapsed / iterations, (double) bytes / iterations);
+    }
+
+    /**
+     * 用 threads 个线程共执行 total 次 op（参数为序号，返回是否成功），记录每次的耗时
+     */
+    static Load load(int threads, int total, IntPredicate op) throws InterruptedException {
+        Load load = new Load(total);
+        AtomicInteger next = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            pool.execute(() -> {
+                int i;
+                while ((i = next.getAndIncrement()) < total) {
+                    long begin = System.nanoTime();
+                    boolean success = op.test(i);
+                    load.nanos[i] = System.nanoTime() - begin;
+                    if (success) {
+                        load.succeeded.incrementAndGet();
+                    }
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(10, TimeUnit.MINUTES);
+        load.elapsedNanos = System.nanoTime() - start;
+        return load;
+    }
+
+    /**
+     * 一轮并发执行的结果
+     */
+    static final class Load {
+        final long[] nanos;
+        final AtomicInteger succeeded = new AtomicInteger();
+        long elapsedNanos;
+
+        private Load(int total) {
+            nanos = new long[total];
+        }
+
+        /**
+         * 成功数、吞吐量（次/秒）和延迟分位数
+         */
+        String summary() {
+            return String.format("%d ok, %.1fk/s, %s", succeeded.get(),
+                    nanos.length / (elapsedNanos / 1e9) / 1000, latency(nanos));
+        }
+    }
+
+    /**
+     * 在守护线程中启动服务器（端口 8888），等待其开始监听
+     */
+    static void startServer(ServerMode mode) throws InterruptedException {
+        Thread server = new Thread(() -> new TicketSystemServer(mode).start(), "bench-server");
+        server.setDaemon(true);
+        server.start();
+        Thread.sleep(1000);
+    }
+}
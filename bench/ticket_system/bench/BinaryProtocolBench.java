@@ -0,0 +1,56 @@
+package ticket_system.bench;
+
+import ticket_system.entity.TicketRequest;
+import ticket_system.server.BinaryFrame;
+import ticket_system.server.MessageDispatcher;
+import ticket_system.service.SoldOutFilter;
+import ticket_system.service.TrainService;
+import java.nio.ByteBuffer;
+
+/**
+ * 二进制协议：203 购票请求的解码开销与文本协议对比
+ * - 帧头与定长请求体解码，加上售罄检查（一半请求售罄、一半有票）；
+ * - 解码为 TicketRequest：文本协议按 '|' 拆分并解析 JSON，二进制协议按下标读取；
+ * - 售罄请求的快速拒绝：帧与文本行各自的 fastReject（包括生成响应）。
+ *
+ * 运行：java -Dticket.wal.file=/tmp/bench.wal -cp out ticket_system.bench.BinaryProtocolBench [迭代次数，默认 2000000] > /dev/null
+ */
+public class BinaryProtocolBench {
+    private static final String TEXT_PURCHASE = "7|203|{\"trainId\":\"G1001\",\"seatType\":\"二等座\",\"amount\":1}";
+    private static final String TEXT_SOLD_OUT = "7|203|{\"trainId\":\"G2001\",\"seatType\":\"一等座\",\"amount\":1}";
+    private static long sink;
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        MessageDispatcher dispatcher = new MessageDispatcher();
+        while (dispatcher.processMessage("7|203|{\"trainId\":\"G2001\",\"seatType\":\"一等座\",\"amount\":5}")
+                .startsWith("SUCCESS")) {
+            // 买光 G2001 的一等座
+        }
+        SoldOutFilter filter = TrainService.getInstance().getSoldOutFilter();
+        ByteBuffer soldOut = BinaryFrame.encodePurchase(7, 1, "G2001", 1, 1, -1, null, null);
+        ByteBuffer open = BinaryFrame.encodePurchase(7, 2, "G1001", 2, 1, -1, null, null);
+
+        for (int round = 0; round < 3; round++) {
+            int[] next = {0};
+            Bench.measure("帧头+请求体解码+售罄检查", iterations, () -> {
+                ByteBuffer frame = (next[0]++ & 1) == 0 ? soldOut : open;
+                int trainStart = BinaryFrame.trainStart(frame, 0);
+                sink += BinaryFrame.msgType(frame, 0) + BinaryFrame.amount(frame, 0) + BinaryFrame.correlationId(frame, 0)
+                        + filter.check(frame, trainStart, trainStart + BinaryFrame.trainLength(frame, 0),
+                        BinaryFrame.seatType(frame, 0), BinaryFrame.travelDay(frame, 0));
+            });
+            Bench.measure("文本 split+fromJson     ", iterations / 4, () -> {
+                String[] parts = TEXT_PURCHASE.split("\\|", 3);
+                sink += TicketRequest.fromJson(parts[2], parts[0]).getPassengerCount();
+            });
+            Bench.measure("二进制 -> TicketRequest ", iterations / 4, () -> sink += new TicketRequest(
+                    BinaryFrame.trainNumber(open, 0), BinaryFrame.seatType(open, 0), BinaryFrame.amount(open, 0),
+                    String.valueOf(BinaryFrame.clientNo(open, 0))).getPassengerCount());
+            Bench.measure("售罄 fastReject 帧      ", iterations, () -> sink += dispatcher.fastReject(soldOut, 0).remaining());
+            Bench.measure("售罄 fastReject 文本行  ", iterations, () -> sink += dispatcher.fastReject(TEXT_SOLD_OUT).length());
+        }
+        Bench.report("(忽略) %d", sink);
+        System.exit(0);
+    }
+}
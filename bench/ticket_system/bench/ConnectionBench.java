@@ -0,0 +1,68 @@
+package ticket_system.bench;
+
+import ticket_client.LoadTestClient;
+import ticket_system.server.ServerMode;
+import ticket_system.server.TicketSystemServer;
+import java.io.File;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * 大量并发连接：三种服务器模式（blocking / virtual / nio）下，LoadTestClient 同时保持 N 个连接、
+ * 每个连接发送一条 207 请求并保持连接不关闭，统计收到响应的连接数和延迟
+ * 服务器在子进程中运行（标准输出丢弃），每种模式、每个连接数都重新启动；连接数受文件描述符上限限制
+ * virtual 模式需要 JDK 21+，更早的 JDK 上退化为每个连接一个平台线程
+ *
+ * 运行：java -cp out ticket_system.bench.ConnectionBench [连接数，默认 1000 和 10000] [模式，默认全部]
+ */
+public class ConnectionBench {
+    private static final int PORT = 8888;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 1 && "server".equals(args[0])) {
+            new TicketSystemServer(ServerMode.fromName(args[1])).start();
+            return;
+        }
+        int[] counts = args.length > 0 ? new int[]{Integer.parseInt(args[0])} : new int[]{1000, 10_000};
+        String[] modes = args.length > 1 ? new String[]{args[1]} : new String[]{"blocking", "virtual", "nio"};
+        for (int connections : counts) {
+            for (String mode : modes) {
+                Bench.report("=== %s，%d 个连接", mode, connections);
+                Process server = startServer(mode);
+                try {
+                    LoadTestClient.main(new String[]{String.valueOf(connections), "207", "30"});
+                } finally {
+                    server.destroy();
+                    server.waitFor();
+                }
+            }
+        }
+    }
+
+    /**
+     * 在子进程中启动服务器，等待端口可以连接
+     */
+    private static Process startServer(String mode) throws IOException, InterruptedException {
+        Path wal = Files.createTempFile("connbench", ".wal");
+        Files.delete(wal);
+        Process process = new ProcessBuilder(
+                System.getProperty("java.home") + File.separator + "bin" + File.separator + "java",
+                "-Dticket.wal.file=" + wal, "-cp", System.getProperty("java.class.path"),
+                ConnectionBench.class.getName(), "server", mode)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        for (int i = 0; i < 100; i++) {
+            try {
+                new Socket("127.0.0.1", PORT).close();
+                return process;
+            } catch (IOException e) {
+                Thread.sleep(100);
+            }
+        }
+        process.destroy();
+        throw new IOException("服务器未能启动: " + mode);
+    }
+}
@@ -0,0 +1,50 @@
+package ticket_system.bench;
+
+import ticket_system.util.IdGenerator;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 订单号生成：多个线程同时生成编号的吞吐量，并核对全部编号不重复、每个线程内单调递增（核对用的集合较大，需要约 2G 堆）
+ *
+ * 运行：java -Xmx2g -cp out ticket_system.bench.IdGeneratorBench [线程数，默认 8] [每线程个数，默认 1000000]
+ */
+public class IdGeneratorBench {
+    public static void main(String[] args) throws InterruptedException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int perThread = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+        IdGenerator generator = IdGenerator.getInstance();
+        long[][] ids = new long[threads][perThread];
+
+        for (int round = 0; round < 3; round++) {
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            long start = System.nanoTime();
+            for (int t = 0; t < threads; t++) {
+                long[] own = ids[t];
+                pool.execute(() -> {
+                    for (int i = 0; i < own.length; i++) {
+                        own[i] = generator.nextId();
+                    }
+                });
+            }
+            pool.shutdown();
+            pool.awaitTermination(1, TimeUnit.MINUTES);
+            long elapsed = System.nanoTime() - start;
+
+            Set<Long> unique = new HashSet<>(threads * perThread * 2);
+            boolean monotonic = true;
+            for (long[] own : ids) {
+                for (int i = 0; i < own.length; i++) {
+                    unique.add(own[i]);
+                    monotonic &= i == 0 || own[i] > own[i - 1];
+                }
+            }
+            Bench.report("%d 个线程 x %d: %.1f M/s，不重复 %d/%d，线程内单调递增 %s，示例 %s", threads, perThread,
+                    threads * (double) perThread / (elapsed / 1e3), unique.size(), threads * perThread, monotonic,
+                    IdGenerator.format("ORDER_", ids[0][0]));
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package ticket_system.bench;
+
+import ticket_system.util.JsonReader;
+
+/**
+ * 购票消息体解析：原来的 indexOf/substring 提取（user-006 之前的 JsonUtil.extractValue）与 JsonReader 对比
+ * 每次读取 trainId、seatType、amount 三个字段，输出每次操作的耗时和分配字节数
+ *
+ * 运行：java -cp out ticket_system.bench.JsonReaderBench [迭代次数，默认 5000000]
+ */
+public class JsonReaderBench {
+    private static final String PAYLOAD = "{\"trainId\":\"G1001\",\"seatType\":\"二等座\",\"amount\":2}";
+    private static long sink;
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+        for (int round = 0; round < 3; round++) {
+            measure("旧 extractValue x3 + parseInt", iterations, JsonReaderBench::legacy);
+            measure("JsonReader                   ", iterations, JsonReaderBench::reader);
+        }
+
+        // 旧提取方式出错的输入：字符串值中含逗号、嵌套对象中有同名字段
+        String comma = "{\"trainId\":\"G1,001\",\"amount\":3}";
+        String nested = "{\"extra\":{\"amount\":9},\"amount\":3}";
+        System.out.println("字符串值含逗号: 旧提取 trainId=" + legacyExtract(comma, "trainId")
+                + "，JsonReader trainId=" + new JsonReader(comma).getString("trainId"));
+        System.out.println("嵌套同名字段:   旧提取 amount=" + legacyExtract(nested, "amount")
+                + "，JsonReader amount=" + new JsonReader(nested).getInt("amount", -1));
+        System.out.println("(忽略) " + sink);
+    }
+
+    private static void measure(String name, int iterations, Runnable op) {
+        for (int i = 0; i < iterations / 10; i++) {
+            op.run();
+        }
+        long bytes = Bench.allocatedBytes();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            op.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        bytes = Bench.allocatedBytes() - bytes;
+        System.out.printf("%s: %.1f ns/op, %d B/op%n", name, (double) elapsed / iterations, bytes / iterations);
+    }
+
+    private static void legacy() {
+        String trainId = legacyExtract(PAYLOAD, "trainId");
+        String seatType = legacyExtract(PAYLOAD, "seatType");
+        int amount = Integer.parseInt(legacyExtract(PAYLOAD, "amount"));
+        sink += trainId.length() + seatType.length() + amount;
+    }
+
+    private static void reader() {
+        JsonReader json = new JsonReader(PAYLOAD);
+        String trainId = json.getString("trainId");
+        String seatType = json.match("seatType", "一等座", "二等座");
+        int amount = json.getInt("amount", 0);
+        sink += trainId.length() + seatType.length() + amount;
+    }
+
+    /**
+     * user-006 之前 JsonUtil.extractValue 的实现，保留在这里作为对照
+     */
+    private static String legacyExtract(String json, String key) {
+        try {
+            String searchKey = "\"" + key + "\":";
+            int startIndex = json.indexOf(searchKey);
+            if (startIndex == -1) return null;
+
+            startIndex += searchKey.length();
+            int endIndex = json.indexOf(",", startIndex);
+            if (endIndex == -1) {
+                endIndex = json.indexOf("}", startIndex);
+            }
+            if (endIndex == -1) return null;
+
+            String value = json.substring(startIndex, endIndex).trim();
+            if (value.startsWith("\"") && value.endsWith("\"")) {
+                value = value.substring(1, value.length() - 1);
+            }
+            return value;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
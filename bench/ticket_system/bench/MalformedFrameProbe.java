@@ -0,0 +1,73 @@
+package ticket_system.bench;
+
+import ticket_system.server.BinaryFrame;
+import ticket_system.server.ServerMode;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 畸形帧探测：向服务器发送请求体不完整的 203 帧（只有帧头，或请求体 1-4 字节），
+ * 每发一帧后用新的文本连接发送 207，确认服务器仍然响应（反应器线程没有因异常退出）
+ *
+ * 运行：java -Dticket.wal.file=/tmp/bench.wal -cp out ticket_system.bench.MalformedFrameProbe [nio|blocking|virtual，默认 nio] > /dev/null
+ * 全部通过时退出码为 0
+ */
+public class MalformedFrameProbe {
+    private static final int PORT = 8888;
+    private static final int TIMEOUT_MILLIS = 3000;
+
+    public static void main(String[] args) throws Exception {
+        ServerMode mode = ServerMode.fromName(args.length > 0 ? args[0] : "nio");
+        Bench.startServer(mode);
+        boolean alive = true;
+        for (String body : new String[]{"", "a", "ab", "abc", "abcd"}) {
+            sendFrame(BinaryFrame.encodeTextRequest(203, 1, 1, body));
+            String reply = query("C1|207|");
+            Bench.report("%s 模式，203 帧请求体 %d 字节: 之后的 207 请求%s", mode, body.length(),
+                    reply == null ? "没有响应" : "响应 " + reply);
+            alive &= reply != null;
+        }
+        System.exit(alive ? 0 : 1);
+    }
+
+    /**
+     * 协商二进制协议后发送一帧，读取服务器的回复（拒绝响应或连接关闭）后断开
+     */
+    private static void sendFrame(ByteBuffer frame) throws IOException {
+        try (Socket socket = new Socket("127.0.0.1", PORT)) {
+            socket.setSoTimeout(TIMEOUT_MILLIS);
+            OutputStream out = socket.getOutputStream();
+            ByteBuffer preface = BinaryFrame.preface(BinaryFrame.VERSION);
+            out.write(preface.array(), preface.arrayOffset() + preface.position(), preface.remaining());
+            out.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+            out.flush();
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            in.readFully(new byte[BinaryFrame.PREFACE_LENGTH]);
+            in.read();
+        } catch (IOException e) {
+            // 服务器关闭连接或不回复都可以，之后的 207 请求才是判断依据
+        }
+    }
+
+    /**
+     * 新建文本连接发送一条请求，超时未响应返回 null
+     */
+    private static String query(String message) {
+        try (Socket socket = new Socket("127.0.0.1", PORT)) {
+            socket.setSoTimeout(TIMEOUT_MILLIS);
+            PrintWriter out = new PrintWriter(socket.getOutputStream(), true, StandardCharsets.UTF_8);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            out.println(message);
+            return in.readLine();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package ticket_system.bench;
+
+import ticket_system.entity.TicketRequest;
+import ticket_system.service.TicketService;
+import ticket_system.service.TrainService;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 环形数组购票流水线：并发购票（每次 1-3 张，从 JSON 消息体开始）的吞吐量和延迟，
+ * 请求集中在 1 个车次或分散在多个车次；流水线返回系统繁忙时重试，延迟包含重试
+ * 流水线和分片都在启动时确定，每次运行只测一种配置，对照时分别运行：
+ *   -Dticket.pipeline=true、-Dticket.shards=1、-Dticket.shards=0
+ *
+ * 运行：java -Dticket.wal.file=/tmp/bench.wal -Dticket.pipeline=true -cp out ticket_system.bench.PipelineBench
+ *       [线程数，默认 64] [车次数，默认 1 和 64] [每轮购票次数，默认 100000] > /dev/null
+ */
+public class PipelineBench {
+    private static final String BUSY = "繁忙";
+
+    public static void main(String[] args) throws InterruptedException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int[] trainCounts = args.length > 1 ? new int[]{Integer.parseInt(args[1])} : new int[]{1, 64};
+        int total = args.length > 2 ? Integer.parseInt(args[2]) : 100_000;
+
+        TrainService trainService = TrainService.getInstance();
+        TicketService ticketService = TicketService.getInstance();
+        boolean pipeline = ticketService.isPipelineEnabled();
+        for (int trains : trainCounts) {
+            // 每轮使用新的车次，座位足够，全部购票都应成功
+            String prefix = "P" + trains + "_";
+            for (int i = 0; i < trains; i++) {
+                trainService.addTrain(prefix + i + "|北京|上海");
+                trainService.addTickets(prefix + i + "|二等座|" + (total / trains * 4 + 100));
+            }
+            Bench.Load load = Bench.load(threads, total, i -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                String payload = "{\"trainId\":\"" + prefix + random.nextInt(trains)
+                        + "\",\"seatType\":\"二等座\",\"amount\":" + (1 + random.nextInt(3)) + "}";
+                String response;
+                do {
+                    response = pipeline
+                            ? ticketService.submitPurchase(payload, "BENCH").join()
+                            : ticketService.handlePurchase(TicketRequest.fromJson(payload, "BENCH"));
+                } while (response.contains(BUSY));
+                return response.startsWith("SUCCESS");
+            });
+            Bench.report("%s 线程 %d，车次 %d: %s",
+                    pipeline ? "pipeline" : "direct shards=" + System.getProperty("ticket.shards", "CPU 数"),
+                    threads, trains, load.summary());
+        }
+        System.exit(0);
+    }
+}
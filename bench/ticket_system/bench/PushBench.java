@@ -0,0 +1,97 @@
+package ticket_system.bench;
+
+import ticket_system.server.ClientSession;
+import ticket_system.server.MessageDispatcher;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 库存推送（215）：购票后订阅者收到余票推送的延迟（购票间隔大于推送间隔，不等满一个间隔），
+ * 同时有一个每次发送都阻塞 200ms 的慢订阅者，它不应拖慢其他订阅者；
+ * 以及一个推送间隔内的连续购票合并成的推送条数
+ *
+ * 运行：java -Dticket.wal.file=/tmp/bench.wal -cp out ticket_system.bench.PushBench [购票次数，默认 150] > /dev/null
+ */
+public class PushBench {
+    private static final String PURCHASE = "B|203|{\"trainId\":\"G1002\",\"seatType\":\"二等座\",\"amount\":1}";
+
+    public static void main(String[] args) throws InterruptedException {
+        int purchases = args.length > 0 ? Integer.parseInt(args[0]) : 150;
+        MessageDispatcher dispatcher = new MessageDispatcher();
+        BlockingQueue<Long> received = new LinkedBlockingQueue<>();
+        dispatcher.processMessage("FAST|215|{}", new Subscriber("FAST", 0, received));
+        dispatcher.processMessage("SLOW|215|{}", new Subscriber("SLOW", 200, null));
+        received.poll(1, TimeUnit.SECONDS); // 基线
+
+        long[] nanos = new long[purchases];
+        for (int i = 0; i < purchases; i++) {
+            Thread.sleep(60);
+            long begin = System.nanoTime();
+            dispatcher.processMessage(PURCHASE);
+            Long end = received.poll(1, TimeUnit.SECONDS);
+            if (end == null) {
+                throw new IllegalStateException("第 " + i + " 次购票后没有收到推送");
+            }
+            nanos[i] = end - begin;
+        }
+        Bench.report("购票到推送（另有一个慢订阅者）: %s", Bench.latency(nanos));
+
+        Thread.sleep(200);
+        received.clear();
+        int burst = 500;
+        for (int i = 0; i < burst; i++) {
+            dispatcher.processMessage("B|203|{\"trainId\":\"" + (i % 2 == 0 ? "G1001" : "G2001")
+                    + "\",\"seatType\":\"一等座\",\"amount\":1}");
+        }
+        Thread.sleep(300);
+        Bench.report("连续 %d 次购票（2 个车次）: 推送 %d 条", burst, received.size());
+        System.exit(0);
+    }
+
+    /**
+     * 记录收到推送的时间；delayMillis 大于 0 时模拟慢连接，每次发送都阻塞
+     */
+    private static final class Subscriber implements ClientSession {
+        private final String clientNo;
+        private final long delayMillis;
+        private final BlockingQueue<Long> received;
+
+        private Subscriber(String clientNo, long delayMillis, BlockingQueue<Long> received) {
+            this.clientNo = clientNo;
+            this.delayMillis = delayMillis;
+            this.received = received;
+        }
+
+        @Override
+        public String getClientNo() {
+            return clientNo;
+        }
+
+        @Override
+        public void send(String line) {
+            if (received != null) {
+                received.add(System.nanoTime());
+            }
+        }
+
+        @Override
+        public boolean offer(String line) {
+            if (delayMillis > 0) {
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            send(line);
+            return true;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package ticket_system.bench;
+
+import ticket_system.server.ClientSession;
+import ticket_system.server.MessageDispatcher;
+import ticket_system.service.TrainService;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 排队购票（209）：64 个线程向一个 500 张票的车次提交远多于余票的排队请求，
+ * 测排队受理的延迟、每个请求从提交到收到结果推送的延迟，以及全部请求得到结果的总耗时
+ *
+ * 运行：java -Dticket.wal.file=/tmp/bench.wal -cp out ticket_system.bench.QueueBench [请求数，默认 20000] > /dev/null
+ */
+public class QueueBench {
+    private static final int THREADS = 64;
+    private static final String REQUEST = "B|209|{\"trainId\":\"HOT\",\"seatType\":\"二等座\",\"amount\":1}";
+
+    public static void main(String[] args) throws InterruptedException {
+        int total = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        TrainService trainService = TrainService.getInstance();
+        trainService.addTrain("HOT|北京|上海");
+        trainService.addTickets("HOT|二等座|500");
+        MessageDispatcher dispatcher = new MessageDispatcher();
+
+        // 推送可能先于受理响应到达，两边各自记录时间，结束后按排队号配对
+        Map<String, Long> submitted = new ConcurrentHashMap<>();
+        Map<String, Long> resolved = new ConcurrentHashMap<>();
+        AtomicInteger sold = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(total);
+        ClientSession session = new ClientSession() {
+            @Override
+            public String getClientNo() {
+                return "BENCH";
+            }
+
+            @Override
+            public void send(String line) {
+                String[] parts = line.split("\\|", 3);
+                resolved.put(parts[1], System.nanoTime());
+                if (parts[2].startsWith("SUCCESS")) {
+                    sold.incrementAndGet();
+                }
+                done.countDown();
+            }
+
+            @Override
+            public boolean offer(String line) {
+                send(line);
+                return true;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+        };
+
+        long start = System.nanoTime();
+        Bench.Load accept = Bench.load(THREADS, total, i -> {
+            long begin = System.nanoTime();
+            String response = dispatcher.processMessage(REQUEST, session);
+            if (!response.startsWith("SUCCESS")) {
+                done.countDown();
+                return false;
+            }
+            submitted.put(response.split("\\|")[1].substring("排队号:".length()), begin);
+            return true;
+        });
+        boolean finished = done.await(5, TimeUnit.MINUTES);
+        long elapsed = System.nanoTime() - start;
+
+        long[] nanos = new long[submitted.size()];
+        int n = 0;
+        for (Map.Entry<String, Long> entry : submitted.entrySet()) {
+            Long end = resolved.get(entry.getKey());
+            if (end != null) {
+                nanos[n++] = end - entry.getValue();
+            }
+        }
+        Bench.report("受理: %s", accept.summary());
+        Bench.report("%d 个请求%s: 售出 %d，售罄 %d，总耗时 %.0f ms；结果推送 %s", total, finished ? "全部得到结果" : "超时",
+                sold.get(), n - sold.get(), elapsed / 1e6, Bench.latency(Arrays.copyOf(nanos, n)));
+        System.exit(0);
+    }
+}
@@ -0,0 +1,49 @@
+package ticket_system.bench;
+
+import ticket_system.server.MessageDispatcher;
+import ticket_system.service.TrainService;
+
+/**
+ * 站点对查询（213）：目录规模从 1 千到 10 万个车次时单次查询的耗时和响应大小，
+ * 以及与取回全部车次（200）后由客户端筛选的对比；每个站点对约有 1/500 的车次经过
+ *
+ * 运行：java -Dticket.wal.file=/tmp/bench.wal -cp out ticket_system.bench.RouteBench [目录规模，默认 1000 和 100000] > /dev/null
+ */
+public class RouteBench {
+    private static final String QUERY = "B|213|{\"from\":\"A7\",\"to\":\"B7\"}";
+    private static final int QUERIES = 100_000;
+
+    public static void main(String[] args) {
+        int[] sizes = args.length > 0 ? new int[]{Integer.parseInt(args[0])} : new int[]{1000, 100_000};
+        TrainService trainService = TrainService.getInstance();
+        MessageDispatcher dispatcher = new MessageDispatcher();
+        int added = 0;
+        for (int size : sizes) {
+            for (; added < size; added++) {
+                trainService.addTrain("K" + added + "|A" + (added % 500) + "|B" + (added % 500) + "|M" + (added % 97));
+                trainService.addTickets("K" + added + "|二等座|100");
+            }
+            String response = "";
+            for (int i = 0; i < QUERIES / 5; i++) {
+                response = dispatcher.processMessage(QUERY);
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < QUERIES; i++) {
+                response = dispatcher.processMessage(QUERY);
+            }
+            long elapsed = System.nanoTime() - start;
+
+            int dumps = 100;
+            String all = "";
+            long dumpStart = System.nanoTime();
+            for (int i = 0; i < dumps; i++) {
+                all = dispatcher.processMessage("B|200|");
+            }
+            long dumpElapsed = System.nanoTime() - dumpStart;
+            Bench.report("目录 %d 个车次: 213 查询 %d 个结果，%d 字符，%.1f us/次；200 全部车次 %d 字符，%.0f us/次",
+                    trainService.getAllTrains().size(), response.split("trainNumber").length - 1, response.length(),
+                    elapsed / 1e3 / QUERIES, all.length(), dumpElapsed / 1e3 / dumps);
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,91 @@
+package ticket_system.bench;
+
+import ticket_system.entity.SeatCalendar;
+import ticket_system.entity.SeatMap;
+import ticket_system.entity.Train;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 座位图选座：
+ * - 8 个线程并发按 1-5 人一组买光 1200 个座位，核对没有重复分配，并统计同组座位在同一排的比例；
+ * - 约 85% 已售的座位图上反复释放一组、再分配一组的单次耗时。
+ *
+ * 运行：java -cp out ticket_system.bench.SeatMapBench [释放+分配次数，默认 2000000]
+ */
+public class SeatMapBench {
+    private static final String SEAT_TYPE = "二等座";
+    private static final int CAPACITY = 1200;
+    private static final int THREADS = 8;
+
+    public static void main(String[] args) throws InterruptedException {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        long today = SeatCalendar.today();
+
+        Train train = new Train("G1", "北京", "上海");
+        train.addSeats(SEAT_TYPE, CAPACITY);
+        Set<Integer> taken = ConcurrentHashMap.newKeySet();
+        AtomicInteger duplicates = new AtomicInteger();
+        AtomicInteger groups = new AtomicInteger();
+        AtomicInteger sameRow = new AtomicInteger();
+        Bench.Load load = Bench.load(THREADS, CAPACITY, i -> {
+            int[] seats;
+            do {
+                seats = train.allocateSeats(SEAT_TYPE, today, 1 + ThreadLocalRandom.current().nextInt(5), 0, 1);
+            } while (seats == null && train.getSeatInventory(SEAT_TYPE) > 0);
+            if (seats == null) {
+                return false;
+            }
+            groups.incrementAndGet();
+            String row = rowOf(seats[0]);
+            boolean oneRow = true;
+            for (int seat : seats) {
+                if (!taken.add(seat)) {
+                    duplicates.incrementAndGet();
+                }
+                oneRow &= row.equals(rowOf(seat));
+            }
+            if (oneRow) {
+                sameRow.incrementAndGet();
+            }
+            return true;
+        });
+        Bench.report("%d 个线程买光 %d 个座位: %d 组，其中同一排 %d 组，分配 %d 个座位，重复 %d，剩余 %d（%.1f ms）",
+                THREADS, CAPACITY, groups.get(), sameRow.get(), taken.size(), duplicates.get(),
+                train.getSeatInventory(SEAT_TYPE), load.elapsedNanos / 1e6);
+
+        Train churn = new Train("G2", "北京", "上海");
+        churn.addSeats(SEAT_TYPE, CAPACITY);
+        // 340 组、平均每组 3 人，约占 85% 的座位
+        Random random = new Random(1);
+        int[][] held = new int[340][];
+        for (int i = 0; i < held.length; i++) {
+            held[i] = churn.allocateSeats(SEAT_TYPE, today, 1 + random.nextInt(5), 0, 1);
+        }
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                int j = i % held.length;
+                churn.releaseSeats(SEAT_TYPE, today, held[j], 0, 1);
+                held[j] = churn.allocateSeats(SEAT_TYPE, today, 1 + random.nextInt(5), 0, 1);
+                if (held[j] == null) {
+                    held[j] = new int[0];
+                }
+            }
+            Bench.report("约 %d%% 已售时释放+分配: %.0f ns/次",
+                    100 - 100 * churn.getSeatInventory(SEAT_TYPE) / CAPACITY,
+                    (System.nanoTime() - start) / (double) iterations);
+        }
+    }
+
+    /**
+     * 座位所在的车厢和排（座位名去掉最后的座位字母）
+     */
+    private static String rowOf(int seat) {
+        String name = SeatMap.seatName(SEAT_TYPE, seat);
+        return name.substring(0, name.length() - 1);
+    }
+}
@@ -0,0 +1,64 @@
+package ticket_system.bench;
+
+import ticket_system.entity.SeatCalendar;
+import ticket_system.entity.Train;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 区间余票：
+ * - 4 站的车次上先卖满第一段，核对其余区间仍可售、全程不可售；
+ * - 24 站、1200 座的车次上随机区间购票（每次 1-3 人），统计座位-区间利用率和每次请求的耗时（大部分请求发生在接近售罄时）。
+ *
+ * 运行：java -cp out ticket_system.bench.SegmentBench [请求数，默认 200000]
+ */
+public class SegmentBench {
+    private static final String SEAT_TYPE = "二等座";
+    private static final int CAPACITY = 1200;
+    private static final int STOPS = 24;
+
+    public static void main(String[] args) {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+        long today = SeatCalendar.today();
+
+        Train short4 = new Train("G1", Arrays.asList("北京", "济南西", "南京南", "上海"));
+        short4.addSeats(SEAT_TYPE, 200);
+        int first = 0;
+        while (short4.allocateSeats(SEAT_TYPE, today, 1, 0, 1) != null) {
+            first++;
+        }
+        int rest = 0;
+        while (short4.allocateSeats(SEAT_TYPE, today, 2, 1, 3) != null) {
+            rest += 2;
+        }
+        Bench.report("北京→济南西 售出 %d，济南西→上海 售出 %d，北京→上海 %s", first, rest,
+                short4.allocateSeats(SEAT_TYPE, today, 1, 0, 3) == null ? "无票" : "仍有票");
+
+        for (int round = 0; round < 3; round++) {
+            List<String> stops = new ArrayList<>();
+            for (int i = 0; i < STOPS; i++) {
+                stops.add("S" + i);
+            }
+            Train train = new Train("G2", stops);
+            train.addSeats(SEAT_TYPE, CAPACITY);
+            Random random = new Random(7);
+            long sold = 0;
+            long seatSegments = 0;
+            long start = System.nanoTime();
+            for (int i = 0; i < requests; i++) {
+                int from = random.nextInt(STOPS - 1);
+                int to = from + 1 + random.nextInt(STOPS - 1 - from);
+                int quantity = 1 + random.nextInt(3);
+                if (train.allocateSeats(SEAT_TYPE, today, quantity, from, to) != null) {
+                    sold += quantity;
+                    seatSegments += (long) quantity * (to - from);
+                }
+            }
+            long elapsed = System.nanoTime() - start;
+            Bench.report("%d 站 / %d 座: 售出 %d 张，座位-区间利用率 %.1f%%，%.0f ns/次", STOPS, CAPACITY, sold,
+                    100.0 * seatSegments / ((long) CAPACITY * (STOPS - 1)), elapsed / (double) requests);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package ticket_system.bench;
+
+import ticket_system.entity.TicketRequest;
+import ticket_system.service.TicketService;
+import ticket_system.service.TrainService;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 单写者分片购票：并发购票的吞吐量和延迟，请求集中在 1 个车次或分散在多个车次
+ * 分片数在启动时确定，每次运行只测一种配置，对照时分别运行：
+ *   -Dticket.shards=0（直接在调用线程中加锁购票）、-Dticket.shards=4 等
+ *
+ * 运行：java -Dticket.wal.file=/tmp/bench.wal -Dticket.shards=4 -cp out ticket_system.bench.ShardBench
+ *       [线程数，默认 64] [车次数，默认 1 和 64] [每轮购票次数，默认 100000] > /dev/null
+ */
+public class ShardBench {
+    public static void main(String[] args) throws InterruptedException {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int[] trainCounts = args.length > 1 ? new int[]{Integer.parseInt(args[1])} : new int[]{1, 64};
+        int total = args.length > 2 ? Integer.parseInt(args[2]) : 100_000;
+
+        TrainService trainService = TrainService.getInstance();
+        TicketService ticketService = TicketService.getInstance();
+        for (int trains : trainCounts) {
+            // 每轮使用新的车次，座位足够，全部购票都应成功
+            String prefix = "S" + trains + "_";
+            for (int i = 0; i < trains; i++) {
+                trainService.addTrain(prefix + i + "|北京|上海");
+                trainService.addTickets(prefix + i + "|二等座|" + (total / trains * 2 + 100));
+            }
+            Bench.Load load = Bench.load(threads, total, i -> {
+                String train = prefix + ThreadLocalRandom.current().nextInt(trains);
+                return ticketService.handlePurchase(new TicketRequest(train, "二等座", 1, "BENCH"))
+                        .startsWith("SUCCESS");
+            });
+            Bench.report("shards=%s 线程 %d，车次 %d: %s", System.getProperty("ticket.shards", "CPU 数"),
+                    threads, trains, load.summary());
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,37 @@
+package ticket_system.bench;
+
+import ticket_system.server.MessageDispatcher;
+
+/**
+ * 售罄快速拒绝：必然失败的购票请求（席别售罄、车次不存在）走 fastReject 与走完整的 processMessage 的耗时和分配对比，
+ * 并核对两条路径对同一请求的响应一致
+ *
+ * 运行：java -Dticket.wal.file=/tmp/bench.wal -cp out ticket_system.bench.SoldOutBench [迭代次数，默认 2000000] > /dev/null
+ */
+public class SoldOutBench {
+    private static final String SELL_OUT = "B|203|{\"trainId\":\"G1001\",\"seatType\":\"二等座\",\"amount\":5}";
+    private static final String SOLD_OUT = "B|203|{\"trainId\":\"G1001\",\"seatType\":\"二等座\",\"amount\":2}";
+    private static final String UNKNOWN = "B|203|{\"trainId\":\"G9999\",\"seatType\":\"二等座\",\"amount\":2}";
+    private static long sink;
+
+    public static void main(String[] args) {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        MessageDispatcher dispatcher = new MessageDispatcher();
+        while (dispatcher.processMessage(SELL_OUT).startsWith("SUCCESS")) {
+            // 买光 G1001 的二等座
+        }
+
+        for (String message : new String[]{SOLD_OUT, UNKNOWN}) {
+            String fast = dispatcher.fastReject(message);
+            String slow = dispatcher.processMessage(message);
+            Bench.report("%s: 快速 %s，完整 %s", message, fast, fast != null && fast.equals(slow) ? "相同" : slow);
+        }
+        for (int round = 0; round < 3; round++) {
+            Bench.measure("售罄 fastReject    ", iterations, () -> sink += dispatcher.fastReject(SOLD_OUT).length());
+            Bench.measure("未知车次 fastReject", iterations, () -> sink += dispatcher.fastReject(UNKNOWN).length());
+            Bench.measure("售罄 processMessage", iterations / 100, () -> sink += dispatcher.processMessage(SOLD_OUT).length());
+        }
+        Bench.report("(忽略) %d", sink);
+        System.exit(0);
+    }
+}
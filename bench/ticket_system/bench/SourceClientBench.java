@@ -0,0 +1,75 @@
+package ticket_system.bench;
+
+import ticket_system.service.TicketSourceClient;
+import ticket_system.service.TicketSourceStub;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 票源客户端：每次调用新建 Socket（user-021 之前的做法）与连接池的 205 查询延迟对比，
+ * 以及 8 个线程共用连接池并发锁票、释放的吞吐量；票源由本进程内的 TicketSourceStub 模拟
+ *
+ * 运行：java -cp out ticket_system.bench.SourceClientBench [每轮请求数，默认 5000]
+ */
+public class SourceClientBench {
+    private static final int THREADS = 8;
+
+    public static void main(String[] args) throws Exception {
+        int requests = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        TicketSourceStub stub = new TicketSourceStub(0);
+        stub.start();
+        int port = stub.getPort();
+        TicketSourceClient client = new TicketSourceClient("127.0.0.1", port);
+        client.addTickets("G1|二等座|1000000");
+
+        for (int round = 0; round < 2; round++) {
+            long[] nanos = new long[requests];
+            for (int i = 0; i < requests; i++) {
+                long begin = System.nanoTime();
+                sendOnNewSocket(port, "BENCH|205|G1|二等座");
+                nanos[i] = System.nanoTime() - begin;
+            }
+            report("每次新建 Socket", nanos);
+            for (int i = 0; i < requests; i++) {
+                long begin = System.nanoTime();
+                client.queryAvailableTickets("G1", "二等座");
+                nanos[i] = System.nanoTime() - begin;
+            }
+            report("连接池        ", nanos);
+        }
+
+        Bench.Load load = Bench.load(THREADS, requests * THREADS, i -> {
+            boolean locked = client.isSuccess(client.lockTickets("G1", "二等座", 1));
+            client.releaseTickets("G1", "二等座", 1);
+            return locked;
+        });
+        Bench.report("%d 个线程锁票+释放: %s（每次两个请求），剩余 %s", THREADS, load.summary(),
+                client.extractData(client.queryAvailableTickets("G1", "二等座")));
+        client.close();
+        stub.stop();
+    }
+
+    /**
+     * user-021 之前 TicketSourceClient 的做法：每个请求新建一个连接，读到一行响应后关闭
+     */
+    private static String sendOnNewSocket(int port, String message) throws IOException {
+        try (Socket socket = new Socket("127.0.0.1", port);
+             PrintWriter out = new PrintWriter(socket.getOutputStream(), true, StandardCharsets.UTF_8);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+            out.println(message);
+            return in.readLine();
+        }
+    }
+
+    private static void report(String name, long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        Bench.report("%s: p50 %.1f us, p99 %.1f us", name,
+                Bench.percentile(sorted, 50) / 1e3, Bench.percentile(sorted, 99) / 1e3);
+    }
+}
@@ -0,0 +1,78 @@
+package ticket_system.bench;
+
+import ticket_system.server.MessageDispatcher;
+import ticket_system.service.TrainService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 中转方案查询（214）：随机生成的线路网（每个车次 6-15 个站）上随机站点对的查询延迟；
+ * 每次查询前改动一次余票使缓存失效，测的是重新搜索的耗时，最后再测一轮命中缓存的耗时
+ *
+ * 运行：java -Dticket.wal.file=/tmp/bench.wal -cp out ticket_system.bench.TransferBench
+ *       [车次数，默认 3000] [站点数，默认 400] > /dev/null
+ */
+public class TransferBench {
+    private static final int QUERIES = 2000;
+
+    public static void main(String[] args) {
+        int trains = args.length > 0 ? Integer.parseInt(args[0]) : 3000;
+        int stations = args.length > 1 ? Integer.parseInt(args[1]) : 400;
+        TrainService trainService = TrainService.getInstance();
+        MessageDispatcher dispatcher = new MessageDispatcher();
+        Random random = new Random(7);
+        for (int i = 0; i < trains; i++) {
+            LinkedHashSet<String> stops = new LinkedHashSet<>();
+            int length = 6 + random.nextInt(10);
+            while (stops.size() < length) {
+                stops.add("S" + random.nextInt(stations));
+            }
+            List<String> route = new ArrayList<>(stops);
+            trainService.addTrain("X" + i + "|" + route.get(0) + "|" + route.get(route.size() - 1) + "|"
+                    + String.join(",", route.subList(1, route.size() - 1)));
+            trainService.addTickets("X" + i + "|二等座|50");
+        }
+        String[] queries = new String[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            int from = random.nextInt(stations);
+            int to;
+            do {
+                to = random.nextInt(stations);
+            } while (to == from);
+            queries[i] = "B|214|{\"from\":\"S" + from + "\",\"to\":\"S" + to + "\"}";
+        }
+        for (int i = 0; i < QUERIES / 10; i++) {
+            dispatcher.processMessage(queries[i]);
+        }
+
+        long[] nanos = new long[QUERIES];
+        int found = 0;
+        for (int i = 0; i < QUERIES; i++) {
+            trainService.addTickets("X0|一等座|1"); // 库存版本号变化，缓存失效
+            long begin = System.nanoTime();
+            String response = dispatcher.processMessage(queries[i]);
+            nanos[i] = System.nanoTime() - begin;
+            if (response.contains("trainNumber")) {
+                found++;
+            }
+        }
+        for (String query : queries) {
+            dispatcher.processMessage(query);
+        }
+        long start = System.nanoTime();
+        for (String query : queries) {
+            dispatcher.processMessage(query);
+        }
+        long cached = System.nanoTime() - start;
+
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        Bench.report("%d 个车次 / %d 个站点: 重新搜索 %s，最慢 %.2f ms（%d/%d 个站点对有方案）；命中缓存 %.1f us/次",
+                trains, stations, Bench.latency(nanos), sorted[sorted.length - 1] / 1e6, found, QUERIES,
+                cached / 1e3 / QUERIES);
+        System.exit(0);
+    }
+}
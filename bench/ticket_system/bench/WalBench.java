@@ -0,0 +1,115 @@
+package ticket_system.bench;
+
+import ticket_system.util.WriteAheadLog;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * 预写日志：组提交的追加延迟（开/关 fsync，1/8/64 个线程），以及检查点前后的恢复时间和磁盘占用
+ * 结果与磁盘强相关：fsync 的耗时决定了开启 fsync 时的延迟下限，请在目标机器上运行
+ *
+ * 运行：java -cp out ticket_system.bench.WalBench [日志目录，默认临时目录]
+ */
+public class WalBench {
+    // 与真实的订单创建记录长度相近
+    private static final String RECORD = "ORDER_CREATE|ORDER_2T8N7SH2ABR6|REQ_2T8N7SH2ABR5|G1002|二等座|1|T1|"
+            + "1792317831847|140|北京|上海|2026-10-18";
+    private static final int PER_THREAD = 500;
+    private static final int HISTORY = 500_000; // 恢复测试：日志中的记录数
+    private static final int LIVE = 20_000;     // 恢复测试：检查点时仍需保留的记录数
+
+    public static void main(String[] args) throws Exception {
+        Path dir = args.length > 0 ? Files.createDirectories(Path.of(args[0])) : Files.createTempDirectory("walbench");
+        for (boolean fsync : new boolean[]{true, false}) {
+            for (int threads : new int[]{1, 8, 64}) {
+                append(dir.resolve("append.wal"), fsync, threads);
+            }
+        }
+        recovery(dir.resolve("recovery.wal"));
+    }
+
+    private static void append(Path file, boolean fsync, int threads) throws Exception {
+        clean(file);
+        WriteAheadLog wal = new WriteAheadLog(file, fsync);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long[] nanos = new long[threads * PER_THREAD];
+        List<Future<?>> futures = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            int offset = t * PER_THREAD;
+            futures.add(pool.submit(() -> {
+                for (int i = 0; i < PER_THREAD; i++) {
+                    long begin = System.nanoTime();
+                    wal.append(RECORD);
+                    nanos[offset + i] = System.nanoTime() - begin;
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        long elapsed = System.nanoTime() - start;
+        pool.shutdown();
+        wal.close();
+        System.out.printf("追加 fsync=%-5s %2d 线程: %8.0f 条/秒, %s%n",
+                fsync, threads, nanos.length / (elapsed / 1e9), Bench.latency(nanos));
+    }
+
+    /**
+     * 写入 HISTORY 条记录后测量回放时间；再以 LIVE 条记录的状态做一次检查点，重新打开后再测量
+     */
+    private static void recovery(Path file) throws Exception {
+        clean(file);
+        WriteAheadLog wal = new WriteAheadLog(file, false);
+        for (int i = 0; i < HISTORY; i++) {
+            wal.appendAsync(RECORD);
+        }
+        wal.append(RECORD);
+        wal.close();
+        System.out.printf("恢复 检查点前: 日志 %d 字节, %s%n", totalBytes(file), replay(file));
+
+        wal = new WriteAheadLog(file, false);
+        wal.addSnapshotSource(out -> {
+            for (int i = 0; i < LIVE; i++) {
+                out.accept(RECORD);
+            }
+        });
+        wal.checkpoint().join();
+        wal.close();
+        System.out.printf("恢复 检查点后: 日志 %d 字节, %s%n", totalBytes(file), replay(file));
+    }
+
+    private static String replay(Path file) throws IOException {
+        long start = System.nanoTime();
+        WriteAheadLog wal = new WriteAheadLog(file, false);
+        long[] count = new long[1];
+        wal.replay(record -> count[0]++);
+        long elapsed = System.nanoTime() - start;
+        wal.close();
+        return String.format("回放 %d 条记录 %.0f ms", count[0], elapsed / 1e6);
+    }
+
+    private static long totalBytes(Path file) throws IOException {
+        try (Stream<Path> files = Files.list(file.toAbsolutePath().getParent())) {
+            return files.filter(p -> p.getFileName().toString().startsWith(file.getFileName().toString()))
+                    .mapToLong(p -> p.toFile().length()).sum();
+        }
+    }
+
+    private static void clean(Path file) throws IOException {
+        try (Stream<Path> files = Files.list(file.toAbsolutePath().getParent())) {
+            for (Path p : (Iterable<Path>) files::iterator) {
+                if (p.getFileName().toString().startsWith(file.getFileName().toString())) {
+                    Files.delete(p);
+                }
+            }
+        }
+    }
+}
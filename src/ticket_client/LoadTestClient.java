@@ -0,0 +1,112 @@
+package ticket_client;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * 并发连接压测工具：单线程用 Selector 同时保持大量连接，
+ * 每个连接发送一条请求并等待一行响应，统计完成数量和响应延迟
+ *
+ * 用法: LoadTestClient [连接数] [消息类型] [超时秒数] [主机] [端口]
+ * 例如: LoadTestClient 10000 207 30 127.0.0.1 8888
+ */
+public class LoadTestClient {
+
+    public static void main(String[] args) throws IOException {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        String msgType = args.length > 1 ? args[1] : "207";
+        int timeoutSeconds = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+        String host = args.length > 3 ? args[3] : "127.0.0.1";
+        int port = args.length > 4 ? Integer.parseInt(args[4]) : 8888;
+
+        System.out.println("=== 并发连接压测: " + connections + " 个连接, 消息类型 " + msgType + " ===");
+
+        Selector selector = Selector.open();
+        InetSocketAddress address = new InetSocketAddress(host, port);
+        long[] sendTime = new long[connections];
+        long[] latency = new long[connections];
+        int connected = 0;
+        int responded = 0;
+        int failed = 0;
+
+        long start = System.nanoTime();
+        for (int i = 0; i < connections; i++) {
+            try {
+                SocketChannel channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                channel.connect(address);
+                channel.register(selector, SelectionKey.OP_CONNECT, new int[]{i});
+            } catch (IOException e) {
+                failed++;
+            }
+        }
+
+        ByteBuffer readBuffer = ByteBuffer.allocate(64 * 1024);
+        long deadline = start + timeoutSeconds * 1_000_000_000L;
+        while (responded + failed < connections && System.nanoTime() < deadline) {
+            selector.select(200);
+            Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+            while (it.hasNext()) {
+                SelectionKey key = it.next();
+                it.remove();
+                SocketChannel channel = (SocketChannel) key.channel();
+                int index = ((int[]) key.attachment())[0];
+                try {
+                    if (key.isConnectable()) {
+                        channel.finishConnect();
+                        connected++;
+                        String request = "LOAD_" + index + "|" + msgType + "|\n";
+                        sendTime[index] = System.nanoTime();
+                        channel.write(ByteBuffer.wrap(request.getBytes(StandardCharsets.UTF_8)));
+                        key.interestOps(SelectionKey.OP_READ);
+                    } else if (key.isReadable()) {
+                        readBuffer.clear();
+                        int n = channel.read(readBuffer);
+                        if (n == -1) {
+                            failed++;
+                            key.cancel();
+                            continue;
+                        }
+                        for (int p = 0; p < n; p++) {
+                            if (readBuffer.get(p) == '\n') {
+                                latency[responded++] = System.nanoTime() - sendTime[index];
+                                key.interestOps(0); // 保持连接打开，但不再读取
+                                break;
+                            }
+                        }
+                    }
+                } catch (IOException e) {
+                    failed++;
+                    key.cancel();
+                }
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+
+        long[] done = Arrays.copyOf(latency, responded);
+        Arrays.sort(done);
+        System.out.println("建立连接: " + connected + ", 收到响应: " + responded + ", 失败: " + failed);
+        System.out.println("总耗时: " + elapsed / 1_000_000 + " ms");
+        if (responded > 0) {
+            System.out.println("延迟 p50: " + percentile(done, 50) + " ms, p99: " + percentile(done, 99) +
+                    " ms, max: " + done[done.length - 1] / 1_000_000.0 + " ms");
+        }
+
+        for (SelectionKey key : selector.keys()) {
+            key.channel().close();
+        }
+        selector.close();
+    }
+
+    private static double percentile(long[] sorted, int p) {
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(p / 100.0 * sorted.length) - 1);
+        return sorted[Math.max(0, index)] / 1_000_000.0;
+    }
+}
@@ -1,5 +1,6 @@
 package ticket_system;
 
+import ticket_system.server.ServerMode;
 import ticket_system.server.TicketSystemServer;
 import ticket_system.service.TicketService;
 import ticket_system.gui.MainGUI;
@@ -12,10 +13,11 @@ public class Main {
             System.out.println("启动图形界面模式...");
             Application.launch(MainGUI.class, args);
         } else {
-            // 启动控制台模式
+            // 启动控制台模式，可通过参数选择运行模式：nio（默认）/ blocking / virtual
+            ServerMode mode = ServerMode.fromName(args.length > 0 ? args[0] : null);
             System.out.println("正在启动票务系统（控制台模式）...");
 
-            TicketSystemServer server = new TicketSystemServer();
+            TicketSystemServer server = new TicketSystemServer(mode);
 
             // 添加关闭钩子，确保资源正确释放
             Runtime.getRuntime().addShutdownHook(new Thread(() -> {
@@ -1,21 +1,32 @@
 package ticket_system.entity;
 
+import ticket_system.util.IdGenerator;
 import java.io.Serializable;
+import java.time.LocalDate;
 import java.util.Date;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 
 public class Order implements Serializable {
     private static final long serialVersionUID = 1L;
-    private String orderId;
+    private static final AtomicReferenceFieldUpdater<Order, OrderStatus> STATUS_UPDATER =
+            AtomicReferenceFieldUpdater.newUpdater(Order.class, OrderStatus.class, "status");
+    public static final String ID_PREFIX = "ORDER_";
+    private long id;        // 内部使用的 64 位订单号，按创建时间递增
+    private String orderId; // 对外的字符串形式，首次使用时才生成
     private String requestId;
     private String trainNumber;
     private String seatType;
     private int passengerCount;
-    private OrderStatus status;
+    private volatile OrderStatus status;
     private Date createTime;
     private Date paidTime;
     private Date cancelTime;
     private Date timeoutTime;
     private String terminalId;
+    private int[] seats = new int[0]; // 分配的座位编号，见 SeatMap
+    private String fromStation;       // 上车站，null 表示始发站
+    private String toStation;         // 下车站，null 表示终点站
+    private LocalDate travelDate;     // 乘车日期，锁票时未指定则为当天
 
     public Order() {
         this.createTime = new Date();
@@ -29,17 +40,26 @@ public class Order implements Serializable {
         this.seatType = request.getSeatType();
         this.passengerCount = request.getPassengerCount();
         this.terminalId = request.getTerminalId();
-        this.orderId = generateOrderId();
-    }
-
-    private String generateOrderId() {
-        return "ORDER_" + System.currentTimeMillis() + "_" +
-                (int)(Math.random() * 1000);
+        this.fromStation = request.getFromStation();
+        this.toStation = request.getToStation();
+        this.travelDate = request.getTravelDate();
+        this.id = IdGenerator.getInstance().nextId();
     }
 
     // Getter and Setter
-    public String getOrderId() { return orderId; }
-    public void setOrderId(String orderId) { this.orderId = orderId; }
+    public long getId() { return id; }
+    public String getOrderId() {
+        String s = orderId;
+        if (s == null && id != 0) {
+            s = IdGenerator.format(ID_PREFIX, id);
+            orderId = s;
+        }
+        return s;
+    }
+    public void setOrderId(String orderId) {
+        this.orderId = orderId;
+        this.id = IdGenerator.parse(ID_PREFIX, orderId);
+    }
     public String getRequestId() { return requestId; }
     public void setRequestId(String requestId) { this.requestId = requestId; }
     public String getTrainNumber() { return trainNumber; }
@@ -50,6 +70,13 @@ public class Order implements Serializable {
     public void setPassengerCount(int passengerCount) { this.passengerCount = passengerCount; }
     public OrderStatus getStatus() { return status; }
     public void setStatus(OrderStatus status) { this.status = status; }
+
+    /**
+     * 原子状态流转：仅当当前状态为 expect 时改为 update，避免支付/取消/超时并发时重复处理
+     */
+    public boolean compareAndSetStatus(OrderStatus expect, OrderStatus update) {
+        return STATUS_UPDATER.compareAndSet(this, expect, update);
+    }
     public Date getCreateTime() { return createTime; }
     public void setCreateTime(Date createTime) { this.createTime = createTime; }
     public Date getPaidTime() { return paidTime; }
@@ -60,11 +87,31 @@ public class Order implements Serializable {
     public void setTimeoutTime(Date timeoutTime) { this.timeoutTime = timeoutTime; }
     public String getTerminalId() { return terminalId; }
     public void setTerminalId(String terminalId) { this.terminalId = terminalId; }
+    public String getFromStation() { return fromStation; }
+    public void setFromStation(String fromStation) { this.fromStation = fromStation; }
+    public String getToStation() { return toStation; }
+    public void setToStation(String toStation) { this.toStation = toStation; }
+    public LocalDate getTravelDate() { return travelDate; }
+    public void setTravelDate(LocalDate travelDate) { this.travelDate = travelDate; }
+    public int[] getSeats() { return seats; }
+    public void setSeats(int[] seats) { this.seats = seats; }
+
+    /**
+     * 座位号文本，如 "03车12A,03车12B"
+     */
+    public String getSeatNumbers() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < seats.length; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(SeatMap.seatName(seatType, seats[i]));
+        }
+        return sb.toString();
+    }
 
     @Override
     public String toString() {
         return "Order{" +
-                "orderId='" + orderId + '\'' +
+                "orderId='" + getOrderId() + '\'' +
                 ", trainNumber='" + trainNumber + '\'' +
                 ", seatType='" + seatType + '\'' +
                 ", passengerCount=" + passengerCount +
@@ -0,0 +1,155 @@
+package ticket_system.entity;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 某个车次某一席别在预售期内每一天的座位图
+ *
+ * 预售期为从今天起的 PRESALE_DAYS 天（系统属性 ticket.presale.days，默认 15）。
+ * 各天的座位图放在一个定长环形数组中，第 d 天（epochDay）位于下标 d % PRESALE_DAYS，
+ * 内存只随 车次 × 预售天数 线性增长。
+ *
+ * 跨天时由 rollTo 把已过期日期的槽位替换为新开售日期的空座位图（容量与其他日期相同）。
+ * 购票只读取数组槽位，不获取任何锁；槽位中的日期标记与请求日期不符即视为不在预售期内。
+ */
+public class SeatCalendar {
+    public static final int PRESALE_DAYS = Math.max(1, Integer.getInteger("ticket.presale.days", 15));
+
+    private static volatile Today cachedDay = Today.now();
+
+    private final String seatType;
+    private final int segments;
+    private final boolean singleWriter; // 座位图是否只由一个线程修改（见 SeatMap）
+    private final AtomicReferenceArray<DaySeats> days = new AtomicReferenceArray<>(PRESALE_DAYS);
+    private volatile long firstDay; // 预售期第一天（今天）
+    private int capacity;           // 每天的座位数，仅在同步方法内修改
+
+    public SeatCalendar(String seatType, int segments, long today) {
+        this(seatType, segments, today, false);
+    }
+
+    public SeatCalendar(String seatType, int segments, long today, boolean singleWriter) {
+        this.seatType = seatType;
+        this.segments = segments;
+        this.singleWriter = singleWriter;
+        this.firstDay = today;
+        for (long day = today; day < today + PRESALE_DAYS; day++) {
+            days.set(slot(day), new DaySeats(day, new SeatMap(seatType, segments, singleWriter)));
+        }
+    }
+
+    /**
+     * 今天的 epochDay（系统默认时区）
+     * 缓存当天的日期和次日零点的时刻，过了零点才重新计算，平时只有一次 volatile 读和一次 currentTimeMillis
+     */
+    public static long today() {
+        return currentDay().epochDay;
+    }
+
+    /**
+     * 距离次日零点的毫秒数
+     */
+    public static long millisUntilTomorrow() {
+        return Math.max(0, currentDay().endMillis - System.currentTimeMillis());
+    }
+
+    private static Today currentDay() {
+        Today day = cachedDay;
+        if (System.currentTimeMillis() >= day.endMillis) {
+            day = Today.now();
+            cachedDay = day;
+        }
+        return day;
+    }
+
+    public long getFirstDay() { return firstDay; }
+
+    public long getLastDay() { return firstDay + PRESALE_DAYS - 1; }
+
+    /**
+     * 获取指定日期的座位图，不在预售期内返回 null
+     */
+    public SeatMap get(long epochDay) {
+        if (epochDay < firstDay || epochDay >= firstDay + PRESALE_DAYS) {
+            return null;
+        }
+        DaySeats seats = days.get(slot(epochDay));
+        return seats.epochDay == epochDay ? seats.seatMap : null;
+    }
+
+    /**
+     * 每天的座位数
+     */
+    public synchronized int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * 预售期内每天都增加座位，之后新开售的日期也使用增加后的容量
+     * @return 增加后的每天座位数
+     */
+    public synchronized int addSeats(int quantity) {
+        capacity += quantity;
+        for (int i = 0; i < PRESALE_DAYS; i++) {
+            days.get(i).seatMap.addSeats(quantity);
+        }
+        return capacity;
+    }
+
+    /**
+     * 把每天的座位数补足到 total，已经不少于 total 时不变；重复执行结果相同，供日志回放使用
+     */
+    public synchronized void ensureCapacity(int total) {
+        if (total > capacity) {
+            addSeats(total - capacity);
+        }
+    }
+
+    /**
+     * 推进到新的一天：过期日期的槽位改为新开售日期；停机超过整个预售期时全部重开
+     */
+    public synchronized void rollTo(long today) {
+        if (today <= firstDay) {
+            return;
+        }
+        long openFrom = Math.max(firstDay + PRESALE_DAYS, today);
+        for (long day = openFrom; day < today + PRESALE_DAYS; day++) {
+            SeatMap seatMap = new SeatMap(seatType, segments, singleWriter);
+            seatMap.addSeats(capacity);
+            days.set(slot(day), new DaySeats(day, seatMap));
+        }
+        firstDay = today;
+    }
+
+    private static int slot(long epochDay) {
+        return (int) Math.floorMod(epochDay, (long) PRESALE_DAYS);
+    }
+
+    private static final class Today {
+        private final long epochDay;
+        private final long endMillis; // 次日零点
+
+        private Today(long epochDay, long endMillis) {
+            this.epochDay = epochDay;
+            this.endMillis = endMillis;
+        }
+
+        private static Today now() {
+            LocalDate date = LocalDate.now();
+            return new Today(date.toEpochDay(),
+                    date.plusDays(1).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli());
+        }
+    }
+
+    private static final class DaySeats {
+        private final long epochDay;
+        private final SeatMap seatMap;
+
+        private DaySeats(long epochDay, SeatMap seatMap) {
+            this.epochDay = epochDay;
+            this.seatMap = seatMap;
+        }
+    }
+}
@@ -0,0 +1,478 @@
+package ticket_system.entity;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 某个车次某一席别的座位图：按车厢组织，每节车厢用位图记录座位
+ *
+ * 位图布局：每排占 8 位（一个字节），第 i 个座位字母对应字节内第 i 位，每个 long 存 8 排。
+ * exists 标记实际存在的座位；每个区间（相邻两站之间）各有一份 occupied 位图，标记该区间已售出/锁定的座位。
+ * 乘坐第 from 站到第 to 站时，空闲座位 = exists & ~(occupied[from] | ... | occupied[to-1])，
+ * 其他区间已售出的座位在本区间仍可再售，代价为 区间数 × 字数。
+ * 每排的座位数小于 8，字节内多出的填充位永远不在 exists 中，
+ * 因此“连续 k 个空闲位”的位运算结果天然不会跨排，同排相邻座位的查找只需几次移位和与运算。
+ * 选座时优先使用已在其他区间售出过的座位，把整段空闲的座位留给长途旅客。
+ *
+ * 可售数量（available）指全程空闲的座位数，用于车次列表展示。
+ *
+ * 座位编号（int）：车厢序号 << 16 | 位序号，渲染为 "03车12A" 形式。
+ * 每节车厢一把锁，不同车厢的分配互不阻塞；新增车厢时整体替换车厢数组（写时复制）。
+ * 单写者模式（singleWriter）下所有修改都在车次所属的分片线程上执行：不加车厢锁，计数器只做有序写入而不做 CAS；
+ * 其他线程只读取计数和位图，用于展示和估算，可能读到稍旧的值。
+ */
+public class SeatMap {
+    private static final int ROW_BITS = 8;
+    private static final int ROWS_PER_WORD = Long.SIZE / ROW_BITS;
+
+    private final String seatType;
+    private final String letters;   // 每排的座位字母，长度即每排座位数
+    private final int rowsPerCoach;
+    private final int wordsPerCoach;
+    private final int segments;     // 区间数 = 停靠站数 - 1
+    private volatile Coach[] coaches = new Coach[0];
+    private final AtomicInteger available = new AtomicInteger(); // 全程空闲的座位数
+    private final AtomicInteger freeSlots = new AtomicInteger(); // 空闲的 (座位, 区间) 数，为 0 即任何区间都无票
+    private int capacity; // 仅在 addSeats 的同步块内修改
+    private final boolean singleWriter;
+
+    public SeatMap(String seatType, int segments) {
+        this(seatType, segments, false);
+    }
+
+    /**
+     * @param singleWriter 所有修改是否都由同一个线程执行（见类注释）
+     */
+    public SeatMap(String seatType, int segments, boolean singleWriter) {
+        if (segments < 1) {
+            throw new IllegalArgumentException("区间数必须大于0: " + segments);
+        }
+        this.seatType = seatType;
+        this.segments = segments;
+        this.letters = lettersOf(seatType);
+        this.rowsPerCoach = "一等座".equals(seatType) ? 14 : 18;
+        this.wordsPerCoach = (rowsPerCoach + ROWS_PER_WORD - 1) / ROWS_PER_WORD;
+        this.singleWriter = singleWriter;
+    }
+
+    /**
+     * 每排座位字母：一等座 2+2 布局，其余 3+2 布局
+     */
+    private static String lettersOf(String seatType) {
+        return "一等座".equals(seatType) ? "ACDF" : "ABCDF";
+    }
+
+    public String getSeatType() { return seatType; }
+    public int getSegments() { return segments; }
+
+    /**
+     * 全程空闲的座位数
+     */
+    public int getAvailable() {
+        return available.get();
+    }
+
+    /**
+     * 是否已完全售罄：所有座位在所有区间都已占用，任何上下车站组合都买不到票
+     */
+    public boolean isSoldOut() {
+        return freeSlots.get() == 0;
+    }
+
+    /**
+     * 第 from 站到第 to 站之间都空闲的座位数；全程查询直接返回 available
+     */
+    public int countFree(int from, int to) {
+        checkRange(from, to);
+        if (from == 0 && to == segments) {
+            return available.get();
+        }
+        int count = 0;
+        for (Coach coach : coaches) {
+            lock(coach);
+            try {
+                for (int w = 0; w < wordsPerCoach; w++) {
+                    count += Long.bitCount(coach.free(w, from, to));
+                }
+            } finally {
+                unlock(coach);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 座位总数（含已售出）
+     */
+    public synchronized int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * 追加座位：先填满最后一节车厢，再按需增加车厢；座位按排、按字母顺序编排
+     */
+    public synchronized void addSeats(int quantity) {
+        int perCoach = rowsPerCoach * letters.length();
+        while (quantity > 0) {
+            int index = capacity / perCoach;
+            Coach[] current = coaches;
+            if (index == current.length) {
+                Coach[] grown = Arrays.copyOf(current, current.length + 1);
+                grown[index] = new Coach(wordsPerCoach, segments);
+                coaches = grown;
+                current = grown;
+            }
+            Coach coach = current[index];
+            int offset = capacity % perCoach;
+            int count = Math.min(quantity, perCoach - offset);
+            lock(coach);
+            try {
+                for (int n = offset; n < offset + count; n++) {
+                    int bit = (n / letters.length()) * ROW_BITS + n % letters.length();
+                    coach.exists[bit >>> 6] |= 1L << bit;
+                }
+                add(available, count);
+                add(freeSlots, count * segments);
+            } finally {
+                unlock(coach);
+            }
+            capacity += count;
+            quantity -= count;
+        }
+    }
+
+    /**
+     * 为第 from 站到第 to 站分配 quantity 个座位
+     * 人数不超过一排时优先分配同一排的相邻座位；找不到时先尝试同一车厢，再跨车厢分配
+     * @return 座位编号；空闲座位不足时返回 null（不占用任何座位）
+     */
+    public int[] allocate(int quantity, int from, int to) {
+        checkRange(from, to);
+        Coach[] current = coaches;
+        if (quantity <= letters.length()) {
+            for (int c = 0; c < current.length; c++) {
+                int[] seats = allocateAdjacent(current[c], c, quantity, from, to);
+                if (seats != null) {
+                    return seats;
+                }
+            }
+        }
+        for (int c = 0; c < current.length; c++) {
+            int[] seats = allocateInCoach(current[c], c, quantity, from, to);
+            if (seats != null) {
+                return seats;
+            }
+        }
+        return allocateScattered(quantity, from, to);
+    }
+
+    /**
+     * 批量分配：同一区间的一批订单在一次车厢遍历中完成选座，每节车厢只加一次锁
+     * 每节车厢按订单顺序依次尝试同排相邻座位；遍历结束仍未分配到的订单再按 allocate 的规则单独分配
+     * @return 与 quantities 一一对应的座位编号，空闲座位不足的订单为 null
+     */
+    public int[][] allocateBatch(int[] quantities, int from, int to) {
+        checkRange(from, to);
+        int[][] result = new int[quantities.length][];
+        int pending = quantities.length;
+        Coach[] current = coaches;
+        for (int c = 0; c < current.length && pending > 0; c++) {
+            Coach coach = current[c];
+            lock(coach);
+            try {
+                for (int i = 0; i < quantities.length; i++) {
+                    if (result[i] == null && quantities[i] <= letters.length()) {
+                        result[i] = adjacentLocked(coach, c, quantities[i], from, to);
+                        if (result[i] != null) {
+                            pending--;
+                        }
+                    }
+                }
+            } finally {
+                unlock(coach);
+            }
+        }
+        for (int i = 0; i < quantities.length && pending > 0; i++) {
+            if (result[i] == null) {
+                result[i] = allocate(quantities[i], from, to);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 在一节车厢中查找同一排连续 k 个空闲座位：free & free>>>1 & ... & free>>>(k-1) 的最低位即起点
+     * 先在“其他区间已售出”的座位中找，再在全部空闲座位中找
+     */
+    private int[] allocateAdjacent(Coach coach, int coachIndex, int k, int from, int to) {
+        lock(coach);
+        try {
+            return adjacentLocked(coach, coachIndex, k, from, to);
+        } finally {
+            unlock(coach);
+        }
+    }
+
+    /**
+     * allocateAdjacent 的查找与占用部分，调用方持有车厢锁
+     */
+    private int[] adjacentLocked(Coach coach, int coachIndex, int k, int from, int to) {
+        for (int pass = 0; pass < 2; pass++) {
+            for (int w = 0; w < wordsPerCoach; w++) {
+                long free = coach.free(w, from, to);
+                if (pass == 0) {
+                    free &= coach.any[w];
+                }
+                long run = free;
+                for (int i = 1; i < k && run != 0; i++) {
+                    run &= free >>> i;
+                }
+                if (run != 0) {
+                    int start = Long.numberOfTrailingZeros(run);
+                    mark(coach, w, ((1L << k) - 1) << start, from, to, true);
+                    int[] seats = new int[k];
+                    for (int i = 0; i < k; i++) {
+                        seats[i] = seatCode(coachIndex, w * Long.SIZE + start + i);
+                    }
+                    return seats;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 一节车厢空闲座位足够时，按排顺序取最前面的空闲座位，使同行乘客尽量靠近
+     */
+    private int[] allocateInCoach(Coach coach, int coachIndex, int quantity, int from, int to) {
+        lock(coach);
+        try {
+            int free = 0;
+            for (int w = 0; w < wordsPerCoach; w++) {
+                free += Long.bitCount(coach.free(w, from, to));
+            }
+            if (free < quantity) {
+                return null;
+            }
+            int[] seats = new int[quantity];
+            takeLowest(coach, coachIndex, seats, 0, from, to);
+            return seats;
+        } finally {
+            unlock(coach);
+        }
+    }
+
+    /**
+     * 跨车厢逐个分配；其他线程释放的座位可能出现在已扫描过的车厢，因此循环扫描直到某一轮毫无收获
+     */
+    private int[] allocateScattered(int quantity, int from, int to) {
+        int[] seats = new int[quantity];
+        int taken = 0;
+        boolean progress = true;
+        while (taken < quantity && progress) {
+            progress = false;
+            Coach[] current = coaches;
+            for (int c = 0; c < current.length && taken < quantity; c++) {
+                Coach coach = current[c];
+                lock(coach);
+                try {
+                    int before = taken;
+                    taken = takeLowest(coach, c, seats, taken, from, to);
+                    progress |= taken > before;
+                } finally {
+                    unlock(coach);
+                }
+            }
+        }
+        if (taken < quantity) {
+            release(Arrays.copyOf(seats, taken), from, to);
+            return null;
+        }
+        return seats;
+    }
+
+    /**
+     * 从车厢中按位序取空闲座位填入 seats[index..]，优先取其他区间已售出的座位，调用方持有车厢锁
+     * @return 填充后的下标
+     */
+    private int takeLowest(Coach coach, int coachIndex, int[] seats, int index, int from, int to) {
+        for (int pass = 0; pass < 2; pass++) {
+            for (int w = 0; w < wordsPerCoach && index < seats.length; w++) {
+                long free = coach.free(w, from, to);
+                if (pass == 0) {
+                    free &= coach.any[w];
+                }
+                long taken = 0;
+                while (free != 0 && index < seats.length) {
+                    long lowest = free & -free;
+                    taken |= lowest;
+                    free &= ~lowest;
+                    seats[index++] = seatCode(coachIndex, w * Long.SIZE + Long.numberOfTrailingZeros(lowest));
+                }
+                if (taken != 0) {
+                    mark(coach, w, taken, from, to, true);
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * 设置或清除区间 [from, to) 上的占用位，并同步全程空闲计数，调用方持有车厢锁
+     */
+    private void mark(Coach coach, int w, long bits, int from, int to, boolean occupied) {
+        long before = coach.exists[w] & ~coach.any[w];
+        int changed = 0;
+        for (int s = from; s < to; s++) {
+            int index = s * wordsPerCoach + w;
+            long old = coach.occupied[index];
+            if (occupied) {
+                coach.occupied[index] = old | bits;
+            } else {
+                coach.occupied[index] = old & ~bits;
+            }
+            changed += Long.bitCount(old ^ coach.occupied[index]);
+        }
+        if (changed != 0) {
+            add(freeSlots, occupied ? -changed : changed);
+        }
+        long any = 0;
+        for (int s = 0; s < segments; s++) {
+            any |= coach.occupied[s * wordsPerCoach + w];
+        }
+        coach.any[w] = any;
+        int delta = Long.bitCount(coach.exists[w] & ~any) - Long.bitCount(before);
+        if (delta != 0) {
+            add(available, delta);
+        }
+    }
+
+    private void lock(Coach coach) {
+        if (!singleWriter) {
+            coach.lock.lock();
+        }
+    }
+
+    private void unlock(Coach coach) {
+        if (!singleWriter) {
+            coach.lock.unlock();
+        }
+    }
+
+    /**
+     * 更新计数器：单写者模式下不会有并发修改，用有序写入代替 CAS
+     */
+    private void add(AtomicInteger counter, int delta) {
+        if (singleWriter) {
+            counter.lazySet(counter.get() + delta);
+        } else {
+            counter.addAndGet(delta);
+        }
+    }
+
+    private void checkRange(int from, int to) {
+        if (from < 0 || to > segments || from >= to) {
+            throw new IllegalArgumentException("乘车区间不正确: " + from + "-" + to);
+        }
+    }
+
+    /**
+     * 标记指定座位在区间 [from, to) 上已占用（日志重放时使用）
+     */
+    public void occupy(int[] seats, int from, int to) {
+        setOccupied(seats, from, to, true);
+    }
+
+    /**
+     * 释放座位在区间 [from, to) 上的占用（取消或超时）
+     */
+    public void release(int[] seats, int from, int to) {
+        setOccupied(seats, from, to, false);
+    }
+
+    private void setOccupied(int[] seats, int from, int to, boolean occupied) {
+        checkRange(from, to);
+        Coach[] current = coaches;
+        for (int seat : seats) {
+            int coachIndex = seat >>> 16;
+            int bit = seat & 0xFFFF;
+            if (coachIndex >= current.length) {
+                throw new IllegalArgumentException("座位不存在: " + seat);
+            }
+            Coach coach = current[coachIndex];
+            lock(coach);
+            try {
+                mark(coach, bit >>> 6, 1L << bit, from, to, occupied);
+            } finally {
+                unlock(coach);
+            }
+        }
+    }
+
+    private static int seatCode(int coachIndex, int bit) {
+        return coachIndex << 16 | bit;
+    }
+
+    /**
+     * 把座位编号渲染为 "03车12A" 形式
+     */
+    public static String seatName(String seatType, int seat) {
+        int bit = seat & 0xFFFF;
+        return String.format("%02d车%02d%c", (seat >>> 16) + 1, bit / ROW_BITS + 1,
+                lettersOf(seatType).charAt(bit % ROW_BITS));
+    }
+
+    /**
+     * 座位编号列表的文本形式（逗号分隔的整数），用于日志记录
+     */
+    public static String encode(int[] seats) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < seats.length; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(seats[i]);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 解析 encode 生成的文本，空字符串返回空数组
+     */
+    public static int[] decode(String text) {
+        if (text == null || text.isEmpty()) {
+            return new int[0];
+        }
+        String[] parts = text.split(",");
+        int[] seats = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            seats[i] = Integer.parseInt(parts[i]);
+        }
+        return seats;
+    }
+
+    private static final class Coach {
+        private final int words;
+        private final long[] exists;
+        private final long[] occupied; // 按区间依次存放：第 s 个区间的第 w 个字在 s * words + w
+        private final long[] any;      // 任一区间被占用的座位（各区间 occupied 的或）
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private Coach(int words, int segments) {
+            this.words = words;
+            this.exists = new long[words];
+            this.occupied = new long[words * segments];
+            this.any = new long[words];
+        }
+
+        /**
+         * 区间 [from, to) 上都空闲的座位
+         */
+        private long free(int w, int from, int to) {
+            long used = 0;
+            for (int s = from; s < to; s++) {
+                used |= occupied[s * words + w];
+            }
+            return exists[w] & ~used;
+        }
+    }
+}
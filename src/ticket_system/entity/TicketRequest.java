@@ -1,14 +1,23 @@
 package ticket_system.entity;
 
+import ticket_system.util.IdGenerator;
+import ticket_system.util.JsonReader;
 import java.io.Serializable;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
 
 public class TicketRequest implements Serializable {
     private static final long serialVersionUID = 1L;
+    public static final String ID_PREFIX = "REQ_";
+    private static final String[] SEAT_TYPES = {"一等座", "二等座"};
     private String requestId;
     private String trainNumber;
     private String seatType;
     private int passengerCount;
     private String terminalId;
+    private String fromStation; // 上车站，null 表示始发站
+    private String toStation;   // 下车站，null 表示终点站
+    private LocalDate travelDate; // 乘车日期，null 表示当天
 
     public TicketRequest() {}
 
@@ -20,9 +29,66 @@ public class TicketRequest implements Serializable {
         this.requestId = generateRequestId();
     }
 
+    /**
+     * 解析购票消息体（203）
+     * 格式: {"trainId":"G1001","seatType":"二等座","amount":2,"date":"2025-01-20","from":"济南西","to":"上海"}
+     * @throws IllegalArgumentException 消息体不合法，异常信息即返回给客户端的错误说明
+     */
+    public static TicketRequest fromJson(String payload, String terminalId) {
+        // 单遍扫描，座位类型直接匹配为常量，人数在原字符串上解析
+        JsonReader json = new JsonReader(payload);
+        String trainId = json.getString("trainId");
+        if (trainId == null || !json.has("seatType") || !json.has("amount")) {
+            throw new IllegalArgumentException("JSON格式错误，缺少必要字段");
+        }
+
+        String seatType = json.match("seatType", SEAT_TYPES);
+        if (seatType == null) {
+            throw new IllegalArgumentException("不支持的座位类型，只支持：一等座、二等座");
+        }
+
+        int amount;
+        try {
+            amount = json.getInt("amount", 0);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("人数必须是数字");
+        }
+
+        TicketRequest request = new TicketRequest(trainId, seatType, amount, terminalId);
+        request.setFromStation(json.getString("from"));
+        request.setToStation(json.getString("to"));
+        String date = json.getString("date");
+        if (date != null) {
+            try {
+                request.setTravelDate(LocalDate.parse(date));
+            } catch (DateTimeParseException e) {
+                throw new IllegalArgumentException("日期格式错误，应为yyyy-MM-dd");
+            }
+        }
+        return request;
+    }
+
+    /**
+     * text 中 [start, end) 是否为支持的座位类型，不截取字符串
+     */
+    public static boolean isSeatType(String text, int start, int end) {
+        for (String seatType : SEAT_TYPES) {
+            if (seatType.length() == end - start && text.startsWith(seatType, start)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 二进制协议中的席别编号（从 1 开始）对应的座位类型，编号不合法时返回 null
+     */
+    public static String seatType(int code) {
+        return code >= 1 && code <= SEAT_TYPES.length ? SEAT_TYPES[code - 1] : null;
+    }
+
     private String generateRequestId() {
-        return "REQ_" + System.currentTimeMillis() + "_" +
-                (int)(Math.random() * 1000);
+        return IdGenerator.format(ID_PREFIX, IdGenerator.getInstance().nextId());
     }
 
     // Getter and Setter
@@ -36,6 +102,12 @@ public class TicketRequest implements Serializable {
     public void setPassengerCount(int passengerCount) { this.passengerCount = passengerCount; }
     public String getTerminalId() { return terminalId; }
     public void setTerminalId(String terminalId) { this.terminalId = terminalId; }
+    public String getFromStation() { return fromStation; }
+    public void setFromStation(String fromStation) { this.fromStation = fromStation; }
+    public String getToStation() { return toStation; }
+    public void setToStation(String toStation) { this.toStation = toStation; }
+    public LocalDate getTravelDate() { return travelDate; }
+    public void setTravelDate(LocalDate travelDate) { this.travelDate = travelDate; }
 
     @Override
     public String toString() {
@@ -1,25 +1,61 @@
 package ticket_system.entity;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Train implements Serializable {
     private static final long serialVersionUID = 1L;
     private String trainNumber;    // 车次号
     private String departure;      // 出发站
     private String destination;    // 到达站
-    private Map<String, Integer> seatInventory; // 座位库存：座位类型 -> 数量
+    private ArrayList<String> stops; // 全部停靠站（含始发站和终点站），区间数 = 站数 - 1；声明为可序列化的具体类型
+    // 座位日历：座位类型 -> 预售期内每天的座位图（具体座位在各区间的占用情况），余票数量也由座位图统计
+    // 座位图不可序列化，序列化时只写出各座位类型的座位数，见 writeObject / readObject
+    private transient ConcurrentHashMap<String, SeatCalendar> seatCalendars;
+    private volatile long today = SeatCalendar.today(); // 当前预售期第一天，跨天时由 rollTo 推进
+    private boolean singleWriter;                     // 座位图是否只由车次所属的分片线程修改（见 SeatMap）
+    private volatile long version;                    // 最后一次变更时的库存版本号
+    private transient volatile JsonSnapshot jsonCache; // 按版本号缓存的 JSON
 
     public Train() {
-        this.seatInventory = new HashMap<>();
+        this.seatCalendars = new ConcurrentHashMap<>();
+        this.stops = new ArrayList<>();
     }
 
     public Train(String trainNumber, String departure, String destination) {
+        this(trainNumber, Arrays.asList(departure, destination));
+    }
+
+    /**
+     * @param stops 按运行顺序排列的停靠站，至少包含始发站和终点站
+     */
+    public Train(String trainNumber, List<String> stops) {
+        this(trainNumber, stops, false);
+    }
+
+    /**
+     * @param singleWriter 座位图的所有修改是否都在同一个线程（车次所属分片）上执行，是则座位图不加锁
+     */
+    public Train(String trainNumber, List<String> stops, boolean singleWriter) {
         this();
+        this.singleWriter = singleWriter;
+        if (stops.size() < 2 || stops.size() > Long.SIZE + 1) {
+            throw new IllegalArgumentException("停靠站数量必须在 2-" + (Long.SIZE + 1) + " 之间");
+        }
         this.trainNumber = trainNumber;
-        this.departure = departure;
-        this.destination = destination;
+        this.stops = new ArrayList<>(stops);
+        this.departure = stops.get(0);
+        this.destination = stops.get(stops.size() - 1);
     }
 
     // Getter and Setter
@@ -29,21 +65,182 @@ public class Train implements Serializable {
     public void setDeparture(String departure) { this.departure = departure; }
     public String getDestination() { return destination; }
     public void setDestination(String destination) { this.destination = destination; }
-    public Map<String, Integer> getSeatInventory() { return seatInventory; }
-    public void setSeatInventory(Map<String, Integer> seatInventory) { this.seatInventory = seatInventory; }
+    public List<String> getStops() { return Collections.unmodifiableList(stops); }
+
+    /**
+     * 区间数（相邻两站之间为一个区间）
+     */
+    public int getSegmentCount() {
+        return Math.max(1, stops.size() - 1);
+    }
+
+    /**
+     * 获取车站在停靠站中的序号，不停靠返回 -1
+     */
+    public int stopIndex(String station) {
+        return stops.indexOf(station);
+    }
+
+    public long getVersion() { return version; }
 
     /**
-     * 添加座位库存
+     * 标记车次数据已变更，缓存的 JSON 随之失效
      */
-    public void addSeatInventory(String seatType, int quantity) {
-        this.seatInventory.put(seatType, this.seatInventory.getOrDefault(seatType, 0) + quantity);
+    public void markModified(long newVersion) {
+        this.version = newVersion;
     }
 
     /**
-     * 获取指定座位类型的库存
+     * 获取今天的座位库存快照（全程空闲的座位数）
+     */
+    public Map<String, Integer> getSeatInventory() {
+        Map<String, Integer> snapshot = new LinkedHashMap<>();
+        for (String seatType : seatCalendars.keySet()) {
+            snapshot.put(seatType, getSeatInventory(seatType));
+        }
+        return snapshot;
+    }
+
+    /**
+     * 获取今天指定座位类型的库存（全程空闲的座位数）
      */
     public int getSeatInventory(String seatType) {
-        return this.seatInventory.getOrDefault(seatType, 0);
+        SeatMap seatMap = getSeatMap(seatType, today);
+        return seatMap == null ? 0 : seatMap.getAvailable();
+    }
+
+    /**
+     * 获取某一天第 from 站到第 to 站指定座位类型的余票（区间内都空闲的座位数）
+     */
+    public int getSeatInventory(String seatType, long epochDay, int from, int to) {
+        SeatMap seatMap = getSeatMap(seatType, epochDay);
+        return seatMap == null ? 0 : seatMap.countFree(from, to);
+    }
+
+    /**
+     * 已开售的座位类型
+     */
+    public Set<String> getSeatTypes() {
+        return seatCalendars.keySet();
+    }
+
+    /**
+     * 获取指定座位类型在某一天（epochDay）的座位图，席别不存在或日期不在预售期内时返回 null
+     */
+    public SeatMap getSeatMap(String seatType, long epochDay) {
+        SeatCalendar calendar = seatCalendars.get(seatType);
+        return calendar == null ? null : calendar.get(epochDay);
+    }
+
+    /**
+     * 预售期第一天（epochDay）
+     */
+    public long getFirstSaleDay() {
+        return today;
+    }
+
+    /**
+     * 跨天：过期日期下架，新的一天开售
+     */
+    public void rollTo(long newToday) {
+        for (SeatCalendar calendar : seatCalendars.values()) {
+            calendar.rollTo(newToday);
+        }
+        if (newToday > today) {
+            today = newToday;
+        }
+    }
+
+    /**
+     * 新增座位（预售期内每天都增加）
+     * @return 增加后该座位类型每天的座位数
+     */
+    public int addSeats(String seatType, int quantity) {
+        return seatCalendar(seatType).addSeats(quantity);
+    }
+
+    /**
+     * 把座位类型每天的座位数补足到 total（见 SeatCalendar.ensureCapacity）
+     */
+    public void ensureSeatCapacity(String seatType, int total) {
+        seatCalendar(seatType).ensureCapacity(total);
+    }
+
+    /**
+     * 座位类型每天的座位数，未开售的座位类型返回 0
+     */
+    public int getSeatCapacity(String seatType) {
+        SeatCalendar calendar = seatCalendars.get(seatType);
+        return calendar == null ? 0 : calendar.getCapacity();
+    }
+
+    private SeatCalendar seatCalendar(String seatType) {
+        return seatCalendars.computeIfAbsent(seatType,
+                type -> new SeatCalendar(type, getSegmentCount(), today, singleWriter));
+    }
+
+    /**
+     * 序列化形式：普通字段 + 座位类型 -> 座位数；座位占用情况不写出，由订单恢复（见 TrainService.restoreOccupancy）
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        LinkedHashMap<String, Integer> capacities = new LinkedHashMap<>();
+        for (Map.Entry<String, SeatCalendar> entry : seatCalendars.entrySet()) {
+            capacities.put(entry.getKey(), entry.getValue().getCapacity());
+        }
+        out.writeObject(capacities);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        seatCalendars = new ConcurrentHashMap<>();
+        Map<?, ?> capacities = (Map<?, ?>) in.readObject();
+        for (Map.Entry<?, ?> entry : capacities.entrySet()) {
+            seatCalendar((String) entry.getKey()).addSeats((Integer) entry.getValue());
+        }
+    }
+
+    /**
+     * 为某一天第 from 站到第 to 站分配具体座位，座位图中的选座与占用在车厢锁内一次完成，不会超卖
+     * @return 座位编号；余票不足或日期不在预售期内返回 null
+     */
+    public int[] allocateSeats(String seatType, long epochDay, int quantity, int from, int to) {
+        SeatMap seatMap = getSeatMap(seatType, epochDay);
+        return seatMap == null ? null : seatMap.allocate(quantity, from, to);
+    }
+
+    /**
+     * 为同一天、同一区间的一批订单一次分配座位（见 SeatMap.allocateBatch）
+     * @return 与 quantities 一一对应的座位编号，余票不足的订单为 null；日期不在预售期内返回 null
+     */
+    public int[][] allocateSeatsBatch(String seatType, long epochDay, int[] quantities, int from, int to) {
+        SeatMap seatMap = getSeatMap(seatType, epochDay);
+        return seatMap == null ? null : seatMap.allocateBatch(quantities, from, to);
+    }
+
+    /**
+     * 标记座位在某一天第 from 站到第 to 站已占用（日志重放时使用）
+     * @return 日期已不在预售期内时返回 false
+     */
+    public boolean occupySeats(String seatType, long epochDay, int[] seats, int from, int to) {
+        SeatMap seatMap = getSeatMap(seatType, epochDay);
+        if (seatMap == null) {
+            return false;
+        }
+        seatMap.occupy(seats, from, to);
+        return true;
+    }
+
+    /**
+     * 释放座位在某一天第 from 站到第 to 站的占用；日期已过期时无需释放，返回 false
+     */
+    public boolean releaseSeats(String seatType, long epochDay, int[] seats, int from, int to) {
+        SeatMap seatMap = getSeatMap(seatType, epochDay);
+        if (seatMap == null) {
+            return false;
+        }
+        seatMap.release(seats, from, to);
+        return true;
     }
 
     @Override
@@ -52,29 +249,57 @@ public class Train implements Serializable {
                 "trainNumber='" + trainNumber + '\'' +
                 ", departure='" + departure + '\'' +
                 ", destination='" + destination + '\'' +
-                ", seatInventory=" + seatInventory +
+                ", stops=" + stops +
+                ", seatInventory=" + getSeatInventory() +
                 '}';
     }
 
     /**
-     * 转换为JSON格式
+     * 转换为JSON格式，版本号未变化时直接返回缓存结果
      */
     public String toJson() {
+        long currentVersion = version;
+        JsonSnapshot cache = jsonCache;
+        if (cache != null && cache.version == currentVersion) {
+            return cache.json;
+        }
+        String json = buildJson();
+        jsonCache = new JsonSnapshot(currentVersion, json);
+        return json;
+    }
+
+    private String buildJson() {
         StringBuilder sb = new StringBuilder();
         sb.append("{");
         sb.append("\"trainNumber\":\"").append(trainNumber).append("\",");
         sb.append("\"departure\":\"").append(departure).append("\",");
         sb.append("\"destination\":\"").append(destination).append("\",");
+        sb.append("\"stops\":[");
+        for (int i = 0; i < stops.size(); i++) {
+            if (i > 0) sb.append(",");
+            sb.append("\"").append(stops.get(i)).append("\"");
+        }
+        sb.append("],");
         sb.append("\"seatInventory\":{");
 
         boolean first = true;
-        for (Map.Entry<String, Integer> entry : seatInventory.entrySet()) {
+        for (String seatType : seatCalendars.keySet()) {
             if (!first) sb.append(",");
-            sb.append("\"").append(entry.getKey()).append("\":").append(entry.getValue());
+            sb.append("\"").append(seatType).append("\":").append(getSeatInventory(seatType));
             first = false;
         }
         sb.append("}}");
 
         return sb.toString();
     }
+
+    private static final class JsonSnapshot {
+        private final long version;
+        private final String json;
+
+        private JsonSnapshot(long version, String json) {
+            this.version = version;
+            this.json = json;
+        }
+    }
 }
\ No newline at end of file
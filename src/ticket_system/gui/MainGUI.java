@@ -13,6 +13,7 @@ import ticket_system.service.TicketService;
 import ticket_system.service.OrderService;
 import ticket_system.entity.Order;
 import ticket_system.entity.OrderStatus;
+import ticket_system.util.JsonReader;
 
 import java.io.*;
 import java.net.Socket;
@@ -31,7 +32,15 @@ public class MainGUI extends Application {
     private Label statusLabel;
 
     private Timer refreshTimer;
-    private static final long REFRESH_INTERVAL = 3000; // 3秒刷新一次
+    private static final long REFRESH_INTERVAL = 3000; // 订单和终端信息3秒刷新一次，推送连接断开后3秒重连
+
+    // 已收到的车次列表版本号，重新订阅时只请求变化的车次
+    private volatile long trainListVersion = 0;
+    // 库存推送连接：订阅后车次和余票变化由服务器推送，不再定时请求车次列表
+    private volatile Socket subscriptionSocket;
+    private volatile PrintWriter subscriptionOut;
+    private volatile boolean subscribing;
+    private final Map<String, TrainData> trainDataMap = new java.util.LinkedHashMap<>(); // 仅在FX线程访问
 
     // 用于Socket通信的客户端编号
     private final String CLIENT_NO = "GUI_CLIENT_001";
@@ -128,9 +137,7 @@ public class MainGUI extends Application {
         trainBox.getChildren().addAll(trainTable, buttonBox);
         trainTab.setContent(trainBox);
         tabPane.getTabs().add(trainTab);
-
-        // 初始加载数据
-        refreshTrainData();
+        // 初始数据由订阅后推送的基线加载
     }
 
     /**
@@ -167,6 +174,11 @@ public class MainGUI extends Application {
                         String.valueOf(cellData.getValue().getPassengerCount())));
         passengerCountCol.setPrefWidth(60);
 
+        TableColumn<Order, String> seatNumbersCol = new TableColumn<>("座位号");
+        seatNumbersCol.setCellValueFactory(cellData ->
+                new javafx.beans.property.SimpleStringProperty(cellData.getValue().getSeatNumbers()));
+        seatNumbersCol.setPrefWidth(160);
+
         TableColumn<Order, String> statusCol = new TableColumn<>("状态");
         statusCol.setCellValueFactory(cellData ->
                 new javafx.beans.property.SimpleStringProperty(cellData.getValue().getStatus().toString()));
@@ -178,7 +190,7 @@ public class MainGUI extends Application {
                         cellData.getValue().getCreateTime().toString()));
         createTimeCol.setPrefWidth(180);
 
-        orderTable.getColumns().addAll(orderIdCol, trainNumberCol, seatTypeCol, passengerCountCol, statusCol, createTimeCol);
+        orderTable.getColumns().addAll(orderIdCol, trainNumberCol, seatTypeCol, passengerCountCol, seatNumbersCol, statusCol, createTimeCol);
 
         // 操作按钮
         HBox buttonBox = new HBox(10);
@@ -225,137 +237,188 @@ public class MainGUI extends Application {
     }
 
     /**
-     * 刷新车次数据 - 通过Socket获取实时数据
+     * 手动刷新：在推送连接上重新订阅（不带版本号），服务器重新推送全部车次
      */
     private void refreshTrainData() {
-        new Thread(() -> {
-            try {
-                String trainData = getTrainsFromServer();
-                Platform.runLater(() -> {
-                    updateTrainTable(trainData);
-                });
-            } catch (Exception e) {
-                Platform.runLater(() -> {
-                    showAlert("错误", "获取车次数据失败: " + e.getMessage(), Alert.AlertType.ERROR);
-                });
+        PrintWriter out = subscriptionOut;
+        if (out == null) {
+            showAlert("错误", "车次推送连接未建立，正在重连", Alert.AlertType.ERROR);
+            return;
+        }
+        new Thread(() -> out.println(CLIENT_NO + "|215|{\"version\":0}")).start();
+    }
+
+    /**
+     * 订阅库存推送 - 保持一个Socket连接，断开后自动重连
+     */
+    private void startInventorySubscription() {
+        subscribing = true;
+        Thread subscriber = new Thread(() -> {
+            while (subscribing) {
+                try {
+                    receiveInventoryPushes();
+                } catch (IOException e) {
+                    System.out.println("库存推送连接断开: " + e.getMessage());
+                }
+                if (!subscribing) {
+                    break;
+                }
+                Platform.runLater(() -> statusLabel.setText("系统状态: " + ticketService.getSystemState() +
+                        " | 车次推送连接已断开，正在重连..."));
+                try {
+                    Thread.sleep(REFRESH_INTERVAL);
+                } catch (InterruptedException e) {
+                    break;
+                }
             }
-        }).start();
+        }, "GUI-Inventory-Subscriber");
+        subscriber.setDaemon(true);
+        subscriber.start();
     }
 
     /**
-     * 从服务器获取车次数据
+     * 发送215订阅（带上已有版本号，只补发变化部分），然后逐行接收推送直到连接关闭
+     * 推送格式：PUSH|TRAINS|FULL或DELTA|版本号|车次JSON、PUSH|INVENTORY|版本号|车次:席别=余票,...;...
      */
-    private String getTrainsFromServer() throws IOException {
+    private void receiveInventoryPushes() throws IOException {
         try (Socket socket = new Socket("127.0.0.1", 8888);
-             PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
-
-            // 发送200消息获取所有车次信息
-            String message = CLIENT_NO + "|200|";
-            out.println(message);
-
-            // 接收响应
-            String response = in.readLine();
-            System.out.println("收到车次数据响应: " + response);
+             PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"), true);
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"))) {
+            subscriptionSocket = socket;
+            subscriptionOut = out;
+            out.println(CLIENT_NO + "|215|{\"version\":" + trainListVersion + "}");
+
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith("PUSH|TRAINS|")) {
+                    String trainData = line.substring("PUSH|TRAINS|".length());
+                    Platform.runLater(() -> updateTrainTable(trainData));
+                } else if (line.startsWith("PUSH|INVENTORY|")) {
+                    String inventory = line.substring("PUSH|INVENTORY|".length());
+                    Platform.runLater(() -> applyInventoryPush(inventory));
+                } else {
+                    System.out.println("库存订阅响应: " + line);
+                }
+            }
+        } finally {
+            subscriptionSocket = null;
+            subscriptionOut = null;
+        }
+    }
 
-            return response;
+    /**
+     * 应用余票推送：版本号|车次:席别=余票,席别=余票;车次:...
+     */
+    private void applyInventoryPush(String push) {
+        String[] parts = push.split("\\|", 2);
+        if (parts.length < 2) {
+            return;
+        }
+        for (String entry : parts[1].split(";")) {
+            int colon = entry.indexOf(':');
+            TrainData old = colon < 0 ? null : trainDataMap.get(entry.substring(0, colon));
+            if (old == null) {
+                continue;
+            }
+            int secondClass = old.getSecondClassSeats();
+            int firstClass = old.getFirstClassSeats();
+            for (String seat : entry.substring(colon + 1).split(",")) {
+                int eq = seat.indexOf('=');
+                if (eq < 0) {
+                    continue;
+                }
+                String seatType = seat.substring(0, eq);
+                int count = Integer.parseInt(seat.substring(eq + 1));
+                if ("二等座".equals(seatType)) {
+                    secondClass = count;
+                } else if ("一等座".equals(seatType)) {
+                    firstClass = count;
+                }
+            }
+            trainDataMap.put(old.getTrainNumber(),
+                    new TrainData(old.getTrainNumber(), old.getDeparture(), old.getDestination(), secondClass, firstClass));
         }
+        trainTable.getItems().setAll(trainDataMap.values());
+        trainListVersion = Long.parseLong(parts[0]);
+        statusLabel.setText("系统状态: " + ticketService.getSystemState() +
+                " | 车次数量: " + trainDataMap.size() +
+                " | 最后更新: " + new java.util.Date());
     }
 
     /**
      * 更新车次表格
+     * 响应格式：NOT_MODIFIED|版本号、DELTA|版本号|变化的车次、FULL|版本号|全部车次
      */
     private void updateTrainTable(String response) {
-        if (response == null || !response.startsWith("SUCCESS")) {
+        if (response == null || !(response.startsWith("SUCCESS") || response.startsWith("FULL")
+                || response.startsWith("DELTA") || response.startsWith("NOT_MODIFIED"))) {
             trainTable.getItems().clear();
+            trainDataMap.clear();
+            trainListVersion = 0;
             statusLabel.setText("系统状态: " + ticketService.getSystemState() + " | 获取车次数据失败");
             return;
         }
 
         try {
-            // 解析响应：SUCCESS|JSON数据
-            String jsonData = response.substring(8); // 去掉"SUCCESS|"
-            trainTable.getItems().clear();
-
-            // 简单解析JSON数据
-            // 实际应该使用JSON解析库，这里简单处理
-            java.util.List<TrainData> trains = parseTrainData(jsonData);
-
-            for (TrainData train : trains) {
-                trainTable.getItems().add(train);
+            String[] parts = response.split("\\|", 3);
+            if (!"NOT_MODIFIED".equals(parts[0])) {
+                // 解析响应：类型|版本号|JSON数据（兼容旧格式 SUCCESS|JSON数据）
+                boolean fullList = !"DELTA".equals(parts[0]);
+                String jsonData = "SUCCESS".equals(parts[0]) ? response.substring(8) : parts[2];
+
+                // 简单解析JSON数据
+                // 实际应该使用JSON解析库，这里简单处理
+                java.util.List<TrainData> trains = parseTrainData(jsonData);
+
+                if (fullList) {
+                    trainDataMap.clear();
+                }
+                for (TrainData train : trains) {
+                    trainDataMap.put(train.getTrainNumber(), train);
+                }
+                trainTable.getItems().setAll(trainDataMap.values());
+            }
+            if (!"SUCCESS".equals(parts[0])) {
+                trainListVersion = Long.parseLong(parts[1]);
             }
 
             statusLabel.setText("系统状态: " + ticketService.getSystemState() +
-                    " | 车次数量: " + trains.size() +
+                    " | 车次数量: " + trainDataMap.size() +
                     " | 最后更新: " + new java.util.Date());
 
         } catch (Exception e) {
             System.err.println("解析车次数据失败: " + e.getMessage());
             trainTable.getItems().clear();
+            trainDataMap.clear();
+            trainListVersion = 0;
         }
     }
 
     /**
-     * 简单解析车次数据
+     * 解析车次数据
+     * 格式: [{"trainNumber":"G1001","departure":"北京","destination":"上海","seatInventory":{"二等座":100,"一等座":50}},...]
      */
     private java.util.List<TrainData> parseTrainData(String jsonData) {
         java.util.List<TrainData> trains = new java.util.ArrayList<>();
 
         try {
-            System.out.println("开始解析车次数据: " + jsonData);
-
-            // 移除外层的SUCCESS|前缀（如果存在）
-            if (jsonData.startsWith("SUCCESS|")) {
-                jsonData = jsonData.substring(8);
-            }
-
-            // 简单的JSON解析
-            // 格式: [{"trainNumber":"G1001","departure":"北京","destination":"上海","seatInventory":{"二等座":100,"一等座":50}},...]
-
-            // 分割每个车次对象
-            String[] trainObjects = jsonData.split("\\},\\{");
-
-            for (int i = 0; i < trainObjects.length; i++) {
-                String trainObj = trainObjects[i];
-
-                // 清理字符串
-                trainObj = trainObj.trim();
-                if (i == 0) trainObj = trainObj.replace("[{", "");
-                if (i == trainObjects.length - 1) trainObj = trainObj.replace("}]", "");
-                trainObj = trainObj.replace("{", "").replace("}", "");
+            for (JsonReader trainObj : JsonReader.readArray(jsonData)) {
+                String trainNumber = trainObj.getString("trainNumber");
+                String departure = trainObj.getString("departure");
+                String destination = trainObj.getString("destination");
 
-                System.out.println("解析车次对象: " + trainObj);
-
-                String trainNumber = extractJsonValue(trainObj, "trainNumber");
-                String departure = extractJsonValue(trainObj, "departure");
-                String destination = extractJsonValue(trainObj, "destination");
-
-                // 提取座位库存 - 改进的解析方法
                 int secondClass = 0;
                 int firstClass = 0;
-
-                // 直接在整个字符串中搜索座位类型
-                String secondClassStr = extractSeatCount(trainObj, "二等座");
-                String firstClassStr = extractSeatCount(trainObj, "一等座");
-
-                if (secondClassStr != null) {
-                    try {
-                        secondClass = Integer.parseInt(secondClassStr);
-                    } catch (NumberFormatException e) {
-                        System.err.println("解析二等座数量失败: " + secondClassStr);
-                    }
-                }
-
-                if (firstClassStr != null) {
+                JsonReader seatInventory = trainObj.getObject("seatInventory");
+                if (seatInventory != null) {
                     try {
-                        firstClass = Integer.parseInt(firstClassStr);
+                        secondClass = seatInventory.getInt("二等座", 0);
+                        firstClass = seatInventory.getInt("一等座", 0);
                     } catch (NumberFormatException e) {
-                        System.err.println("解析一等座数量失败: " + firstClassStr);
+                        System.err.println("解析座位数量失败: " + trainNumber);
                     }
                 }
 
-                System.out.println("解析结果: " + trainNumber + " - 二等座:" + secondClass + ", 一等座:" + firstClass);
-
                 if (trainNumber != null && departure != null && destination != null) {
                     trains.add(new TrainData(trainNumber, departure, destination, secondClass, firstClass));
                 }
@@ -370,70 +433,12 @@ public class MainGUI extends Application {
         return trains;
     }
 
-    /**
-     * 从JSON字符串中提取座位数量
-     */
-    private String extractSeatCount(String json, String seatType) {
-        try {
-            // 搜索模式："二等座":100 或 "二等座": 100
-            String pattern = "\"" + seatType + "\":";
-            int startIndex = json.indexOf(pattern);
-            if (startIndex == -1) return null;
-
-            startIndex += pattern.length();
-
-            // 找到数字的开始位置
-            while (startIndex < json.length() &&
-                    (json.charAt(startIndex) == ' ' || json.charAt(startIndex) == ':')) {
-                startIndex++;
-            }
-
-            // 提取数字
-            int endIndex = startIndex;
-            while (endIndex < json.length() &&
-                    Character.isDigit(json.charAt(endIndex))) {
-                endIndex++;
-            }
-
-            if (endIndex > startIndex) {
-                return json.substring(startIndex, endIndex);
-            }
-
-            return null;
-        } catch (Exception e) {
-            return null;
-        }
-    }
-
-    /**
-     * 从JSON字符串中提取字段值
-     */
-    private String extractJsonValue(String json, String key) {
-        try {
-            String pattern = "\"" + key + "\":\"";
-            int startIndex = json.indexOf(pattern);
-            if (startIndex == -1) return null;
-
-            startIndex += pattern.length();
-            int endIndex = json.indexOf("\"", startIndex);
-            if (endIndex == -1) return null;
-
-            return json.substring(startIndex, endIndex);
-        } catch (Exception e) {
-            return null;
-        }
-    }
-
     /**
      * 刷新订单数据
      */
     private void refreshOrderData() {
         Platform.runLater(() -> {
-            orderTable.getItems().clear();
-            Map<String, Order> orders = orderService.getAllOrders();
-            for (Order order : orders.values()) {
-                orderTable.getItems().add(order);
-            }
+            orderTable.getItems().setAll(orderService.getAllOrders());
         });
     }
 
@@ -453,26 +458,17 @@ public class MainGUI extends Application {
             sb.append("车次统计: ").append(trainCount).append(" 个车次\n");
 
             // 订单统计
-            Map<String, Order> orders = orderService.getAllOrders();
-            long pending = orders.values().stream()
-                    .filter(order -> order.getStatus() == OrderStatus.PENDING_PAYMENT)
-                    .count();
-            long paid = orders.values().stream()
-                    .filter(order -> order.getStatus() == OrderStatus.PAID)
-                    .count();
-            long cancelled = orders.values().stream()
-                    .filter(order -> order.getStatus() == OrderStatus.CANCELLED)
-                    .count();
-            long timeout = orders.values().stream()
-                    .filter(order -> order.getStatus() == OrderStatus.TIMEOUT)
-                    .count();
+            long pending = orderService.getOrderCount(OrderStatus.PENDING_PAYMENT);
+            long paid = orderService.getOrderCount(OrderStatus.PAID);
+            long cancelled = orderService.getOrderCount(OrderStatus.CANCELLED);
+            long timeout = orderService.getOrderCount(OrderStatus.TIMEOUT);
 
             sb.append("订单统计:\n");
             sb.append("  待支付: ").append(pending).append("\n");
             sb.append("  已支付: ").append(paid).append("\n");
             sb.append("  已取消: ").append(cancelled).append("\n");
             sb.append("  已超时: ").append(timeout).append("\n");
-            sb.append("  总计: ").append(orders.size()).append("\n\n");
+            sb.append("  总计: ").append(orderService.getTotalOrderCount()).append("\n\n");
 
             // 服务器信息
             sb.append("服务器信息:\n");
@@ -509,15 +505,16 @@ public class MainGUI extends Application {
     }
 
     /**
-     * 启动自动刷新 - 使用 Timer
+     * 启动自动刷新 - 车次数据由推送连接更新，订单和终端信息使用 Timer
      */
     private void startAutoRefresh() {
+        startInventorySubscription(); // 通过Socket订阅车次和余票推送
+
         refreshTimer = new Timer("GUI-Refresh-Timer", true); // 守护线程
 
         TimerTask refreshTask = new TimerTask() {
             @Override
             public void run() {
-                refreshTrainData();  // 通过Socket获取最新车次数据
                 refreshOrderData();  // 从内存获取订单数据
                 updateTerminalInfo(); // 更新终端信息
             }
@@ -537,6 +534,14 @@ public class MainGUI extends Application {
             refreshTimer.cancel();
             System.out.println("GUI自动刷新已停止");
         }
+        subscribing = false;
+        Socket socket = subscriptionSocket;
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
         if (orderService != null) {
             orderService.shutdown();
         }
@@ -0,0 +1,315 @@
+package ticket_system.server;
+
+import ticket_system.entity.TicketRequest;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 长度前缀的二进制协议：与文本协议（clientNo|msgType|msgPayload 按行）并存，连接建立时协商
+ *
+ * 协商：客户端连接后先发送 4 字节前导 0xB7 'T' 'K' 版本号，服务端回复同样格式的前导（服务端版本号），
+ * 之后双方都按帧收发；首字节不是 0xB7 的连接仍按文本协议处理（0xB7 不可能是 UTF-8 文本的首字节）。
+ * 服务端不支持客户端的版本时回复前导后关闭连接。
+ *
+ * 帧头固定 20 字节（大端）：
+ * <pre>
+ *  0  int   帧长度（含帧头）
+ *  4  byte  版本号
+ *  5  byte  状态：请求为 0；响应为 STATUS_SUCCESS / STATUS_ERROR；推送为 STATUS_PUSH
+ *  6  short 消息类型（与文本协议的 msgType 相同，推送为 0）
+ *  8  int   终端编号（文本协议的 clientNo）
+ * 12  long  关联号，响应原样带回；同一连接上的请求并发处理，响应按完成顺序返回
+ * </pre>
+ *
+ * 请求体：
+ * - 203 购票（定长部分 28 字节，其后依次为上车站、下车站的 UTF-8 字节）：
+ *   <pre>
+ *    0 byte 席别（1 一等座，2 二等座）   1 byte 人数   2 byte 车次号长度   3 byte 上车站长度（0 为始发站）
+ *    4 byte 下车站长度（0 为终点站）     5-7 保留     8 int 乘车日期（epochDay，-1 为当天）
+ *   12 车次号（ASCII，16 字节，不足补 0）
+ *   </pre>
+ * - 204 确认支付、205 取消订单、206 查询订单：long 订单号（订单号字符串 ORDER_ 之后的 36 进制数）；
+ * - 其他消息类型：msgPayload 的 UTF-8 字节，内容与文本协议相同，可以包含换行和 '|'。
+ * 响应体与推送体为文本协议中 SUCCESS| / ERROR| / PUSH| 之后部分的 UTF-8 字节。
+ *
+ * 解码方法都按下标直接读取缓冲区，不改变缓冲区的 position，除取出字符串外不分配对象。
+ */
+public final class BinaryFrame {
+    public static final byte MAGIC = (byte) 0xB7;
+    public static final byte VERSION = 1;
+    public static final int PREFACE_LENGTH = 4;
+    public static final int HEADER_LENGTH = 20;
+    public static final int MAX_FRAME_LENGTH = 64 * 1024; // 请求帧长度上限；响应帧（如全部车次）不受限制
+
+    public static final byte STATUS_SUCCESS = 0;
+    public static final byte STATUS_ERROR = 1;
+    public static final byte STATUS_PUSH = 2;
+
+    public static final int PURCHASE_LENGTH = 28; // 203 请求体的定长部分
+    public static final int TRAIN_NUMBER_LENGTH = 16;
+    public static final int ORDER_LENGTH = 8;      // 204/205/206 请求体
+
+    private static final byte[] SUCCESS = "SUCCESS".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ERROR = "ERROR".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PUSH = "PUSH".getBytes(StandardCharsets.US_ASCII);
+
+    private BinaryFrame() {
+    }
+
+    /**
+     * 协商前导：0xB7 'T' 'K' 版本号
+     */
+    public static ByteBuffer preface(byte version) {
+        return ByteBuffer.wrap(new byte[]{MAGIC, 'T', 'K', version});
+    }
+
+    /**
+     * buffer 中 offset 处是否为协商前导，是则返回其中的版本号，否则返回 -1；调用方保证至少有 4 字节
+     */
+    public static int prefaceVersion(ByteBuffer buffer, int offset) {
+        if (buffer.get(offset) != MAGIC || buffer.get(offset + 1) != 'T' || buffer.get(offset + 2) != 'K') {
+            return -1;
+        }
+        return buffer.get(offset + 3);
+    }
+
+    // ---------- 帧头 ----------
+
+    public static int frameLength(ByteBuffer frame, int offset) {
+        return frame.getInt(offset);
+    }
+
+    public static int version(ByteBuffer frame, int offset) {
+        return frame.get(offset + 4);
+    }
+
+    public static int status(ByteBuffer frame, int offset) {
+        return frame.get(offset + 5);
+    }
+
+    public static int msgType(ByteBuffer frame, int offset) {
+        return frame.getShort(offset + 6);
+    }
+
+    public static int clientNo(ByteBuffer frame, int offset) {
+        return frame.getInt(offset + 8);
+    }
+
+    public static long correlationId(ByteBuffer frame, int offset) {
+        return frame.getLong(offset + 12);
+    }
+
+    public static int bodyLength(ByteBuffer frame, int offset) {
+        return frameLength(frame, offset) - HEADER_LENGTH;
+    }
+
+    /**
+     * 请求帧长度是否合法（至少一个帧头、不超过上限）
+     */
+    public static boolean isValidLength(int length) {
+        return length >= HEADER_LENGTH && length <= MAX_FRAME_LENGTH;
+    }
+
+    // ---------- 203 购票请求体 ----------
+
+    /**
+     * 203 请求体的定长部分和变长部分是否完整、各长度是否合法；先确认定长部分完整，再读取其中的长度字段
+     */
+    public static boolean isPurchase(ByteBuffer frame, int offset) {
+        if (bodyLength(frame, offset) < PURCHASE_LENGTH) {
+            return false;
+        }
+        int trainLength = trainLength(frame, offset);
+        return bodyLength(frame, offset) == PURCHASE_LENGTH + fromLength(frame, offset) + toLength(frame, offset)
+                && trainLength > 0 && trainLength <= TRAIN_NUMBER_LENGTH;
+    }
+
+    /**
+     * 席别，编号不合法时返回 null；返回 TicketRequest 中的常量，不分配对象
+     */
+    public static String seatType(ByteBuffer frame, int offset) {
+        return TicketRequest.seatType(frame.get(offset + HEADER_LENGTH));
+    }
+
+    public static int amount(ByteBuffer frame, int offset) {
+        return frame.get(offset + HEADER_LENGTH + 1);
+    }
+
+    public static int trainStart(ByteBuffer frame, int offset) {
+        return offset + HEADER_LENGTH + 12;
+    }
+
+    public static int trainLength(ByteBuffer frame, int offset) {
+        return frame.get(offset + HEADER_LENGTH + 2) & 0xFF;
+    }
+
+    public static long travelDay(ByteBuffer frame, int offset) {
+        return frame.getInt(offset + HEADER_LENGTH + 8);
+    }
+
+    public static String trainNumber(ByteBuffer frame, int offset) {
+        return string(frame, trainStart(frame, offset), trainLength(frame, offset), true);
+    }
+
+    /**
+     * 是否指定了上车站或下车站
+     */
+    public static boolean hasStations(ByteBuffer frame, int offset) {
+        return fromLength(frame, offset) != 0 || toLength(frame, offset) != 0;
+    }
+
+    /**
+     * 上车站，未指定时返回 null
+     */
+    public static String fromStation(ByteBuffer frame, int offset) {
+        int length = fromLength(frame, offset);
+        return length == 0 ? null : string(frame, offset + HEADER_LENGTH + PURCHASE_LENGTH, length, false);
+    }
+
+    /**
+     * 下车站，未指定时返回 null
+     */
+    public static String toStation(ByteBuffer frame, int offset) {
+        int length = toLength(frame, offset);
+        int start = offset + HEADER_LENGTH + PURCHASE_LENGTH + fromLength(frame, offset);
+        return length == 0 ? null : string(frame, start, length, false);
+    }
+
+    private static int fromLength(ByteBuffer frame, int offset) {
+        return frame.get(offset + HEADER_LENGTH + 3) & 0xFF;
+    }
+
+    private static int toLength(ByteBuffer frame, int offset) {
+        return frame.get(offset + HEADER_LENGTH + 4) & 0xFF;
+    }
+
+    // ---------- 204/205/206 与其他请求体 ----------
+
+    public static long orderId(ByteBuffer frame, int offset) {
+        return frame.getLong(offset + HEADER_LENGTH);
+    }
+
+    /**
+     * 请求体、响应体或推送体的文本
+     */
+    public static String text(ByteBuffer frame, int offset) {
+        return string(frame, offset + HEADER_LENGTH, bodyLength(frame, offset), false);
+    }
+
+    private static String string(ByteBuffer frame, int start, int length, boolean ascii) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = frame.get(start + i);
+        }
+        return new String(bytes, ascii ? StandardCharsets.US_ASCII : StandardCharsets.UTF_8);
+    }
+
+    // ---------- 编码 ----------
+
+    /**
+     * 把文本协议的响应（SUCCESS|... / ERROR|...）或推送（PUSH|...）编码为一帧，帧头带回请求的类型、终端编号和关联号
+     */
+    public static ByteBuffer encodeResponse(int msgType, int clientNo, long correlationId, String response) {
+        byte status;
+        int bodyStart;
+        if (startsWith(response, PUSH)) {
+            status = STATUS_PUSH;
+            bodyStart = PUSH.length;
+        } else if (startsWith(response, SUCCESS)) {
+            status = STATUS_SUCCESS;
+            bodyStart = SUCCESS.length;
+        } else {
+            status = STATUS_ERROR;
+            bodyStart = startsWith(response, ERROR) ? ERROR.length : 0;
+        }
+        if (bodyStart > 0 && bodyStart < response.length() && response.charAt(bodyStart) == '|') {
+            bodyStart++;
+        }
+        return encodeResponse(msgType, clientNo, correlationId, status,
+                response.substring(bodyStart).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 用预先编码好的响应体生成响应帧
+     */
+    public static ByteBuffer encodeResponse(int msgType, int clientNo, long correlationId, byte status, byte[] body) {
+        return encodeResponse(msgType, clientNo, correlationId, status, body, 0);
+    }
+
+    /**
+     * 用预先编码好的字节从 offset 起的部分作为响应体生成响应帧（如跳过缓存响应中的 SUCCESS| 前缀）
+     */
+    public static ByteBuffer encodeResponse(int msgType, int clientNo, long correlationId, byte status,
+                                            byte[] body, int offset) {
+        ByteBuffer frame = header(HEADER_LENGTH + body.length - offset, status, msgType, clientNo, correlationId);
+        frame.put(body, offset, body.length - offset);
+        frame.flip();
+        return frame;
+    }
+
+    /**
+     * 编码 203 购票请求
+     * @param epochDay 乘车日期，-1 为当天
+     * @param from 上车站，null 为始发站
+     * @param to 下车站，null 为终点站
+     */
+    public static ByteBuffer encodePurchase(int clientNo, long correlationId, String trainNumber,
+                                            int seatCode, int amount, long epochDay, String from, String to) {
+        byte[] train = trainNumber.getBytes(StandardCharsets.US_ASCII);
+        byte[] fromBytes = from == null ? new byte[0] : from.getBytes(StandardCharsets.UTF_8);
+        byte[] toBytes = to == null ? new byte[0] : to.getBytes(StandardCharsets.UTF_8);
+        if (train.length == 0 || train.length > TRAIN_NUMBER_LENGTH || fromBytes.length > 255 || toBytes.length > 255) {
+            throw new IllegalArgumentException("车次号或车站名过长");
+        }
+        ByteBuffer frame = header(HEADER_LENGTH + PURCHASE_LENGTH + fromBytes.length + toBytes.length,
+                (byte) 0, 203, clientNo, correlationId);
+        frame.put((byte) seatCode).put((byte) amount).put((byte) train.length)
+                .put((byte) fromBytes.length).put((byte) toBytes.length)
+                .put(new byte[3])
+                .putInt((int) epochDay)
+                .put(train).put(new byte[TRAIN_NUMBER_LENGTH - train.length])
+                .put(fromBytes).put(toBytes);
+        frame.flip();
+        return frame;
+    }
+
+    /**
+     * 编码 204/205/206 订单请求
+     */
+    public static ByteBuffer encodeOrderRequest(int msgType, int clientNo, long correlationId, long orderId) {
+        ByteBuffer frame = header(HEADER_LENGTH + ORDER_LENGTH, (byte) 0, msgType, clientNo, correlationId);
+        frame.putLong(orderId);
+        frame.flip();
+        return frame;
+    }
+
+    /**
+     * 编码请求体为文本的请求（msgPayload 与文本协议相同）
+     */
+    public static ByteBuffer encodeTextRequest(int msgType, int clientNo, long correlationId, String payload) {
+        byte[] body = payload.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer frame = header(HEADER_LENGTH + body.length, (byte) 0, msgType, clientNo, correlationId);
+        frame.put(body);
+        frame.flip();
+        return frame;
+    }
+
+    private static ByteBuffer header(int length, byte status, int msgType, int clientNo, long correlationId) {
+        ByteBuffer frame = ByteBuffer.allocate(length);
+        frame.putInt(length).put(VERSION).put(status).putShort((short) msgType)
+                .putInt(clientNo).putLong(correlationId);
+        return frame;
+    }
+
+    private static boolean startsWith(String text, byte[] prefix) {
+        if (text.length() < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (text.charAt(i) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
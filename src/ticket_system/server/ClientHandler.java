@@ -1,336 +1,279 @@
 package ticket_system.server;
 
-import ticket_system.service.TicketService;
-import ticket_system.service.TrainService;
-import ticket_system.entity.TicketRequest;
 import java.io.*;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class ClientHandler extends Thread implements ClientSession {
+    private static final int MAX_IN_FLIGHT = 32; // 每个连接上并发处理的带关联号请求上限，达到时暂停读取
+    private static final byte[] NEWLINE = {'\n'};
+    // 推送等待写锁的上限：锁被占用说明前一次写入正卡在慢连接上，超时即放弃这条推送
+    private static final long PUSH_LOCK_WAIT_MILLIS = Integer.getInteger("ticket.push.lock.wait.ms", 20);
 
-public class ClientHandler extends Thread {
     private Socket clientSocket;
-    private TicketService ticketService;
-    private TrainService trainService;
+    private MessageDispatcher dispatcher;
     private String clientNo;
+    private volatile OutputStream out; // 文本协议的输出，连接建立后赋值，响应和推送共用
+    private volatile OutputStream frameOut; // 协商为二进制协议后赋值
+    // 整行（整帧）写完才释放，响应与推送不会交错；使用显式锁而不是 synchronized，阻塞写入时不钉住虚拟线程的载体线程
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private volatile boolean closed = false;
+    private final Executor requestPool; // 处理带关联号的请求，为 null 时在读线程中依次处理
+    private final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
 
     public ClientHandler(Socket socket) {
+        this(socket, new MessageDispatcher());
+    }
+
+    public ClientHandler(Socket socket, MessageDispatcher dispatcher) {
+        this(socket, dispatcher, null);
+    }
+
+    public ClientHandler(Socket socket, MessageDispatcher dispatcher, Executor requestPool) {
         this.clientSocket = socket;
-        this.ticketService = TicketService.getInstance();
-        this.trainService = TrainService.getInstance();
+        this.dispatcher = dispatcher;
         this.clientNo = "CLIENT_" + socket.getPort();
+        this.requestPool = requestPool;
     }
 
     @Override
-    public void run() {
-        System.out.println("开始处理客户端连接: " + clientNo);
-
-        try (BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-             PrintWriter out = new PrintWriter(clientSocket.getOutputStream(), true)) {
-
-            String inputLine;
-            while ((inputLine = in.readLine()) != null) {
-                System.out.println("收到客户端消息[" + clientNo + "]: " + inputLine);
-                String response = processMessage(inputLine);
-                out.println(response);
-                System.out.println("发送响应[" + clientNo + "]: " + response);
+    public String getClientNo() {
+        return clientNo;
+    }
 
-                // 如果是关闭连接请求，则退出循环
-                if ("EXIT".equalsIgnoreCase(inputLine.trim())) {
-                    break;
-                }
-            }
-        } catch (IOException e) {
-            System.out.println("客户端连接异常[" + clientNo + "]: " + e.getMessage());
-        } finally {
-            try {
-                clientSocket.close();
-                System.out.println("客户端连接关闭: " + clientNo);
-            } catch (IOException e) {
-                System.out.println("关闭客户端连接异常: " + e.getMessage());
-            }
+    /**
+     * 发送一行消息；二进制协议的连接上把推送编码为一帧
+     */
+    @Override
+    public void send(String line) {
+        if (frameOut != null) {
+            writeFrame(BinaryFrame.encodeResponse(0, 0, 0, line));
+            return;
         }
+        writeLine(line.getBytes(StandardCharsets.UTF_8));
     }
 
     /**
-     * 处理消息格式: clientNo|msgType|msgPayload (msgPayload是JSON格式)
+     * 推送：短时间内拿不到写锁（前一次写入卡在慢连接上）时放弃并返回 false，
+     * 每个慢连接最多占住一个推送线程，其余推送线程不排队等待；写入失败后同样返回 false
      */
-    private String processMessage(String message) {
+    @Override
+    public boolean offer(String line) {
+        if (closed) {
+            return false;
+        }
         try {
-            // 解析消息格式
-            String[] parts = message.split("\\|", 3);
-            if (parts.length < 3) {
-                return "ERROR|消息格式错误，需要：clientNo|msgType|msgPayload";
+            if (!writeLock.tryLock(PUSH_LOCK_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                return false;
             }
-
-            String receivedClientNo = parts[0];
-            String msgType = parts[1];
-            String msgPayload = parts[2];
-
-            System.out.println("解析消息 - clientNo: " + receivedClientNo +
-                    ", msgType: " + msgType +
-                    ", msgPayload: " + msgPayload);
-
-            // 根据消息类型处理
-            switch (msgType) {
-                case "200": // 返回所有车次信息
-                    return handleGetAllTrains();
-
-                case "201": // 新增车次
-                    return handleAddTrain(msgPayload);
-
-                case "202": // 给车次增加余票
-                    return handleAddTickets(msgPayload);
-
-                case "203": // 购票请求
-                    return handlePurchase(msgPayload, receivedClientNo);
-
-                case "204": // 确认支付
-                    return handleConfirmPayment(msgPayload);
-
-                case "205": // 取消订单
-                    return handleCancelOrder(msgPayload);
-
-                case "206": // 查询订单
-                    return handleQueryOrder(msgPayload);
-
-                case "207": // 系统状态
-                    return "SUCCESS|系统状态:" + ticketService.getSystemState();
-
-                case "208": // 订单统计
-                    return ticketService.getOrderStatistics();
-
-                default:
-                    return "ERROR|不支持的消息类型: " + msgType;
-            }
-        } catch (Exception e) {
-            return "ERROR|处理消息异常: " + e.getMessage();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
         }
+        try {
+            send(line); // 写锁可重入，send 内部再次加锁不会阻塞
+        } finally {
+            writeLock.unlock();
+        }
+        return out != null || frameOut != null;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !closed;
     }
 
     /**
-     * 200：获取所有车次信息
+     * 文本协议：写入已编码的一行（不含换行）并刷新
      */
-    private String handleGetAllTrains() {
+    private void writeLine(byte[] line) {
+        OutputStream output = out;
+        if (output == null) {
+            return;
+        }
+        writeLock.lock();
         try {
-            String trainsJson = trainService.getAllTrainsJson();
-            return "SUCCESS|" + trainsJson;
-        } catch (Exception e) {
-            return "ERROR|获取车次信息失败: " + e.getMessage();
+            output.write(line);
+            output.write(NEWLINE);
+            output.flush();
+        } catch (IOException e) {
+            out = null;
+            System.out.println("发送响应失败[" + clientNo + "]: " + e.getMessage());
+        } finally {
+            writeLock.unlock();
         }
     }
 
-    /**
-     * 201：新增车次
-     * msgPayload格式: {"trainId":"G85","start":"北京","end":"上海","seatTypes":{"二等座":100,"一等座":10}}
-     */
-    private String handleAddTrain(String payload) {
+    private void writeFrame(ByteBuffer frame) {
+        OutputStream output = frameOut;
+        if (output == null) {
+            return;
+        }
+        writeLock.lock();
         try {
-            // 手动解析JSON
-            String trainId = extractJsonValue(payload, "trainId");
-            String start = extractJsonValue(payload, "start");
-            String end = extractJsonValue(payload, "end");
-
-            if (trainId == null || start == null || end == null) {
-                return "ERROR|JSON格式错误，缺少必要字段";
-            }
-
-            // 创建车次基本信息
-            String trainInfo = trainId + "|" + start + "|" + end;
-            String result = trainService.addTrain(trainInfo);
-
-            // 如果车次创建成功，添加座位库存
-            if (result.startsWith("SUCCESS")) {
-                // 解析座位类型信息
-                String seatTypesJson = extractJsonObject(payload, "seatTypes");
-                if (seatTypesJson != null) {
-                    // 解析二等座
-                    String secondClass = extractJsonValue(seatTypesJson, "二等座");
-                    if (secondClass != null) {
-                        String ticketInfo = trainId + "|二等座|" + secondClass;
-                        trainService.addTickets(ticketInfo);
-                    }
-
-                    // 解析一等座
-                    String firstClass = extractJsonValue(seatTypesJson, "一等座");
-                    if (firstClass != null) {
-                        String ticketInfo = trainId + "|一等座|" + firstClass;
-                        trainService.addTickets(ticketInfo);
-                    }
-                }
-            }
-
-            return result;
-        } catch (Exception e) {
-            return "ERROR|新增车次失败: " + e.getMessage();
+            output.write(frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+            output.flush();
+        } catch (IOException e) {
+            frameOut = null;
+            System.out.println("发送响应失败[" + clientNo + "]: " + e.getMessage());
+        } finally {
+            writeLock.unlock();
         }
     }
 
-    /**
-     * 202：给车次增加余票
-     * msgPayload格式: {"trainId":"G1002","seatType":"二等座","amount":10}
-     */
-    private String handleAddTickets(String payload) {
-        try {
-            // 手动解析JSON
-            String trainId = extractJsonValue(payload, "trainId");
-            String seatType = extractJsonValue(payload, "seatType");
-            String amount = extractJsonValue(payload, "amount");
+    @Override
+    public void run() {
+        System.out.println("开始处理客户端连接: " + clientNo);
 
-            if (trainId == null || seatType == null || amount == null) {
-                return "ERROR|JSON格式错误，缺少必要字段";
+        try (InputStream input = new BufferedInputStream(clientSocket.getInputStream());
+             OutputStream output = clientSocket.getOutputStream()) {
+            // 首字节为二进制协议的前导时按帧处理，否则按文本行处理
+            input.mark(1);
+            int first = input.read();
+            input.reset();
+            if (first == (BinaryFrame.MAGIC & 0xFF)) {
+                serveFrames(new DataInputStream(input), output);
+            } else {
+                serveLines(new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8)),
+                        new BufferedOutputStream(output));
+            }
+        } catch (IOException e) {
+            System.out.println("客户端连接异常[" + clientNo + "]: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            closed = true;
+            out = null;
+            frameOut = null;
+            dispatcher.sessionClosed(this);
+            try {
+                clientSocket.close();
+                System.out.println("客户端连接关闭: " + clientNo);
+            } catch (IOException e) {
+                System.out.println("关闭客户端连接异常: " + e.getMessage());
             }
-
-            String ticketInfo = trainId + "|" + seatType + "|" + amount;
-            return trainService.addTickets(ticketInfo);
-        } catch (Exception e) {
-            return "ERROR|增加余票失败: " + e.getMessage();
         }
     }
 
-    /**
-     * 203：处理购票请求
-     * msgPayload格式: {"trainId":"G1001","seatType":"二等座","amount":2}
-     */
-    private String handlePurchase(String payload, String clientNo) {
-        try {
-            // 手动解析JSON
-            String trainId = extractJsonValue(payload, "trainId");
-            String seatType = extractJsonValue(payload, "seatType");
-            String amount = extractJsonValue(payload, "amount");
+    private void serveLines(BufferedReader in, OutputStream output) throws IOException, InterruptedException {
+        out = output;
 
-            if (trainId == null || seatType == null || amount == null) {
-                return "ERROR|JSON格式错误，缺少必要字段";
+        String inputLine;
+        while ((inputLine = in.readLine()) != null) {
+            int prefix = MessageDispatcher.correlationPrefix(inputLine);
+            if (prefix > 0) {
+                submitCorrelated(inputLine, prefix);
+                continue;
             }
-
-            // 验证座位类型
-            if (!"一等座".equals(seatType) && !"二等座".equals(seatType)) {
-                return "ERROR|不支持的座位类型，只支持：一等座、二等座";
+            // 车次列表直接发送缓存的 UTF-8 响应，不重新序列化和编码
+            byte[] cached = dispatcher.cachedReply(inputLine);
+            if (cached != null) {
+                writeLine(cached);
+                continue;
+            }
+            // 必然失败的购票请求（车次不存在、已售罄）直接返回预先生成的响应，不解析、不记录日志
+            String rejected = dispatcher.fastReject(inputLine);
+            if (rejected != null) {
+                send(rejected);
+                continue;
+            }
+            System.out.println("收到客户端消息[" + clientNo + "]: " + inputLine);
+            String response = dispatcher.processMessage(inputLine, this);
+            send(response);
+            System.out.println("发送响应[" + clientNo + "]: " + response);
+
+            // 如果是关闭连接请求，则退出循环
+            if ("EXIT".equalsIgnoreCase(inputLine.trim())) {
+                break;
             }
-
-            TicketRequest request = new TicketRequest(
-                    trainId, // trainNumber
-                    seatType, // seatType
-                    Integer.parseInt(amount), // passengerCount
-                    clientNo // terminalId
-            );
-
-            return ticketService.handlePurchase(request);
-        } catch (NumberFormatException e) {
-            return "ERROR|人数必须是数字";
-        } catch (Exception e) {
-            return "ERROR|购票处理失败: " + e.getMessage();
         }
     }
 
     /**
-     * 204：确认支付
-     * msgPayload格式: {"orderId":"ORDER_123456"}
+     * 二进制协议：回复前导（版本不支持时回复后关闭），之后逐帧读取；每帧都带关联号，与带关联号的文本请求一样并发处理
      */
-    private String handleConfirmPayment(String payload) {
-        try {
-            String orderId = extractJsonValue(payload, "orderId");
-            if (orderId == null) {
-                return "ERROR|JSON格式错误，缺少orderId字段";
-            }
-            return ticketService.confirmPayment(orderId);
-        } catch (Exception e) {
-            return "ERROR|确认支付失败: " + e.getMessage();
+    private void serveFrames(DataInputStream in, OutputStream output) throws IOException, InterruptedException {
+        byte[] preface = new byte[BinaryFrame.PREFACE_LENGTH];
+        in.readFully(preface);
+        int version = BinaryFrame.prefaceVersion(ByteBuffer.wrap(preface), 0);
+        frameOut = output;
+        writeFrame(BinaryFrame.preface(BinaryFrame.VERSION));
+        if (version != BinaryFrame.VERSION) {
+            System.out.println("不支持的协议版本[" + clientNo + "]: " + version);
+            return;
         }
-    }
 
-    /**
-     * 205：取消订单
-     * msgPayload格式: {"orderId":"ORDER_123456"}
-     */
-    private String handleCancelOrder(String payload) {
-        try {
-            String orderId = extractJsonValue(payload, "orderId");
-            if (orderId == null) {
-                return "ERROR|JSON格式错误，缺少orderId字段";
+        while (true) {
+            int length;
+            try {
+                length = in.readInt();
+            } catch (EOFException e) {
+                return;
+            }
+            if (!BinaryFrame.isValidLength(length)) {
+                throw new IOException("请求帧长度不合法: " + length);
+            }
+            ByteBuffer frame = ByteBuffer.allocate(length);
+            frame.putInt(length);
+            in.readFully(frame.array(), 4, length - 4);
+
+            ByteBuffer rejected = dispatcher.fastReject(frame, 0);
+            if (rejected != null) {
+                writeFrame(rejected);
+                continue;
             }
-            return ticketService.cancelOrder(orderId);
-        } catch (Exception e) {
-            return "ERROR|取消订单失败: " + e.getMessage();
+            submitConcurrent(() -> handleFrame(frame), () -> writeFrame(BinaryFrame.encodeResponse(
+                    BinaryFrame.msgType(frame, 0), BinaryFrame.clientNo(frame, 0),
+                    BinaryFrame.correlationId(frame, 0), "ERROR|服务器正在关闭")));
         }
     }
 
-    /**
-     * 206：查询订单
-     * msgPayload格式: {"orderId":"ORDER_123456"}
-     */
-    private String handleQueryOrder(String payload) {
-        try {
-            String orderId = extractJsonValue(payload, "orderId");
-            if (orderId == null) {
-                return "ERROR|JSON格式错误，缺少orderId字段";
-            }
-            return ticketService.queryOrder(orderId);
-        } catch (Exception e) {
-            return "ERROR|查询订单失败: " + e.getMessage();
-        }
+    private void handleFrame(ByteBuffer frame) {
+        System.out.println("收到二进制请求[" + clientNo + "]: 类型 " + BinaryFrame.msgType(frame, 0)
+                + "，关联号 " + BinaryFrame.correlationId(frame, 0));
+        writeFrame(dispatcher.processFrame(frame, 0, this));
     }
 
     /**
-     * 从JSON字符串中提取字段值
+     * 带关联号的请求交给请求线程池处理，响应带同一关联号、按完成顺序写回，慢请求不阻塞同一连接上的其他请求
      */
-    private String extractJsonValue(String json, String key) {
-        try {
-            String searchKey = "\"" + key + "\":";
-            int startIndex = json.indexOf(searchKey);
-            if (startIndex == -1) return null;
-
-            startIndex += searchKey.length();
-            int endIndex = json.indexOf(",", startIndex);
-            if (endIndex == -1) {
-                endIndex = json.indexOf("}", startIndex);
-            }
-            if (endIndex == -1) return null;
-
-            String value = json.substring(startIndex, endIndex).trim();
-
-            // 去除引号
-            if (value.startsWith("\"") && value.endsWith("\"")) {
-                value = value.substring(1, value.length() - 1);
-            }
-
-            return value;
-        } catch (Exception e) {
-            return null;
-        }
+    private void submitCorrelated(String line, int prefix) throws InterruptedException {
+        submitConcurrent(() -> handleCorrelated(line, prefix),
+                () -> send(line.substring(0, prefix) + "ERROR|服务器正在关闭"));
     }
 
     /**
-     * 从JSON字符串中提取对象
+     * 在请求线程池中执行，没有请求线程池时直接执行；并发处理的请求达到上限时读线程等待，不再读取新的请求
      */
-    private String extractJsonObject(String json, String key) {
+    private void submitConcurrent(Runnable task, Runnable rejected) throws InterruptedException {
+        if (requestPool == null) {
+            task.run();
+            return;
+        }
+        inFlight.acquire();
         try {
-            String searchKey = "\"" + key + "\":";
-            int startIndex = json.indexOf(searchKey);
-            if (startIndex == -1) return null;
-
-            startIndex += searchKey.length();
-
-            // 找到对象的开始位置
-            int braceStart = json.indexOf("{", startIndex);
-            if (braceStart == -1) return null;
-
-            // 找到匹配的结束大括号
-            int braceCount = 1;
-            int currentIndex = braceStart + 1;
-
-            while (braceCount > 0 && currentIndex < json.length()) {
-                char c = json.charAt(currentIndex);
-                if (c == '{') braceCount++;
-                else if (c == '}') braceCount--;
-                currentIndex++;
-            }
-
-            if (braceCount == 0) {
-                return json.substring(braceStart, currentIndex);
-            }
-
-            return null;
-        } catch (Exception e) {
-            return null;
+            requestPool.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    inFlight.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.release();
+            rejected.run();
         }
     }
-}
\ No newline at end of file
+
+    private void handleCorrelated(String line, int prefix) {
+        String response = dispatcher.processCorrelated(line, prefix, this);
+        send(response);
+        System.out.println("发送响应[" + clientNo + "]: " + response);
+    }
+}
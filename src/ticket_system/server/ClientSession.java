@@ -0,0 +1,18 @@
+package ticket_system.server;
+
+import ticket_system.service.PushTarget;
+
+/**
+ * 客户端连接的抽象：阻塞 Socket 与 NIO 两种连接方式都实现它，业务层通过它向终端主动推送消息
+ */
+public interface ClientSession extends PushTarget {
+    /**
+     * 连接编号（CLIENT_端口）
+     */
+    String getClientNo();
+
+    /**
+     * 发送一行消息，可在任意线程调用；连接已关闭时直接丢弃
+     */
+    void send(String line);
+}
@@ -0,0 +1,726 @@
+package ticket_system.server;
+
+import ticket_system.service.OrderEventPublisher;
+import ticket_system.service.SoldOutFilter;
+import ticket_system.service.TicketService;
+import ticket_system.service.TrainService;
+import ticket_system.entity.Order;
+import ticket_system.entity.TicketRequest;
+import ticket_system.util.IdGenerator;
+import ticket_system.util.JsonReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+
+/**
+ * 消息分发器：解析 clientNo|msgType|msgPayload 并调用对应的业务处理
+ * 与具体的连接方式（阻塞Socket / NIO）无关，可被多个线程同时使用
+ */
+public class MessageDispatcher {
+    private static final int MAX_CORRELATION_ID = 32;
+    private static final String PURCHASE_TYPE = "|203|";
+    private static final String LIST_TYPE = "|200|";
+    private static final int SUCCESS_PREFIX = "SUCCESS|".length();
+    // 售罄时的响应与正常购票流程逐字相同，按人数预先生成
+    private static final String[] SOLD_OUT_REPLIES = {
+            null,
+            "ERROR|余票不足，需要：1",
+            "ERROR|余票不足，需要：2",
+            "ERROR|余票不足，需要：3",
+            "ERROR|余票不足，需要：4",
+            "ERROR|余票不足，需要：5"
+    };
+    // 二进制协议的售罄响应体（ERROR| 之后的部分）
+    private static final byte[][] SOLD_OUT_BODIES = new byte[SOLD_OUT_REPLIES.length][];
+
+    static {
+        for (int amount = 1; amount < SOLD_OUT_REPLIES.length; amount++) {
+            SOLD_OUT_BODIES[amount] = SOLD_OUT_REPLIES[amount].substring("ERROR|".length())
+                    .getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    private final TicketService ticketService;
+    private final TrainService trainService;
+    private final OrderEventPublisher orderEvents;
+
+    public MessageDispatcher() {
+        this.ticketService = TicketService.getInstance();
+        this.trainService = TrainService.getInstance();
+        this.orderEvents = OrderEventPublisher.getInstance();
+    }
+
+    /**
+     * 处理消息格式: clientNo|msgType|msgPayload (msgPayload是JSON格式)
+     */
+    public String processMessage(String message) {
+        return processMessage(message, null);
+    }
+
+    /**
+     * 处理来自某个连接的消息，需要异步推送结果的请求（如排队购票）通过 session 推送
+     * @param session 消息来源连接，为 null 时不推送
+     */
+    public String processMessage(String message, ClientSession session) {
+        try {
+            // 解析消息格式
+            String[] parts = message.split("\\|", 3);
+            if (parts.length < 3) {
+                return "ERROR|消息格式错误，需要：clientNo|msgType|msgPayload";
+            }
+
+            String receivedClientNo = parts[0];
+            String msgType = parts[1];
+            String msgPayload = parts[2];
+            if (session != null) {
+                bindTerminal(receivedClientNo, session);
+            }
+
+            System.out.println("解析消息 - clientNo: " + receivedClientNo +
+                    ", msgType: " + msgType +
+                    ", msgPayload: " + msgPayload);
+
+            // 根据消息类型处理
+            switch (msgType) {
+                case "200": // 返回所有车次信息
+                    return handleGetAllTrains(msgPayload);
+
+                case "201": // 新增车次
+                    return handleAddTrain(msgPayload);
+
+                case "202": // 给车次增加余票
+                    return handleAddTickets(msgPayload);
+
+                case "203": // 购票请求
+                    return handlePurchase(msgPayload, receivedClientNo);
+
+                case "204": // 确认支付
+                    return handleConfirmPayment(msgPayload);
+
+                case "205": // 取消订单
+                    return handleCancelOrder(msgPayload);
+
+                case "206": // 查询订单
+                    return handleQueryOrder(msgPayload);
+
+                case "207": // 系统状态
+                    return "SUCCESS|系统状态:" + ticketService.getSystemState();
+
+                case "208": // 订单统计
+                    return ticketService.getOrderStatistics();
+
+                case "209": // 排队购票
+                    return handleQueuedPurchase(msgPayload, receivedClientNo, session);
+
+                case "210": // 查询排队结果
+                    return handleQueryQueue(msgPayload);
+
+                case "211": // 加入候补
+                    return handleJoinWaitlist(msgPayload, receivedClientNo, session);
+
+                case "212": // 取消候补
+                    return handleCancelWaitlist(msgPayload);
+
+                case "213": // 按区间查询车次
+                    return handleQueryRoute(msgPayload);
+
+                case "214": // 中转方案查询
+                    return handleQueryTransfers(msgPayload);
+
+                case "215": // 订阅库存推送
+                    return handleSubscribeInventory(msgPayload, session);
+
+                default:
+                    return "ERROR|不支持的消息类型: " + msgType;
+            }
+        } catch (Exception e) {
+            return "ERROR|处理消息异常: " + e.getMessage();
+        }
+    }
+
+    /**
+     * 带关联号的请求：#关联号|clientNo|msgType|msgPayload，关联号不超过 32 个字符
+     * 同一连接上带关联号的请求并发处理，响应以相同的 #关联号| 开头、按完成顺序返回；
+     * 不带关联号的请求仍按到达顺序逐个处理
+     * @return 关联号前缀（含分隔符 '|'）的长度；不带关联号时返回 0
+     */
+    public static int correlationPrefix(String line) {
+        if (line.isEmpty() || line.charAt(0) != '#') {
+            return 0;
+        }
+        int separator = line.indexOf('|');
+        return separator > 1 && separator <= MAX_CORRELATION_ID + 1 ? separator + 1 : 0;
+    }
+
+    /**
+     * 处理带关联号的请求，返回带同一关联号的响应
+     * @param prefix correlationPrefix 的返回值，大于 0
+     */
+    public String processCorrelated(String line, int prefix, ClientSession session) {
+        String message = line.substring(prefix);
+        String response = fastReject(message);
+        if (response == null) {
+            System.out.println("收到客户端消息[" + session.getClientNo() + "]: " + line);
+            response = processMessage(message, session);
+        }
+        return line.substring(0, prefix) + response;
+    }
+
+    /**
+     * 连接关闭：取消该连接的订阅和终端登记
+     */
+    public void sessionClosed(ClientSession session) {
+        trainService.unsubscribeInventory(session);
+        orderEvents.unbind(session);
+    }
+
+    /**
+     * 登记终端所在的连接，订单状态变化推送到这里；连接只在第一条消息时登记，之后每条消息只做一次查找
+     */
+    private void bindTerminal(String terminalId, ClientSession session) {
+        if (!orderEvents.isBound(session)) {
+            orderEvents.bind(terminalId, session);
+        }
+    }
+
+    /**
+     * 购票请求（203）的快速拒绝：在解析消息、创建任何对象之前，直接在消息行上查找车次号、席别、人数和日期，
+     * 车次不存在或该席别当天已售罄时立即返回与正常流程相同的错误响应。
+     * 只处理能确定结果的情况：消息含转义字符、字段不完整或取值不合法、指定了上下车站（需要校验车站）时返回 null，
+     * 由 processMessage 按正常流程处理并给出相应的错误。
+     * @return 拒绝响应；不能快速拒绝时返回 null
+     */
+    public String fastReject(String message) {
+        int typeStart = message.indexOf('|');
+        if (typeStart < 0 || !message.startsWith(PURCHASE_TYPE, typeStart) || message.indexOf('\\', typeStart) >= 0) {
+            return null;
+        }
+        int payload = typeStart + PURCHASE_TYPE.length();
+
+        int trainStart = stringValue(message, "\"trainId\"", payload);
+        int seatStart = stringValue(message, "\"seatType\"", payload);
+        int amountStart = valueStart(message, "\"amount\"", payload);
+        if (trainStart < 0 || seatStart < 0 || amountStart < 0) {
+            return null;
+        }
+        int trainEnd = message.indexOf('"', trainStart);
+        int seatEnd = message.indexOf('"', seatStart);
+        if (trainEnd <= trainStart || seatEnd < 0 || !TicketRequest.isSeatType(message, seatStart, seatEnd)) {
+            return null;
+        }
+        if (amountStart >= message.length()) {
+            return null;
+        }
+        int amount = message.charAt(amountStart) - '0';
+        if (amount < 1 || amount > 5 || !isValueEnd(message, amountStart + 1)) {
+            return null;
+        }
+
+        long epochDay = -1;
+        if (valueStart(message, "\"date\"", payload) >= 0) {
+            epochDay = parseDate(message, stringValue(message, "\"date\"", payload));
+            if (epochDay < 0) {
+                return null;
+            }
+        }
+
+        int result = trainService.getSoldOutFilter().check(message, trainStart, trainEnd, seatStart, seatEnd, epochDay);
+        if (result == SoldOutFilter.UNKNOWN_TRAIN) {
+            return "ERROR|车次不存在：" + message.substring(trainStart, trainEnd);
+        }
+        if (result == SoldOutFilter.SOLD_OUT && valueStart(message, "\"from\"", payload) < 0
+                && valueStart(message, "\"to\"", payload) < 0) {
+            return SOLD_OUT_REPLIES[amount];
+        }
+        return null;
+    }
+
+    /**
+     * 数值之后必须是逗号、右花括号或空白："amount":2.5、"amount":2x、"amount":25 都不是合法的一位人数
+     */
+    private static boolean isValueEnd(String message, int index) {
+        if (index >= message.length()) {
+            return false;
+        }
+        char c = message.charAt(index);
+        return c == ',' || c == '}' || c == ' ' || c == '\t' || c == '\r' || c == '\n';
+    }
+
+    /**
+     * 车次列表请求（200）直接返回缓存的 UTF-8 响应：库存版本未变化时不重新序列化、不重新编码，也不逐条记录日志
+     * 只处理不带参数和只带 version 的请求，其他情况返回 null，由 processMessage 按正常流程处理
+     * @return 响应的 UTF-8 编码（不含换行），调用方不得修改；不能直接返回缓存时返回 null
+     */
+    public byte[] cachedReply(String message) {
+        int typeStart = message.indexOf('|');
+        if (typeStart < 0 || !message.startsWith(LIST_TYPE, typeStart)) {
+            return null;
+        }
+        String payload = message.substring(typeStart + LIST_TYPE.length()).trim();
+        if (payload.isEmpty() || payload.equals("{}")) {
+            return trainService.getAllTrainsReply();
+        }
+        try {
+            JsonReader json = new JsonReader(payload);
+            return json.has("version") ? trainService.getTrainsSinceReply(json.getLong("version", 0)) : null;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 二进制购票请求（203）的快速拒绝，规则与 fastReject(String) 相同；直接在缓冲区上判断，除拒绝响应帧外不分配对象
+     * @param offset 帧在 frame 中的起始下标，帧已完整接收
+     * @return 拒绝响应帧；不能快速拒绝时返回 null
+     */
+    public ByteBuffer fastReject(ByteBuffer frame, int offset) {
+        if (BinaryFrame.msgType(frame, offset) != 203 || !BinaryFrame.isPurchase(frame, offset)) {
+            return null;
+        }
+        String seatType = BinaryFrame.seatType(frame, offset);
+        int amount = BinaryFrame.amount(frame, offset);
+        if (seatType == null || amount < 1 || amount > 5) {
+            return null;
+        }
+        int trainStart = BinaryFrame.trainStart(frame, offset);
+        int trainEnd = trainStart + BinaryFrame.trainLength(frame, offset);
+        long epochDay = BinaryFrame.travelDay(frame, offset);
+        int result = trainService.getSoldOutFilter().check(frame, trainStart, trainEnd, seatType, epochDay < 0 ? -1 : epochDay);
+        if (result == SoldOutFilter.PASS || (result == SoldOutFilter.SOLD_OUT && BinaryFrame.hasStations(frame, offset))) {
+            return null;
+        }
+        int clientNo = BinaryFrame.clientNo(frame, offset);
+        long correlationId = BinaryFrame.correlationId(frame, offset);
+        if (result == SoldOutFilter.UNKNOWN_TRAIN) {
+            return BinaryFrame.encodeResponse(203, clientNo, correlationId,
+                    "ERROR|车次不存在：" + BinaryFrame.trainNumber(frame, offset));
+        }
+        return BinaryFrame.encodeResponse(203, clientNo, correlationId, BinaryFrame.STATUS_ERROR, SOLD_OUT_BODIES[amount]);
+    }
+
+    /**
+     * 处理一个二进制请求帧，返回响应帧（带回请求的消息类型、终端编号和关联号）
+     * 203-206 直接按定长请求体调用业务处理，其他消息类型把文本请求体交给 processMessage
+     * @param offset 帧在 frame 中的起始下标，帧已完整接收
+     */
+    public ByteBuffer processFrame(ByteBuffer frame, int offset, ClientSession session) {
+        int msgType = BinaryFrame.msgType(frame, offset);
+        int clientNo = BinaryFrame.clientNo(frame, offset);
+        String terminalId = String.valueOf(clientNo);
+        if (msgType == 200 && BinaryFrame.bodyLength(frame, offset) == 0) {
+            // 全部车次：直接用缓存的 UTF-8 响应作为响应体
+            return BinaryFrame.encodeResponse(msgType, clientNo, BinaryFrame.correlationId(frame, offset),
+                    BinaryFrame.STATUS_SUCCESS, trainService.getAllTrainsReply(), SUCCESS_PREFIX);
+        }
+        String response;
+        try {
+            response = dispatchFrame(frame, offset, msgType, terminalId, session);
+        } catch (Exception e) {
+            response = "ERROR|处理请求失败: " + e.getMessage();
+        }
+        return BinaryFrame.encodeResponse(msgType, clientNo, BinaryFrame.correlationId(frame, offset), response);
+    }
+
+    private String dispatchFrame(ByteBuffer frame, int offset, int msgType, String terminalId, ClientSession session) {
+        if (msgType < 203 || msgType > 206) {
+            return processMessage(terminalId + "|" + msgType + "|" + BinaryFrame.text(frame, offset), session);
+        }
+        if (session != null) {
+            bindTerminal(terminalId, session);
+        }
+        if (msgType == 203) {
+            if (!BinaryFrame.isPurchase(frame, offset)) {
+                return "ERROR|消息格式错误，购票请求体长度不符";
+            }
+            String seatType = BinaryFrame.seatType(frame, offset);
+            if (seatType == null) {
+                return "ERROR|不支持的座位类型，只支持：一等座、二等座";
+            }
+            TicketRequest request = new TicketRequest(BinaryFrame.trainNumber(frame, offset), seatType,
+                    BinaryFrame.amount(frame, offset), terminalId);
+            request.setFromStation(BinaryFrame.fromStation(frame, offset));
+            request.setToStation(BinaryFrame.toStation(frame, offset));
+            long epochDay = BinaryFrame.travelDay(frame, offset);
+            if (epochDay >= 0) {
+                request.setTravelDate(LocalDate.ofEpochDay(epochDay));
+            }
+            return purchase(request);
+        }
+        if (BinaryFrame.bodyLength(frame, offset) != BinaryFrame.ORDER_LENGTH) {
+            return "ERROR|消息格式错误，订单请求体应为 8 字节订单号";
+        }
+        String orderId = IdGenerator.format(Order.ID_PREFIX, BinaryFrame.orderId(frame, offset));
+        switch (msgType) {
+            case 204:
+                return ticketService.confirmPayment(orderId);
+            case 205:
+                return ticketService.cancelOrder(orderId);
+            default:
+                return ticketService.queryOrder(orderId);
+        }
+    }
+
+    /**
+     * 字段值（冒号和空白之后）的起始下标，字段不存在时返回 -1；调用方已确认消息中没有转义字符
+     */
+    private static int valueStart(String message, String quotedKey, int from) {
+        int index = message.indexOf(quotedKey, from);
+        while (index >= 0) {
+            int i = skipSpaces(message, index + quotedKey.length());
+            if (i < message.length() && message.charAt(i) == ':') {
+                return skipSpaces(message, i + 1);
+            }
+            index = message.indexOf(quotedKey, index + 1);
+        }
+        return -1;
+    }
+
+    /**
+     * 字符串字段值的起始下标（引号之后），字段不存在或不是字符串时返回 -1
+     */
+    private static int stringValue(String message, String quotedKey, int from) {
+        int start = valueStart(message, quotedKey, from);
+        return start >= 0 && start < message.length() && message.charAt(start) == '"' ? start + 1 : -1;
+    }
+
+    private static int skipSpaces(String message, int i) {
+        while (i < message.length() && Character.isWhitespace(message.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * 解析 yyyy-MM-dd 格式的日期值（后面紧跟引号），格式或日期不合法时返回 -1
+     */
+    private static long parseDate(String message, int start) {
+        if (start < 0 || start + 10 >= message.length() || message.charAt(start + 4) != '-'
+                || message.charAt(start + 7) != '-' || message.charAt(start + 10) != '"') {
+            return -1;
+        }
+        int year = digits(message, start, 4);
+        int month = digits(message, start + 5, 2);
+        int day = digits(message, start + 8, 2);
+        if (year < 0 || month < 0 || day < 0) {
+            return -1;
+        }
+        try {
+            return LocalDate.of(year, month, day).toEpochDay();
+        } catch (DateTimeException e) {
+            return -1;
+        }
+    }
+
+    private static int digits(String message, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            int digit = message.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * 200：获取所有车次信息
+     * msgPayload为空时返回全部车次；带上次收到的版本号时只返回变化部分
+     * msgPayload格式: {"version":12}
+     */
+    private String handleGetAllTrains(String payload) {
+        try {
+            JsonReader json = new JsonReader(payload);
+            if (json.has("version")) {
+                return trainService.getTrainsSince(json.getLong("version", 0));
+            }
+            String trainsJson = trainService.getAllTrainsJson();
+            return "SUCCESS|" + trainsJson;
+        } catch (NumberFormatException e) {
+            return "ERROR|版本号必须是数字";
+        } catch (Exception e) {
+            return "ERROR|获取车次信息失败: " + e.getMessage();
+        }
+    }
+
+    /**
+     * 201：新增车次
+     * msgPayload格式: {"trainId":"G85","start":"北京","end":"上海","via":["济南西","南京南"],"seatTypes":{"二等座":100,"一等座":10}}
+     * via（经停站）可省略
+     */
+    private String handleAddTrain(String payload) {
+        try {
+            JsonReader json = new JsonReader(payload);
+            String trainId = json.getString("trainId");
+            String start = json.getString("start");
+            String end = json.getString("end");
+
+            if (trainId == null || start == null || end == null) {
+                return "ERROR|JSON格式错误，缺少必要字段";
+            }
+
+            // 创建车次基本信息
+            String trainInfo = trainId + "|" + start + "|" + end;
+            List<String> via = json.getStringList("via");
+            if (via != null && !via.isEmpty()) {
+                trainInfo += "|" + String.join(",", via);
+            }
+            String result = trainService.addTrain(trainInfo);
+
+            // 如果车次创建成功，添加座位库存
+            if (result.startsWith("SUCCESS")) {
+                // 解析座位类型信息
+                JsonReader seatTypes = json.getObject("seatTypes");
+                if (seatTypes != null) {
+                    // 解析二等座
+                    String secondClass = seatTypes.getString("二等座");
+                    if (secondClass != null) {
+                        String ticketInfo = trainId + "|二等座|" + secondClass;
+                        trainService.addTickets(ticketInfo);
+                    }
+
+                    // 解析一等座
+                    String firstClass = seatTypes.getString("一等座");
+                    if (firstClass != null) {
+                        String ticketInfo = trainId + "|一等座|" + firstClass;
+                        trainService.addTickets(ticketInfo);
+                    }
+                }
+            }
+
+            return result;
+        } catch (Exception e) {
+            return "ERROR|新增车次失败: " + e.getMessage();
+        }
+    }
+
+    /**
+     * 202：给车次增加余票
+     * msgPayload格式: {"trainId":"G1002","seatType":"二等座","amount":10}
+     */
+    private String handleAddTickets(String payload) {
+        try {
+            JsonReader json = new JsonReader(payload);
+            String trainId = json.getString("trainId");
+            String seatType = json.getString("seatType");
+            String amount = json.getString("amount");
+
+            if (trainId == null || seatType == null || amount == null) {
+                return "ERROR|JSON格式错误，缺少必要字段";
+            }
+
+            String ticketInfo = trainId + "|" + seatType + "|" + amount;
+            return trainService.addTickets(ticketInfo);
+        } catch (Exception e) {
+            return "ERROR|增加余票失败: " + e.getMessage();
+        }
+    }
+
+    /**
+     * 203：处理购票请求
+     * msgPayload格式: {"trainId":"G1001","seatType":"二等座","amount":2,"date":"2025-01-20","from":"济南西","to":"上海"}
+     * date（乘车日期，预售期内）可省略，默认为当天；from/to（上车站/下车站）可省略，默认为始发站/终点站
+     */
+    private String handlePurchase(String payload, String clientNo) {
+        try {
+            if (ticketService.isPipelineEnabled()) {
+                // 流水线模式：解析、校验、锁票、建单、落盘由流水线各阶段完成
+                return ticketService.submitPurchase(payload, clientNo).join();
+            }
+            return ticketService.handlePurchase(TicketRequest.fromJson(payload, clientNo));
+        } catch (IllegalArgumentException e) {
+            return "ERROR|" + e.getMessage();
+        } catch (Exception e) {
+            return "ERROR|购票处理失败: " + e.getMessage();
+        }
+    }
+
+    /**
+     * 已解码的购票请求（二进制协议）
+     */
+    private String purchase(TicketRequest request) {
+        try {
+            if (ticketService.isPipelineEnabled()) {
+                return ticketService.submitPurchase(request).join();
+            }
+            return ticketService.handlePurchase(request);
+        } catch (Exception e) {
+            return "ERROR|购票处理失败: " + e.getMessage();
+        }
+    }
+
+    /**
+     * 209：排队购票，立即返回排队号和排队位置，购票结果稍后以 PUSH|排队号|结果 推送
+     * msgPayload格式与203相同
+     */
+    private String handleQueuedPurchase(String payload, String clientNo, ClientSession session) {
+        try {
+            TicketRequest request = TicketRequest.fromJson(payload, clientNo);
+            return ticketService.enqueuePurchase(request, session == null ? null : session::send);
+        } catch (IllegalArgumentException e) {
+            return "ERROR|" + e.getMessage();
+        } catch (Exception e) {
+            return "ERROR|排队购票失败: " + e.getMessage();
+        }
+    }
+
+    /**
+     * 210：查询排队结果，排队中返回当前位置，已完成返回购票结果
+     * msgPayload格式: {"queueId":"Q_XXXX"}
+     */
+    private String handleQueryQueue(String payload) {
+        try {
+            String queueId = new JsonReader(payload).getString("queueId");
+            if (queueId == null) {
+                return "ERROR|JSON格式错误，缺少queueId字段";
+            }
+            return ticketService.queryQueuedPurchase(queueId);
+        } catch (Exception e) {
+            return "ERROR|查询排队结果失败: " + e.getMessage();
+        }
+    }
+
+    /**
+     * 211：候补购票，有余票时直接出票；售罄时加入候补，座位释放后自动出票并以 PUSH|候补号|结果 推送
+     * msgPayload格式与203相同
+     */
+    private String handleJoinWaitlist(String payload, String clientNo, ClientSession session) {
+        try {
+            TicketRequest request = TicketRequest.fromJson(payload, clientNo);
+            return ticketService.joinWaitlist(request, session == null ? null : session::send);
+        } catch (IllegalArgumentException e) {
+            return "ERROR|" + e.getMessage();
+        } catch (Exception e) {
+            return "ERROR|候补购票失败: " + e.getMessage();
+        }
+    }
+
+    /**
+     * 212：取消候补
+     * msgPayload格式: {"waitlistId":"W_XXXX"}
+     */
+    private String handleCancelWaitlist(String payload) {
+        try {
+            String waitlistId = new JsonReader(payload).getString("waitlistId");
+            if (waitlistId == null) {
+                return "ERROR|JSON格式错误，缺少waitlistId字段";
+            }
+            return ticketService.cancelWaitlist(waitlistId);
+        } catch (Exception e) {
+            return "ERROR|取消候补失败: " + e.getMessage();
+        }
+    }
+
+    /**
+     * 213：按上车站、下车站查询车次及该区间的余票
+     * msgPayload格式: {"from":"北京","to":"上海","date":"2025-01-20"}，date 可省略，默认为当天
+     */
+    private String handleQueryRoute(String payload) {
+        try {
+            JsonReader json = new JsonReader(payload);
+            String from = json.getString("from");
+            String to = json.getString("to");
+            if (from == null || to == null) {
+                return "ERROR|JSON格式错误，缺少必要字段";
+            }
+            String date = json.getString("date");
+            return trainService.queryRoute(from, to, date == null ? null : LocalDate.parse(date));
+        } catch (DateTimeParseException e) {
+            return "ERROR|日期格式错误，应为yyyy-MM-dd";
+        } catch (Exception e) {
+            return "ERROR|查询车次失败: " + e.getMessage();
+        }
+    }
+
+    /**
+     * 214：中转方案查询（一次或两次中转），每段都有余票
+     * msgPayload格式: {"from":"北京","to":"广州","date":"2025-01-20","maxTransfers":2}，date、maxTransfers 可省略
+     */
+    private String handleQueryTransfers(String payload) {
+        try {
+            JsonReader json = new JsonReader(payload);
+            String from = json.getString("from");
+            String to = json.getString("to");
+            if (from == null || to == null) {
+                return "ERROR|JSON格式错误，缺少必要字段";
+            }
+            String date = json.getString("date");
+            return trainService.queryTransfers(from, to, date == null ? null : LocalDate.parse(date),
+                    json.getInt("maxTransfers", 2));
+        } catch (NumberFormatException e) {
+            return "ERROR|中转次数必须是数字";
+        } catch (DateTimeParseException e) {
+            return "ERROR|日期格式错误，应为yyyy-MM-dd";
+        } catch (Exception e) {
+            return "ERROR|查询中转方案失败: " + e.getMessage();
+        }
+    }
+
+    /**
+     * 215：订阅库存推送，此后余票变化由服务端在同一连接上推送，不必再轮询 200
+     * msgPayload格式: {"version":12}，version 为已有的车次列表版本号，可省略
+     * 订阅后先推送 PUSH|TRAINS|FULL/DELTA|版本号|车次 作为基线，之后推送 PUSH|INVENTORY|版本号|车次:席别=余票,...
+     */
+    private String handleSubscribeInventory(String payload, ClientSession session) {
+        if (session == null) {
+            return "ERROR|当前连接不支持推送";
+        }
+        try {
+            long version = new JsonReader(payload).getLong("version", 0);
+            return trainService.subscribeInventory(session, version);
+        } catch (NumberFormatException e) {
+            return "ERROR|版本号必须是数字";
+        }
+    }
+
+    /**
+     * 204：确认支付
+     * msgPayload格式: {"orderId":"ORDER_123456"}
+     */
+    private String handleConfirmPayment(String payload) {
+        try {
+            String orderId = new JsonReader(payload).getString("orderId");
+            if (orderId == null) {
+                return "ERROR|JSON格式错误，缺少orderId字段";
+            }
+            return ticketService.confirmPayment(orderId);
+        } catch (Exception e) {
+            return "ERROR|确认支付失败: " + e.getMessage();
+        }
+    }
+
+    /**
+     * 205：取消订单
+     * msgPayload格式: {"orderId":"ORDER_123456"}
+     */
+    private String handleCancelOrder(String payload) {
+        try {
+            String orderId = new JsonReader(payload).getString("orderId");
+            if (orderId == null) {
+                return "ERROR|JSON格式错误，缺少orderId字段";
+            }
+            return ticketService.cancelOrder(orderId);
+        } catch (Exception e) {
+            return "ERROR|取消订单失败: " + e.getMessage();
+        }
+    }
+
+    /**
+     * 206：查询订单
+     * msgPayload格式: {"orderId":"ORDER_123456"}
+     */
+    private String handleQueryOrder(String payload) {
+        try {
+            String orderId = new JsonReader(payload).getString("orderId");
+            if (orderId == null) {
+                return "ERROR|JSON格式错误，缺少orderId字段";
+            }
+            return ticketService.queryOrder(orderId);
+        } catch (Exception e) {
+            return "ERROR|查询订单失败: " + e.getMessage();
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,408 @@
+package ticket_system.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * NIO 模式下的单个客户端连接
+ * 读写只在所属反应器线程执行；同一连接的请求按到达顺序逐个交给工作线程，保证响应顺序不变。
+ * 带关联号的请求（#关联号|...）不排队，直接并发交给工作线程，响应按完成顺序写回。
+ * 首字节为二进制协议前导（见 BinaryFrame）的连接按帧处理，每帧都与带关联号的请求一样并发处理
+ */
+public class NioConnection implements ClientSession {
+    private static final int MAX_LINE_LENGTH = 64 * 1024;  // 单行请求最大长度
+    private static final int MAX_PENDING_REQUESTS = 32;    // 排队和并发处理中的请求超过后暂停读取，形成背压
+    // 写队列中的关闭标记：它之前的数据全部写出后关闭连接，保证最后一条响应先于关闭发出
+    private static final ByteBuffer CLOSE_MARKER = ByteBuffer.allocate(0);
+    private static final byte[] NEWLINE = {'\n'};
+    // 写队列中尚未写出的字节数超过它时不再接受推送（offer 返回 false），慢连接的写队列不会因推送无限增长
+    private static final int MAX_PUSH_BACKLOG = Integer.getInteger("ticket.push.backlog.bytes", 256 * 1024);
+
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final NioReactor reactor;
+    private final String clientNo;
+
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(4096);
+    private byte[] lineBuffer = new byte[256];
+    private int lineLength = 0;
+    private boolean textMode = false;  // 已确定为文本协议，仅反应器线程访问
+    private ByteBuffer frameBuffer;    // 二进制协议的接收缓冲区（写模式），仅反应器线程访问
+    private volatile boolean binary = false; // 已完成二进制协议协商
+
+    private final Queue<ByteBuffer> writeQueue = new ConcurrentLinkedQueue<>();
+    private final AtomicLong queuedBytes = new AtomicLong(); // 写队列中尚未写出的字节数
+    private final Deque<String> pendingRequests = new ArrayDeque<>(); // 由 this 保护
+    private boolean processing = false;                               // 由 this 保护
+    private int concurrentRequests = 0;                               // 由 this 保护
+    private boolean readPaused = false;                               // 由 this 保护
+    private volatile boolean closed = false;
+
+    public NioConnection(SocketChannel channel, SelectionKey key, NioReactor reactor) {
+        this.channel = channel;
+        this.key = key;
+        this.reactor = reactor;
+        this.clientNo = "CLIENT_" + remotePort(channel);
+    }
+
+    @Override
+    public String getClientNo() {
+        return clientNo;
+    }
+
+    /**
+     * 可读事件：读取字节并按 '\n' 拆分出完整请求；二进制协议的连接按帧拆分
+     */
+    void onReadable() throws IOException {
+        readBuffer.clear();
+        int n = channel.read(readBuffer);
+        if (n == -1) {
+            close();
+            return;
+        }
+        readBuffer.flip();
+        if (frameBuffer == null && !textMode && readBuffer.hasRemaining()) {
+            if (readBuffer.get(0) == BinaryFrame.MAGIC) {
+                frameBuffer = ByteBuffer.allocate(readBuffer.capacity());
+            } else {
+                textMode = true;
+            }
+        }
+        if (frameBuffer != null) {
+            readFrames();
+            return;
+        }
+        while (readBuffer.hasRemaining()) {
+            byte b = readBuffer.get();
+            if (b == '\n') {
+                int length = lineLength;
+                if (length > 0 && lineBuffer[length - 1] == '\r') {
+                    length--;
+                }
+                String line = new String(lineBuffer, 0, length, StandardCharsets.UTF_8);
+                lineLength = 0;
+                onRequest(line);
+            } else {
+                if (lineLength == MAX_LINE_LENGTH) {
+                    throw new IOException("请求行过长");
+                }
+                if (lineLength == lineBuffer.length) {
+                    lineBuffer = Arrays.copyOf(lineBuffer, Math.min(lineBuffer.length * 2, MAX_LINE_LENGTH));
+                }
+                lineBuffer[lineLength++] = b;
+            }
+        }
+    }
+
+    /**
+     * 二进制协议：先处理协商前导，再拆分出全部完整的帧，不完整的帧留在缓冲区等待后续数据
+     */
+    private void readFrames() throws IOException {
+        if (frameBuffer.remaining() < readBuffer.remaining()) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(frameBuffer.capacity() * 2,
+                    frameBuffer.position() + readBuffer.remaining()));
+            frameBuffer.flip();
+            frameBuffer = grown.put(frameBuffer);
+        }
+        frameBuffer.put(readBuffer);
+        frameBuffer.flip();
+        int offset = 0;
+        if (!binary) {
+            if (frameBuffer.limit() < BinaryFrame.PREFACE_LENGTH) {
+                frameBuffer.compact();
+                return;
+            }
+            int version = BinaryFrame.prefaceVersion(frameBuffer, 0);
+            binary = true;
+            if (version != BinaryFrame.VERSION) {
+                System.out.println("不支持的协议版本[" + clientNo + "]: " + version);
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                enqueue(BinaryFrame.preface(BinaryFrame.VERSION));
+                enqueue(CLOSE_MARKER);
+                return;
+            }
+            enqueue(BinaryFrame.preface(BinaryFrame.VERSION));
+            offset = BinaryFrame.PREFACE_LENGTH;
+        }
+        while (frameBuffer.limit() - offset >= 4) {
+            int length = BinaryFrame.frameLength(frameBuffer, offset);
+            if (!BinaryFrame.isValidLength(length)) {
+                throw new IOException("请求帧长度不合法: " + length);
+            }
+            if (frameBuffer.limit() - offset < length) {
+                break;
+            }
+            onFrame(offset, length);
+            offset += length;
+        }
+        frameBuffer.position(offset);
+        frameBuffer.compact();
+    }
+
+    /**
+     * 收到完整的帧：必然失败的购票请求直接在接收缓冲区上拒绝，其他请求复制出来交给工作线程
+     */
+    private void onFrame(int offset, int length) {
+        ByteBuffer rejected = reactor.getDispatcher().fastReject(frameBuffer, offset);
+        if (rejected != null) {
+            enqueue(rejected);
+            return;
+        }
+        ByteBuffer frame = ByteBuffer.allocate(length);
+        System.arraycopy(frameBuffer.array(), offset, frame.array(), 0, length);
+        beginConcurrent();
+        try {
+            reactor.getWorkerPool().execute(() -> processFrame(frame));
+        } catch (RejectedExecutionException e) {
+            close();
+        }
+    }
+
+    private void processFrame(ByteBuffer frame) {
+        System.out.println("收到二进制请求[" + clientNo + "]: 类型 " + BinaryFrame.msgType(frame, 0)
+                + "，关联号 " + BinaryFrame.correlationId(frame, 0));
+        enqueue(reactor.getDispatcher().processFrame(frame, 0, this));
+        endConcurrent();
+    }
+
+    /**
+     * 可写事件：把待发送的响应写入通道
+     */
+    void onWritable() throws IOException {
+        if (flush() && key.isValid()) {
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * 按顺序写出待发送的数据（仅反应器线程调用），遇到关闭标记时关闭连接
+     * @return 是否已全部写出；内核缓冲区已满时返回 false，等待下一次可写事件
+     */
+    private boolean flush() throws IOException {
+        ByteBuffer buffer;
+        while ((buffer = writeQueue.peek()) != null) {
+            if (buffer == CLOSE_MARKER) {
+                close();
+                return true;
+            }
+            queuedBytes.addAndGet(-channel.write(buffer));
+            if (buffer.hasRemaining()) {
+                return false;
+            }
+            writeQueue.poll();
+        }
+        return true;
+    }
+
+    /**
+     * 收到完整请求：当前没有处理中的请求则立即提交，否则排队
+     */
+    private void onRequest(String line) {
+        int prefix = MessageDispatcher.correlationPrefix(line);
+        if (prefix > 0) {
+            beginConcurrent();
+            try {
+                reactor.getWorkerPool().execute(() -> processCorrelated(line, prefix));
+            } catch (RejectedExecutionException e) {
+                close();
+            }
+            return;
+        }
+        boolean submit;
+        synchronized (this) {
+            if (processing) {
+                pendingRequests.add(line);
+                submit = false;
+            } else {
+                processing = true;
+                submit = true;
+            }
+            if (pendingRequests.size() + concurrentRequests >= MAX_PENDING_REQUESTS && !readPaused) {
+                readPaused = true;
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            }
+        }
+        if (submit) {
+            submitToWorker(line);
+        }
+    }
+
+    /**
+     * 在工作线程中处理带关联号的请求，不影响该连接上排队中的请求
+     */
+    private void processCorrelated(String line, int prefix) {
+        String response = reactor.getDispatcher().processCorrelated(line, prefix, this);
+        send(response);
+        System.out.println("发送响应[" + clientNo + "]: " + response);
+        endConcurrent();
+    }
+
+    /**
+     * 登记一个并发处理的请求（带关联号的请求或二进制帧），与排队中的请求合计达到上限时暂停读取
+     */
+    private synchronized void beginConcurrent() {
+        concurrentRequests++;
+        if (pendingRequests.size() + concurrentRequests >= MAX_PENDING_REQUESTS && !readPaused) {
+            readPaused = true;
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        }
+    }
+
+    private void endConcurrent() {
+        boolean resume;
+        synchronized (this) {
+            concurrentRequests--;
+            resume = readPaused && pendingRequests.size() + concurrentRequests < MAX_PENDING_REQUESTS / 2;
+        }
+        if (resume) {
+            reactor.execute(this::resumeReading);
+        }
+    }
+
+    private void submitToWorker(String line) {
+        try {
+            reactor.getWorkerPool().execute(() -> process(line));
+        } catch (RejectedExecutionException e) {
+            close();
+        }
+    }
+
+    /**
+     * 在工作线程中处理请求，完成后继续处理该连接排队中的下一个请求
+     */
+    private void process(String line) {
+        // 车次列表直接发送缓存的 UTF-8 响应；必然失败的购票请求（车次不存在、已售罄）直接返回预先生成的响应，不解析、不记录日志
+        byte[] cached = reactor.getDispatcher().cachedReply(line);
+        if (cached != null) {
+            enqueue(ByteBuffer.wrap(cached));
+            enqueue(ByteBuffer.wrap(NEWLINE));
+        } else {
+            String response = reactor.getDispatcher().fastReject(line);
+            if (response == null) {
+                System.out.println("收到客户端消息[" + clientNo + "]: " + line);
+                response = reactor.getDispatcher().processMessage(line, this);
+                System.out.println("发送响应[" + clientNo + "]: " + response);
+            }
+            send(response);
+        }
+
+        // 如果是关闭连接请求，发送完响应后关闭：关闭标记排在响应之后，响应写出后才会关闭
+        if ("EXIT".equalsIgnoreCase(line.trim())) {
+            enqueue(CLOSE_MARKER);
+            return;
+        }
+
+        String next;
+        boolean resume = false;
+        synchronized (this) {
+            next = pendingRequests.poll();
+            if (next == null) {
+                processing = false;
+            }
+            if (readPaused && pendingRequests.size() + concurrentRequests < MAX_PENDING_REQUESTS / 2) {
+                resume = true;
+            }
+        }
+        if (resume) {
+            reactor.execute(this::resumeReading);
+        }
+        if (next != null) {
+            submitToWorker(next);
+        }
+    }
+
+    private synchronized void resumeReading() {
+        if (readPaused && key.isValid()) {
+            readPaused = false;
+            key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * 发送一行响应或推送消息，可在任意线程调用；二进制协议的连接上编码为一帧
+     */
+    @Override
+    public void send(String line) {
+        if (binary) {
+            enqueue(BinaryFrame.encodeResponse(0, 0, 0, line));
+        } else {
+            enqueue(ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8)));
+        }
+    }
+
+    /**
+     * 推送：写队列积压超过 MAX_PUSH_BACKLOG 时不发送，由推送方合并后重试
+     */
+    @Override
+    public boolean offer(String line) {
+        if (closed || queuedBytes.get() > MAX_PUSH_BACKLOG) {
+            return false;
+        }
+        send(line);
+        return true;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    private void enqueue(ByteBuffer buffer) {
+        if (closed) {
+            return;
+        }
+        queuedBytes.addAndGet(buffer.remaining());
+        writeQueue.add(buffer);
+        if (reactor.inReactorThread()) {
+            // 已在反应器线程（快速拒绝、协议协商）：直接写出，写不完再关注可写事件，不必投递任务和唤醒选择器
+            try {
+                if (!flush() && key.isValid()) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                }
+            } catch (IOException e) {
+                System.out.println("客户端连接异常[" + clientNo + "]: " + e.getMessage());
+                close();
+            }
+            return;
+        }
+        reactor.execute(() -> {
+            if (key.isValid()) {
+                key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+            }
+        });
+    }
+
+    void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        key.cancel();
+        reactor.getDispatcher().sessionClosed(this);
+        try {
+            channel.close();
+            System.out.println("客户端连接关闭: " + clientNo);
+        } catch (IOException e) {
+            System.out.println("关闭客户端连接异常: " + e.getMessage());
+        }
+    }
+
+    private static int remotePort(SocketChannel channel) {
+        try {
+            return ((InetSocketAddress) channel.getRemoteAddress()).getPort();
+        } catch (IOException | ClassCastException e) {
+            return -1;
+        }
+    }
+}
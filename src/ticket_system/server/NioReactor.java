@@ -0,0 +1,153 @@
+package ticket_system.server;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * I/O 反应器线程：一个 Selector 负责一批连接的读写
+ * 只做字节读写和按行拆包，完整的请求交给工作线程池处理
+ */
+public class NioReactor implements Runnable {
+    private final Selector selector;
+    private final MessageDispatcher dispatcher;
+    private final ExecutorService workerPool;
+    private final Queue<Runnable> pendingTasks = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    public NioReactor(int index, MessageDispatcher dispatcher, ExecutorService workerPool) throws IOException {
+        this.selector = Selector.open();
+        this.dispatcher = dispatcher;
+        this.workerPool = workerPool;
+        this.thread = new Thread(this, "NioReactor-" + index);
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * 注册新接入的连接（由接收线程调用）
+     */
+    public void register(SocketChannel channel) {
+        execute(() -> {
+            try {
+                channel.configureBlocking(false);
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                NioConnection connection = new NioConnection(channel, key, this);
+                key.attach(connection);
+                System.out.println("接受新的客户端连接: " + connection.getClientNo());
+            } catch (IOException e) {
+                System.out.println("注册客户端连接失败: " + e.getMessage());
+                closeQuietly(channel);
+            }
+        });
+    }
+
+    /**
+     * 在反应器线程中执行任务（修改 interestOps 等操作必须在此线程完成）
+     */
+    void execute(Runnable task) {
+        pendingTasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * 当前线程是否为本反应器线程
+     */
+    boolean inReactorThread() {
+        return Thread.currentThread() == thread;
+    }
+
+    MessageDispatcher getDispatcher() {
+        return dispatcher;
+    }
+
+    ExecutorService getWorkerPool() {
+        return workerPool;
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                selector.select();
+                runPendingTasks();
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+
+                    NioConnection connection = (NioConnection) key.attachment();
+                    if (!key.isValid() || connection == null) {
+                        continue;
+                    }
+                    try {
+                        if (key.isReadable()) {
+                            connection.onReadable();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.onWritable();
+                        }
+                    } catch (IOException e) {
+                        System.out.println("客户端连接异常[" + connection.getClientNo() + "]: " + e.getMessage());
+                        connection.close();
+                    } catch (RuntimeException e) {
+                        // 单个连接的异常数据（如畸形的帧）只关闭该连接，不能让反应器线程退出
+                        System.out.println("处理客户端数据异常[" + connection.getClientNo() + "]: " + e);
+                        connection.close();
+                    }
+                }
+            } catch (ClosedSelectorException e) {
+                break;
+            } catch (IOException e) {
+                if (running) {
+                    System.out.println("反应器轮询异常: " + e.getMessage());
+                }
+            }
+        }
+        closeAll();
+    }
+
+    private void runPendingTasks() {
+        Runnable task;
+        while ((task = pendingTasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    /**
+     * 停止反应器并关闭所有连接
+     */
+    public void stop() {
+        running = false;
+        selector.wakeup();
+    }
+
+    private void closeAll() {
+        try {
+            for (SelectionKey key : selector.keys()) {
+                closeQuietly(key.channel());
+            }
+            selector.close();
+        } catch (IOException | ClosedSelectorException e) {
+            System.out.println("关闭反应器异常: " + e.getMessage());
+        }
+    }
+
+    private static void closeQuietly(java.nio.channels.Channel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
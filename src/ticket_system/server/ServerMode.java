@@ -0,0 +1,24 @@
+package ticket_system.server;
+
+/**
+ * 服务器运行模式
+ */
+public enum ServerMode {
+    BLOCKING,   // 阻塞模式：每个连接占用线程池中的一个线程
+    VIRTUAL,    // 虚拟线程模式：每个连接一个虚拟线程，仍使用阻塞读写（需要 JDK 21+）
+    NIO;        // 非阻塞模式：Selector 反应器处理I/O，业务交给工作线程池
+
+    /**
+     * 根据启动参数解析运行模式，未识别时使用 NIO 模式
+     */
+    public static ServerMode fromName(String name) {
+        if (name != null) {
+            for (ServerMode mode : values()) {
+                if (mode.name().equalsIgnoreCase(name.trim())) {
+                    return mode;
+                }
+            }
+        }
+        return NIO;
+    }
+}
@@ -1,32 +1,82 @@
 package ticket_system.server;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 public class TicketSystemServer {
     private ServerSocket serverSocket;
-    private boolean running = false;
+    private ServerSocketChannel serverChannel;
+    private Selector acceptSelector;
+    private NioReactor[] reactors;
+    private volatile boolean running = false;
     private final int PORT = 8888;
+    private final ServerMode mode;
     private ExecutorService threadPool;
+    private ExecutorService requestPool; // 阻塞/虚拟线程模式下处理带关联号的请求
+
+    // NIO 模式下的线程配置
+    private static final int REACTOR_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    private static final int WORKER_THREADS = 10;
+    private static final int ACCEPT_BACKLOG = 1024; // 连接风暴时避免 SYN 队列溢出导致客户端重传
 
     public TicketSystemServer() {
-        this.threadPool = Executors.newFixedThreadPool(10); // 最大10个并发连接
+        this(ServerMode.NIO);
+    }
+
+    public TicketSystemServer(ServerMode mode) {
+        this.mode = mode;
+        if (mode == ServerMode.VIRTUAL) {
+            // 虚拟线程模式：每个连接一个虚拟线程，连接数只受内存限制
+            this.threadPool = newVirtualThreadExecutor();
+        } else {
+            // 阻塞模式：最大10个并发连接；NIO模式：10个业务工作线程，连接数不受限制
+            this.threadPool = Executors.newFixedThreadPool(WORKER_THREADS);
+        }
+        // 虚拟线程模式下每个请求一个虚拟线程；阻塞模式下连接线程已占满 threadPool，另建请求线程池
+        this.requestPool = mode == ServerMode.BLOCKING ? Executors.newFixedThreadPool(WORKER_THREADS) : threadPool;
+    }
+
+    /**
+     * 创建“每个任务一个虚拟线程”的执行器
+     * 通过反射调用，使代码在 JDK 21 以下也能编译；不支持时退化为按需创建平台线程
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null);
+        } catch (ReflectiveOperationException e) {
+            System.out.println("当前JDK不支持虚拟线程，改用平台线程（每连接一个线程）");
+            return Executors.newCachedThreadPool();
+        }
     }
 
     public void start() {
         try {
-            serverSocket = new ServerSocket(PORT);
             running = true;
+            if (mode == ServerMode.NIO) {
+                openNioServer();
+            } else {
+                serverSocket = new ServerSocket(PORT, ACCEPT_BACKLOG);
+            }
 
             System.out.println("====================================");
             System.out.println("   票务系统服务器启动成功!");
+            System.out.println("   运行模式: " + mode);
             System.out.println("   监听端口: " + PORT);
             System.out.println("   服务器地址: 127.0.0.1:" + PORT);
             System.out.println("   支持的消息类型:");
-            System.out.println("   200 - 获取所有车次信息");
+            System.out.println("   200 - 获取所有车次信息（可带版本号获取增量）");
             System.out.println("   201 - 新增车次");
             System.out.println("   202 - 给车次增加余票");
             System.out.println("   203 - 购票请求");
@@ -36,21 +86,10 @@ public class TicketSystemServer {
             System.out.println("   207 - 系统状态");
             System.out.println("====================================");
 
-            while (running) {
-                try {
-                    Socket clientSocket = serverSocket.accept();
-                    System.out.println("接受新的客户端连接: " +
-                            clientSocket.getInetAddress().getHostAddress() + ":" +
-                            clientSocket.getPort());
-
-                    // 使用线程池处理客户端连接
-                    threadPool.execute(new ClientHandler(clientSocket));
-
-                } catch (IOException e) {
-                    if (running) {
-                        System.out.println("接受客户端连接失败: " + e.getMessage());
-                    }
-                }
+            if (mode == ServerMode.NIO) {
+                acceptNioConnections();
+            } else {
+                acceptBlockingConnections();
             }
         } catch (IOException e) {
             System.out.println("启动服务器失败: " + e.getMessage());
@@ -59,11 +98,93 @@ public class TicketSystemServer {
         }
     }
 
+    /**
+     * 阻塞/虚拟线程模式：每个连接交给执行器中的一个线程处理
+     */
+    private void acceptBlockingConnections() {
+        MessageDispatcher dispatcher = new MessageDispatcher();
+        while (running) {
+            try {
+                Socket clientSocket = serverSocket.accept();
+                System.out.println("接受新的客户端连接: " +
+                        clientSocket.getInetAddress().getHostAddress() + ":" +
+                        clientSocket.getPort());
+
+                // 使用线程池处理客户端连接
+                threadPool.execute(new ClientHandler(clientSocket, dispatcher, requestPool));
+
+            } catch (IOException e) {
+                if (running) {
+                    System.out.println("接受客户端连接失败: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * 打开非阻塞监听通道并启动 I/O 反应器线程
+     */
+    private void openNioServer() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(PORT), ACCEPT_BACKLOG);
+        serverChannel.configureBlocking(false);
+        acceptSelector = Selector.open();
+        serverChannel.register(acceptSelector, SelectionKey.OP_ACCEPT);
+
+        MessageDispatcher dispatcher = new MessageDispatcher();
+        reactors = new NioReactor[REACTOR_THREADS];
+        for (int i = 0; i < reactors.length; i++) {
+            reactors[i] = new NioReactor(i, dispatcher, threadPool);
+            reactors[i].start();
+        }
+    }
+
+    /**
+     * NIO模式：接收线程只负责 accept，连接按轮询方式分配给反应器
+     */
+    private void acceptNioConnections() {
+        int next = 0;
+        while (running) {
+            try {
+                acceptSelector.select();
+                Iterator<SelectionKey> it = acceptSelector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (!key.isValid() || !key.isAcceptable()) {
+                        continue;
+                    }
+                    SocketChannel channel;
+                    while ((channel = serverChannel.accept()) != null) {
+                        reactors[next].register(channel);
+                        next = (next + 1) % reactors.length;
+                    }
+                }
+            } catch (IOException e) {
+                if (running) {
+                    System.out.println("接受客户端连接失败: " + e.getMessage());
+                }
+            } catch (ClosedSelectorException e) {
+                break;
+            }
+        }
+    }
+
     public void stop() {
         running = false;
+        if (reactors != null) {
+            for (NioReactor reactor : reactors) {
+                if (reactor != null) {
+                    reactor.stop();
+                }
+            }
+        }
         if (threadPool != null) {
             threadPool.shutdown();
         }
+        if (requestPool != null && requestPool != threadPool) {
+            requestPool.shutdown();
+        }
         if (serverSocket != null) {
             try {
                 serverSocket.close();
@@ -71,6 +192,16 @@ public class TicketSystemServer {
                 System.out.println("关闭服务器Socket异常: " + e.getMessage());
             }
         }
+        if (serverChannel != null) {
+            try {
+                if (acceptSelector != null) {
+                    acceptSelector.close();
+                }
+                serverChannel.close();
+            } catch (IOException e) {
+                System.out.println("关闭服务器Socket异常: " + e.getMessage());
+            }
+        }
         System.out.println("票务系统服务器已停止");
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,267 @@
+package ticket_system.service;
+
+import ticket_system.entity.Train;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 库存推送：订阅者（215）不再轮询 200，余票变化后由服务端在同一连接上推送
+ *
+ * 库存变化时只记录发生变化的车次号（在打版本号之前记录）并安排一次推送：距上次推送已超过 interval 时立即推送，
+ * 否则在上次推送后满 interval 时推送。推送时取走这些车次，每个车次只推送当前余票，
+ * 同一间隔内的多次变化合并为一条，推送频率与售票速度无关；零星的变化不必等满一个间隔。
+ *
+ * 推送线程只生成每个车次的推送片段，放入每个订阅者的有界发件箱（车次号 -> 片段，同一车次的新片段覆盖未发出的旧片段），
+ * 再由发送线程池为每个订阅者逐个发送，一个慢订阅者不会拖慢其他订阅者。发件箱中的车次超过上限，
+ * 或连接积压过多拒绝推送（PushTarget.offer 返回 false）时，清空发件箱、改为重新同步：
+ * 稍后按该订阅者已收到的版本号补发一次 PUSH|TRAINS（同 200 的增量响应），积压的只是一个标记而不是消息。
+ * 每个订阅者先收到基线再收到增量，顺序不会颠倒。
+ *
+ * 推送格式：
+ * - PUSH|TRAINS|FULL|版本号|全部车次 或 PUSH|TRAINS|DELTA|版本号|变化的车次：订阅后的基线（同 200 的响应），
+ *   以及订阅后新增的车次（需要出发站、到达站等完整信息）；
+ * - PUSH|INVENTORY|版本号|车次:席别=余票,席别=余票;车次:...：已知车次的余票变化。
+ * 版本号为推送时已包含的库存版本，断线重连后带上它订阅即可只补发变化部分。
+ *
+ * 推送间隔由系统属性 ticket.push.interval.millis 指定（默认 50ms），
+ * 每个订阅者发件箱的车次数上限由 ticket.push.outbox.size 指定（默认 256）。
+ */
+class InventoryPublisher {
+    private final TrainService trainService;
+    private final long intervalMillis = Math.max(1, Long.getLong("ticket.push.interval.millis", 50));
+    private final int outboxSize = Math.max(1, Integer.getInteger("ticket.push.outbox.size", 256));
+    private final Map<PushTarget, Subscriber> subscribers = new ConcurrentHashMap<>();
+    private final Set<String> dirty = ConcurrentHashMap.newKeySet();
+    private final Set<String> announced = new HashSet<>(); // 已向订阅者推送过完整信息的车次，仅推送线程访问
+    private final AtomicBoolean scheduled = new AtomicBoolean(); // 已安排了一次尚未开始的推送
+    private volatile long lastPublishMillis;
+    private volatile ScheduledExecutorService pusher;
+    private volatile ExecutorService senders;
+
+    InventoryPublisher(TrainService trainService) {
+        this.trainService = trainService;
+    }
+
+    /**
+     * 订阅：同一连接重复订阅时以新的版本号重新发送基线
+     * @param clientVersion 客户端已有的车次列表版本号，0 表示没有
+     */
+    String subscribe(PushTarget target, long clientVersion) {
+        subscribers.put(target, new Subscriber(target, clientVersion));
+        start();
+        schedule();
+        return "SUCCESS|已订阅库存推送|推送间隔:" + intervalMillis + "ms";
+    }
+
+    void unsubscribe(PushTarget target) {
+        subscribers.remove(target);
+    }
+
+    /**
+     * 记录发生变化的车次，在 TrainService 发布新版本号之前调用；没有订阅者时不记录
+     */
+    void markDirty(String trainNumber) {
+        if (!subscribers.isEmpty()) {
+            dirty.add(trainNumber);
+            schedule();
+        }
+    }
+
+    /**
+     * 安排一次推送，已安排时不重复安排；与上次推送至少间隔 interval
+     */
+    private void schedule() {
+        ScheduledExecutorService executor = pusher;
+        if (executor == null || !scheduled.compareAndSet(false, true)) {
+            return;
+        }
+        long delay = lastPublishMillis + intervalMillis - System.currentTimeMillis();
+        executor.schedule(this::publish, Math.max(0, delay), TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void start() {
+        if (pusher != null) {
+            return;
+        }
+        announced.addAll(trainService.getAllTrains().keySet());
+        pusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "InventoryPublisher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        senders = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "InventorySender");
+            thread.setDaemon(true);
+            return thread;
+        });
+        System.out.println("库存推送已启动，推送间隔: " + intervalMillis + "ms");
+    }
+
+    /**
+     * 一次推送：生成本间隔内变化车次的推送片段放入每个订阅者的发件箱，再安排发送；新订阅者和需要重新同步的订阅者发送基线
+     */
+    private void publish() {
+        // 先清除标记再取走变化的车次，之后记录的变化会安排下一次推送，不会遗漏
+        scheduled.set(false);
+        lastPublishMillis = System.currentTimeMillis();
+        try {
+            if (subscribers.isEmpty()) {
+                dirty.clear();
+                return;
+            }
+            // 先取版本号再取走变化的车次：不大于该版本的变化都已记录，一定在本次推送中
+            long version = trainService.getInventoryVersion();
+            List<String> changed = new ArrayList<>();
+            Iterator<String> iterator = dirty.iterator();
+            while (iterator.hasNext()) {
+                changed.add(iterator.next());
+                iterator.remove();
+            }
+
+            // 每个车次的片段只生成一次，所有订阅者共用：新车次为完整 JSON，已知车次为各席别余票
+            Map<String, String> added = new LinkedHashMap<>();
+            Map<String, String> inventory = new LinkedHashMap<>();
+            for (String trainNumber : changed) {
+                Train train = trainService.getTrain(trainNumber);
+                if (train == null) {
+                    continue;
+                }
+                if (announced.add(trainNumber)) {
+                    added.put(trainNumber, train.toJson());
+                    continue;
+                }
+                StringBuilder segment = new StringBuilder(trainNumber).append(":");
+                boolean first = true;
+                for (String seatType : train.getSeatTypes()) {
+                    if (!first) segment.append(",");
+                    segment.append(seatType).append("=").append(train.getSeatInventory(seatType));
+                    first = false;
+                }
+                inventory.put(trainNumber, segment.toString());
+            }
+
+            for (Subscriber subscriber : subscribers.values()) {
+                boolean send;
+                synchronized (subscriber) {
+                    if (!subscriber.resync) {
+                        subscriber.added.putAll(added);
+                        subscriber.inventory.putAll(inventory);
+                        subscriber.pendingVersion = version;
+                        if (subscriber.added.size() + subscriber.inventory.size() > outboxSize) {
+                            subscriber.resync();
+                        }
+                    }
+                    send = !subscriber.sending && (subscriber.resync || !subscriber.inventory.isEmpty()
+                            || !subscriber.added.isEmpty());
+                    subscriber.sending |= send;
+                }
+                if (send) {
+                    senders.execute(() -> send(subscriber));
+                }
+            }
+        } catch (RuntimeException e) {
+            System.out.println("库存推送失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 在发送线程中依次发出订阅者发件箱中的推送，直到发件箱为空；同一订阅者同时只有一个发送任务
+     */
+    private void send(Subscriber subscriber) {
+        try {
+            while (true) {
+                long version;
+                long baselineFrom = -1;
+                List<String> lines = new ArrayList<>(2);
+                synchronized (subscriber) {
+                    if (subscriber.resync) {
+                        // 先清除标记再取基线：之后的变化都在基线之后放入发件箱，不会遗漏
+                        subscriber.resync = false;
+                        baselineFrom = subscriber.deliveredVersion;
+                        version = trainService.getInventoryVersion();
+                    } else if (subscriber.added.isEmpty() && subscriber.inventory.isEmpty()) {
+                        subscriber.sending = false;
+                        return;
+                    } else {
+                        version = subscriber.pendingVersion;
+                        if (!subscriber.added.isEmpty()) {
+                            lines.add("PUSH|TRAINS|DELTA|" + version + "|["
+                                    + String.join(",", subscriber.added.values()) + "]");
+                            subscriber.added.clear();
+                        }
+                        if (!subscriber.inventory.isEmpty()) {
+                            lines.add("PUSH|INVENTORY|" + version + "|"
+                                    + String.join(";", subscriber.inventory.values()));
+                            subscriber.inventory.clear();
+                        }
+                    }
+                }
+                if (baselineFrom >= 0) {
+                    lines.add("PUSH|TRAINS|" + trainService.getTrainsSince(baselineFrom));
+                }
+                for (String line : lines) {
+                    if (!subscriber.target.offer(line)) {
+                        onRejected(subscriber);
+                        return;
+                    }
+                }
+                synchronized (subscriber) {
+                    subscriber.deliveredVersion = version;
+                }
+            }
+        } catch (RuntimeException e) {
+            subscribers.remove(subscriber.target, subscriber);
+            System.out.println("库存推送失败，取消订阅: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 连接拒绝推送：已关闭则取消订阅；积压过多则改为重新同步，下一次推送时再试
+     */
+    private void onRejected(Subscriber subscriber) {
+        if (!subscriber.target.isOpen()) {
+            subscribers.remove(subscriber.target, subscriber);
+            return;
+        }
+        synchronized (subscriber) {
+            subscriber.resync();
+            subscriber.sending = false;
+        }
+        schedule();
+    }
+
+    /**
+     * 一个订阅者：有界发件箱（车次号 -> 尚未发出的片段）和已收到的版本号，访问时对订阅者加锁
+     */
+    private static final class Subscriber {
+        private final PushTarget target;
+        private final Map<String, String> added = new LinkedHashMap<>();     // 新车次的完整 JSON
+        private final Map<String, String> inventory = new LinkedHashMap<>(); // 已知车次的余票
+        private long deliveredVersion; // 客户端已有的版本号，重新同步时从它开始补发
+        private long pendingVersion;   // 发件箱中的片段已包含的版本号
+        private boolean resync = true; // 需要发送基线（新订阅者）或重新同步（发件箱溢出、连接积压）
+        private boolean sending;       // 已有发送任务
+
+        private Subscriber(PushTarget target, long clientVersion) {
+            this.target = target;
+            this.deliveredVersion = clientVersion;
+        }
+
+        private void resync() {
+            added.clear();
+            inventory.clear();
+            resync = true;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package ticket_system.service;
+
+import ticket_system.entity.Order;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 订单状态推送：订单支付、取消、支付超时后把事件推送给下单终端的连接，终端不必再轮询 206
+ *
+ * 连接登记表按终端编号（消息中的 clientNo，即订单的 terminalId）找到连接。每个连接只在收到第一条消息时登记一次
+ * 其中的终端编号，之后的消息只做一次查找；终端编号已登记在另一个仍然打开的连接上时不抢占，
+ * 原连接关闭后，终端在新连接上即可登记。登记与注销在同一把锁下进行，并在锁内确认连接仍然打开，
+ * 已关闭的连接不会留在登记表中。
+ *
+ * 每个连接一个有界发件箱，按订单号保存尚未发出的事件：同一订单的新事件覆盖未发出的旧事件（只需要最终状态），
+ * 发件箱已满时丢弃最早的事件。事件由发送线程池为每个连接逐个发出（同一连接同时只有一个发送任务），
+ * 订单状态流转（包括时间轮线程中的支付超时）和其他连接都不会被慢连接阻塞；
+ * 连接积压过多拒绝推送时，未发出的事件留在发件箱中，稍后重试。
+ *
+ * 推送格式：PUSH|ORDER|订单号|状态|说明，说明中包含“已出票”“已取消”“超时”，与终端的状态判断一致。
+ * 每个连接发件箱的容量由系统属性 ticket.order.outbox.size 指定（默认 256），
+ * 重试间隔由 ticket.order.retry.millis 指定（默认 100ms）。
+ */
+public class OrderEventPublisher {
+    private static OrderEventPublisher instance;
+
+    private final int outboxSize = Math.max(1, Integer.getInteger("ticket.order.outbox.size", 256));
+    private final long retryMillis = Math.max(1, Long.getLong("ticket.order.retry.millis", 100));
+    private final Map<String, Channel> terminals = new ConcurrentHashMap<>();     // 终端编号 -> 连接，由 this 保护写入
+    private final Map<PushTarget, Channel> channels = new ConcurrentHashMap<>();  // 连接 -> 发件箱，由 this 保护写入
+    private final ExecutorService senders = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "OrderEventSender");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Executor retry = CompletableFuture.delayedExecutor(retryMillis, TimeUnit.MILLISECONDS, senders);
+
+    private OrderEventPublisher() {
+    }
+
+    public static synchronized OrderEventPublisher getInstance() {
+        if (instance == null) {
+            instance = new OrderEventPublisher();
+        }
+        return instance;
+    }
+
+    /**
+     * 连接是否已经登记过（无论是否登记成功），每条消息调用，只做一次查找
+     */
+    public boolean isBound(PushTarget target) {
+        return channels.containsKey(target);
+    }
+
+    /**
+     * 登记连接上的终端编号，每个连接只登记一次
+     * @return 是否登记成功；连接已关闭、已登记过，或终端编号已登记在另一个打开的连接上时返回 false
+     */
+    public synchronized boolean bind(String terminalId, PushTarget target) {
+        if (!target.isOpen() || channels.containsKey(target)) {
+            return false;
+        }
+        Channel channel = new Channel(target);
+        channels.put(target, channel);
+        Channel current = terminals.get(terminalId);
+        if (current != null && current.target.isOpen()) {
+            System.out.println("终端编号已登记在其他连接上，不推送到新连接: " + terminalId);
+            return false;
+        }
+        channel.terminalId = terminalId;
+        terminals.put(terminalId, channel);
+        return true;
+    }
+
+    /**
+     * 连接关闭：注销连接上登记的终端，未发出的事件丢弃
+     */
+    public synchronized void unbind(PushTarget target) {
+        Channel channel = channels.remove(target);
+        if (channel == null) {
+            return;
+        }
+        if (channel.terminalId != null) {
+            terminals.remove(channel.terminalId, channel);
+        }
+        synchronized (channel) {
+            channel.outbox.clear();
+        }
+    }
+
+    /**
+     * 订单状态已流转：终端在线时把事件放入其连接的发件箱
+     */
+    public void publish(Order order) {
+        String terminalId = order.getTerminalId();
+        Channel channel = terminalId == null ? null : terminals.get(terminalId);
+        if (channel == null) {
+            return;
+        }
+        String line = "PUSH|ORDER|" + order.getOrderId() + "|" + order.getStatus() + "|" + describe(order);
+        boolean schedule;
+        synchronized (channel) {
+            channel.outbox.remove(order.getOrderId()); // 覆盖未发出的旧事件，并按新事件排到队尾
+            if (channel.outbox.size() >= outboxSize) {
+                Iterator<String> oldest = channel.outbox.keySet().iterator();
+                oldest.next();
+                oldest.remove();
+            }
+            channel.outbox.put(order.getOrderId(), line);
+            schedule = !channel.scheduled;
+            channel.scheduled = true;
+        }
+        if (schedule) {
+            senders.execute(() -> deliver(channel));
+        }
+    }
+
+    private static String describe(Order order) {
+        switch (order.getStatus()) {
+            case PAID:
+                return "订单已支付，已出票：" + order.getTrainNumber() + " " + order.getSeatNumbers();
+            case CANCELLED:
+                return "订单已取消，座位已释放";
+            case TIMEOUT:
+                return "订单支付超时，已自动关闭";
+            default:
+                return String.valueOf(order.getStatus());
+        }
+    }
+
+    /**
+     * 取出发件箱中的全部事件依次发送，直到发件箱为空；连接拒绝推送时把未发出的事件放回发件箱，稍后重试
+     */
+    private void deliver(Channel channel) {
+        while (true) {
+            List<Map.Entry<String, String>> events;
+            synchronized (channel) {
+                if (channel.outbox.isEmpty()) {
+                    channel.scheduled = false;
+                    return;
+                }
+                events = new ArrayList<>(channel.outbox.entrySet());
+                channel.outbox.clear();
+            }
+            for (int i = 0; i < events.size(); i++) {
+                if (channel.target.offer(events.get(i).getValue())) {
+                    continue;
+                }
+                if (!channel.target.isOpen()) {
+                    unbind(channel.target);
+                    return;
+                }
+                requeue(channel, events.subList(i, events.size()));
+                retry.execute(() -> deliver(channel));
+                return;
+            }
+        }
+    }
+
+    /**
+     * 把未发出的事件放回发件箱最前面；期间同一订单已有新事件的不再放回，发件箱仍受容量限制
+     */
+    private void requeue(Channel channel, List<Map.Entry<String, String>> unsent) {
+        synchronized (channel) {
+            LinkedHashMap<String, String> merged = new LinkedHashMap<>();
+            for (Map.Entry<String, String> event : unsent) {
+                if (!channel.outbox.containsKey(event.getKey())) {
+                    merged.put(event.getKey(), event.getValue());
+                }
+            }
+            merged.putAll(channel.outbox);
+            Iterator<String> oldest = merged.keySet().iterator();
+            while (merged.size() > outboxSize) {
+                oldest.next();
+                oldest.remove();
+            }
+            channel.outbox.clear();
+            channel.outbox.putAll(merged);
+        }
+    }
+
+    /**
+     * 一个连接的发件箱：订单号 -> 尚未发出的事件，按放入顺序排列，访问时对发件箱加锁
+     */
+    private static final class Channel {
+        private final PushTarget target;
+        private final LinkedHashMap<String, String> outbox = new LinkedHashMap<>();
+        private String terminalId; // 登记的终端编号，登记被拒绝时为 null；由 OrderEventPublisher 的锁保护
+        private boolean scheduled; // 已有发送任务（包括等待重试）
+
+        private Channel(PushTarget target) {
+            this.target = target;
+        }
+    }
+}
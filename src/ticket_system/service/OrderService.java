@@ -2,21 +2,57 @@ package ticket_system.service;
 
 import ticket_system.entity.Order;
 import ticket_system.entity.OrderStatus;
+import ticket_system.entity.SeatCalendar;
+import ticket_system.entity.SeatMap;
+import ticket_system.entity.TicketRequest;
+import ticket_system.util.IdGenerator;
+import ticket_system.util.TimingWheel;
+import ticket_system.util.WriteAheadLog;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Set;
+import java.util.function.Consumer;
 
 public class OrderService {
     private static OrderService instance;
-    private Map<String, Order> orders = new ConcurrentHashMap<>();
-    private Timer timeoutTimer;
+    // 订单按 64 位订单号存放；订单号随创建时间递增，遍历顺序即创建顺序
+    private final ConcurrentNavigableMap<Long, Order> orders = new ConcurrentSkipListMap<>();
+    // 二级索引：按状态、车次、终端分组的订单集合，随订单创建和状态流转同步维护
+    private final Map<OrderStatus, Set<Order>> ordersByStatus = new EnumMap<>(OrderStatus.class);
+    private final Map<String, Set<Order>> ordersByTrain = new ConcurrentHashMap<>();
+    private final Map<String, Set<Order>> ordersByTerminal = new ConcurrentHashMap<>();
+    // 各状态订单计数：状态流转时增减，统计时直接读取
+    private final Map<OrderStatus, LongAdder> statusCounts = new EnumMap<>(OrderStatus.class);
+    // 待支付订单的超时任务：订单号 -> 时间轮句柄，支付或取消时撤销
+    private Map<String, TimingWheel.Timeout> paymentTimeouts = new ConcurrentHashMap<>();
+    private TimingWheel timeoutWheel;
     private static final long PAYMENT_TIMEOUT = 60 * 1000; // 1分钟
-    private static final long CHECK_INTERVAL = 10 * 1000; // 10秒检查一次
+    private static final long TICK_INTERVAL = 1000; // 时间轮精度1秒
+
+    // 预写日志记录类型
+    private static final String LOG_ORDER_CREATE = "ORDER_CREATE";
+    private static final String LOG_ORDER_STATUS = "ORDER_STATUS";
+    private final WriteAheadLog journal;
 
     private OrderService() {
-        this.timeoutTimer = new Timer("PaymentTimeoutChecker", true); // 守护线程
-        startTimeoutChecker();
+        for (OrderStatus status : OrderStatus.values()) {
+            ordersByStatus.put(status, ConcurrentHashMap.newKeySet()); // 构造后只读，无需并发 Map
+            statusCounts.put(status, new LongAdder());
+        }
+        this.timeoutWheel = new TimingWheel("PaymentTimeoutWheel", TICK_INTERVAL); // 守护线程
+        this.journal = WriteAheadLog.getInstance();
+        replayJournal();
+        journal.addSnapshotSource(this::writeSnapshot);
     }
 
     public static synchronized OrderService getInstance() {
@@ -30,7 +66,15 @@ public class OrderService {
      * 创建订单
      */
     public Order createOrder(Order order) {
-        orders.put(order.getOrderId(), order);
+        if (orders.putIfAbsent(order.getId(), order) != null) {
+            throw new IllegalStateException("订单号重复: " + order.getOrderId());
+        }
+        indexOrder(order);
+        // 等待订单记录落盘
+        journal.append(createRecord(order));
+        if (order.getStatus() == OrderStatus.PENDING_PAYMENT) {
+            schedulePaymentTimeout(order);
+        }
         System.out.println("创建订单: " + order.getOrderId() +
                 ", 车次: " + order.getTrainNumber() +
                 ", 座位: " + order.getSeatType() +
@@ -42,18 +86,21 @@ public class OrderService {
      * 根据ID获取订单
      */
     public Order getOrder(String orderId) {
-        return orders.get(orderId);
+        long id = IdGenerator.parse(Order.ID_PREFIX, orderId);
+        return id < 0 ? null : orders.get(id);
     }
 
     /**
      * 确认支付
      */
     public boolean confirmPayment(String orderId) {
-        Order order = orders.get(orderId);
-        if (order != null && order.getStatus() == OrderStatus.PENDING_PAYMENT) {
-            order.setStatus(OrderStatus.PAID);
+        Order order = getOrder(orderId);
+        if (order != null && transition(order, OrderStatus.PENDING_PAYMENT, OrderStatus.PAID)) {
+            cancelPaymentTimeout(orderId);
             order.setPaidTime(new java.util.Date());
+            journal.append(statusRecord(orderId, OrderStatus.PAID, order.getPaidTime()));
             System.out.println("订单支付确认: " + orderId);
+            OrderEventPublisher.getInstance().publish(order);
             return true;
         }
         return false;
@@ -63,110 +110,318 @@ public class OrderService {
      * 取消订单
      */
     public boolean cancelOrder(String orderId) {
-        Order order = orders.get(orderId);
-        if (order != null && order.getStatus() == OrderStatus.PENDING_PAYMENT) {
-            order.setStatus(OrderStatus.CANCELLED);
+        Order order = getOrder(orderId);
+        if (order != null && transition(order, OrderStatus.PENDING_PAYMENT, OrderStatus.CANCELLED)) {
+            cancelPaymentTimeout(orderId);
             order.setCancelTime(new java.util.Date());
+            journal.append(statusRecord(orderId, OrderStatus.CANCELLED, order.getCancelTime()));
             System.out.println("订单取消: " + orderId);
+            OrderEventPublisher.getInstance().publish(order);
             return true;
         }
         return false;
     }
 
     /**
-     * 处理支付超时
+     * 撤销建单失败（订单记录写入失败）的订单：从待支付改为已取消，不等待状态记录落盘
+     * 建单记录实际已落盘而取消记录丢失时，恢复后订单仍待支付，会按超时再次释放座位
+     * @return 座位是否仍由该订单占用、需要调用方释放：订单未登记（建单前失败）或本次撤销成功时为 true
+     */
+    boolean abortOrder(Order order) {
+        if (orders.get(order.getId()) != order) {
+            return true;
+        }
+        if (!transition(order, OrderStatus.PENDING_PAYMENT, OrderStatus.CANCELLED)) {
+            return false;
+        }
+        cancelPaymentTimeout(order.getOrderId());
+        order.setCancelTime(new Date());
+        journal.appendAsync(statusRecord(order.getOrderId(), OrderStatus.CANCELLED, order.getCancelTime()));
+        OrderEventPublisher.getInstance().publish(order);
+        return true;
+    }
+
+    /**
+     * 处理支付超时：关闭订单并把锁定的座位退回库存
      */
     public void handlePaymentTimeout(String orderId) {
-        Order order = orders.get(orderId);
-        if (order != null && order.getStatus() == OrderStatus.PENDING_PAYMENT) {
-            order.setStatus(OrderStatus.TIMEOUT);
+        paymentTimeouts.remove(orderId);
+        Order order = getOrder(orderId);
+        if (order != null && transition(order, OrderStatus.PENDING_PAYMENT, OrderStatus.TIMEOUT)) {
             order.setTimeoutTime(new java.util.Date());
+            // 不等待落盘：这条记录丢失时，恢复后订单仍待支付，会重新登记超时并再次释放
+            journal.appendAsync(statusRecord(orderId, OrderStatus.TIMEOUT, order.getTimeoutTime()));
             System.out.println("订单支付超时: " + orderId);
 
-            // 这里可以添加超时后的清理逻辑
-            // 比如通知相关系统释放资源等
+            String releaseResult = TrainService.getInstance().releaseTickets(order);
+            if (!releaseResult.startsWith("SUCCESS")) {
+                System.out.println("超时订单释放票源失败: " + orderId + " - " + releaseResult);
+            }
+            OrderEventPublisher.getInstance().publish(order);
         }
     }
 
     /**
-     * 启动超时检查器 - 使用 Timer 替代 ScheduledExecutorService
+     * 从预写日志恢复订单：先按仍有效（待支付、已支付）的订单重新占用座位，
+     * 再为仍待支付的订单按剩余时间重新登记超时任务（已过期的会在下一个 tick 超时）。
+     * 顺序不能颠倒：超时任务释放座位前座位必须已经占用，否则释放落空，随后的恢复又把座位占给已超时的订单
      */
-    private void startTimeoutChecker() {
-        timeoutTimer.schedule(new TimerTask() {
-            @Override
-            public void run() {
-                checkAllOrdersTimeout();
+    private void replayJournal() {
+        journal.replay(this::applyJournalRecord);
+        List<Order> pending = new ArrayList<>();
+        List<Order> live = new ArrayList<>();
+        for (Order order : orders.values()) {
+            indexOrder(order);
+            if (order.getStatus() == OrderStatus.PENDING_PAYMENT) {
+                pending.add(order);
             }
-        }, CHECK_INTERVAL, CHECK_INTERVAL);
+            if (order.getStatus() == OrderStatus.PENDING_PAYMENT || order.getStatus() == OrderStatus.PAID) {
+                live.add(order);
+            }
+        }
+        if (!orders.isEmpty()) {
+            int restored = live.isEmpty() ? 0 : TrainService.getInstance().restoreOccupancy(live);
+            System.out.println("从预写日志恢复订单 " + orders.size() + " 个，其中待支付 " + pending.size() +
+                    " 个，恢复占座 " + restored + " 个");
+        }
+        for (Order order : pending) {
+            schedulePaymentTimeout(order);
+        }
     }
 
     /**
-     * 检查所有订单的超时状态
+     * 重放一条日志记录，不再写日志；与订单无关的记录直接忽略
+     * 状态记录只恢复订单状态；已取消、已超时的订单在恢复占座时跳过，相当于释放了座位
      */
-    private void checkAllOrdersTimeout() {
-        long currentTime = System.currentTimeMillis();
-        int timeoutCount = 0;
+    private void applyJournalRecord(String record) {
+        String[] parts = record.split("\\|", -1);
+        try {
+            if (LOG_ORDER_CREATE.equals(parts[0])) {
+                Order order = new Order();
+                order.setOrderId(parts[1]);
+                if (order.getId() < 0) {
+                    throw new IllegalArgumentException("订单号格式错误");
+                }
+                // 生成器从已有的编号之后继续，重启时系统时钟回拨也不会重复发出日志中已有的订单号、请求号
+                IdGenerator.getInstance().observe(order.getId());
+                order.setRequestId(emptyToNull(parts[2]));
+                if (order.getRequestId() != null) {
+                    long requestId = IdGenerator.parse(TicketRequest.ID_PREFIX, order.getRequestId());
+                    if (requestId >= 0) {
+                        IdGenerator.getInstance().observe(requestId);
+                    }
+                }
+                order.setTrainNumber(parts[3]);
+                order.setSeatType(parts[4]);
+                order.setPassengerCount(Integer.parseInt(parts[5]));
+                order.setTerminalId(emptyToNull(parts[6]));
+                order.setCreateTime(new Date(Long.parseLong(parts[7])));
+                order.setSeats(SeatMap.decode(parts[8]));
+                if (parts.length > 10) {
+                    order.setFromStation(emptyToNull(parts[9]));
+                    order.setToStation(emptyToNull(parts[10]));
+                }
+                if (parts.length > 11) {
+                    order.setTravelDate(LocalDate.parse(parts[11]));
+                }
+                orders.put(order.getId(), order);
+            } else if (LOG_ORDER_STATUS.equals(parts[0])) {
+                Order order = getOrder(parts[1]);
+                if (order == null) {
+                    return; // 检查点已不再保留的过期订单
+                }
+                OrderStatus status = OrderStatus.valueOf(parts[2]);
+                Date time = new Date(Long.parseLong(parts[3]));
+                order.setStatus(status);
+                switch (status) {
+                    case PAID: order.setPaidTime(time); break;
+                    case CANCELLED: order.setCancelTime(time); break;
+                    case TIMEOUT: order.setTimeoutTime(time); break;
+                    default: break;
+                }
+            }
+        } catch (RuntimeException e) {
+            System.out.println("忽略无法重放的日志记录: " + record);
+        }
+    }
+
+    /**
+     * 原子状态流转并同步更新状态索引
+     * 先加入新状态集合再移出旧集合：并发查询可能短暂在两个集合中看到同一订单，但不会漏掉它
+     */
+    private boolean transition(Order order, OrderStatus expect, OrderStatus update) {
+        if (!order.compareAndSetStatus(expect, update)) {
+            return false;
+        }
+        ordersByStatus.get(update).add(order);
+        ordersByStatus.get(expect).remove(order);
+        statusCounts.get(update).increment();
+        statusCounts.get(expect).decrement();
+        return true;
+    }
+
+    /**
+     * 把新订单加入各个二级索引
+     */
+    private void indexOrder(Order order) {
+        ordersByStatus.get(order.getStatus()).add(order);
+        statusCounts.get(order.getStatus()).increment();
+        ordersByTrain.computeIfAbsent(order.getTrainNumber(), k -> ConcurrentHashMap.newKeySet()).add(order);
+        if (order.getTerminalId() != null) {
+            ordersByTerminal.computeIfAbsent(order.getTerminalId(), k -> ConcurrentHashMap.newKeySet()).add(order);
+        }
+    }
 
+    /**
+     * 检查点：每个订单写成一条创建记录，已不是待支付的再加一条状态记录
+     * 乘车日期已过、不再待支付的订单不再写入：它们不占座，之后也不会再有状态变化
+     */
+    private void writeSnapshot(Consumer<String> out) {
+        long today = SeatCalendar.today();
         for (Order order : orders.values()) {
-            if (order.getStatus() == OrderStatus.PENDING_PAYMENT &&
-                    currentTime - order.getCreateTime().getTime() > PAYMENT_TIMEOUT) {
-                handlePaymentTimeout(order.getOrderId());
-                timeoutCount++;
+            OrderStatus status = order.getStatus();
+            if (status != OrderStatus.PENDING_PAYMENT && order.getTravelDate() != null
+                    && order.getTravelDate().toEpochDay() < today) {
+                continue;
+            }
+            out.accept(createRecord(order));
+            if (status != OrderStatus.PENDING_PAYMENT) {
+                out.accept(statusRecord(order.getOrderId(), status, statusTime(order, status)));
             }
         }
+    }
 
-        if (timeoutCount > 0) {
-            System.out.println("超时检查完成，处理了 " + timeoutCount + " 个超时订单");
+    /**
+     * 状态变化的时间；状态刚流转、时间还未写入时取当前时间
+     */
+    private static Date statusTime(Order order, OrderStatus status) {
+        Date time;
+        switch (status) {
+            case PAID: time = order.getPaidTime(); break;
+            case CANCELLED: time = order.getCancelTime(); break;
+            case TIMEOUT: time = order.getTimeoutTime(); break;
+            default: time = null; break;
         }
+        return time != null ? time : new Date();
     }
 
     /**
-     * 获取所有订单
+     * 订单创建记录：带有分配的座位、区间和乘车日期，恢复时据此重新占座
      */
-    public Map<String, Order> getAllOrders() {
-        return new ConcurrentHashMap<>(orders);
+    private static String createRecord(Order order) {
+        return LOG_ORDER_CREATE + "|" + order.getOrderId() +
+                "|" + nullToEmpty(order.getRequestId()) +
+                "|" + order.getTrainNumber() +
+                "|" + order.getSeatType() +
+                "|" + order.getPassengerCount() +
+                "|" + nullToEmpty(order.getTerminalId()) +
+                "|" + order.getCreateTime().getTime() +
+                "|" + SeatMap.encode(order.getSeats()) +
+                "|" + nullToEmpty(order.getFromStation()) +
+                "|" + nullToEmpty(order.getToStation()) +
+                "|" + order.getTravelDate();
+    }
+
+    private static String statusRecord(String orderId, OrderStatus status, Date time) {
+        return LOG_ORDER_STATUS + "|" + orderId + "|" + status.name() + "|" + time.getTime();
+    }
+
+    private static String nullToEmpty(String value) {
+        return value == null ? "" : value;
+    }
+
+    private static String emptyToNull(String value) {
+        return value.isEmpty() ? null : value;
     }
 
     /**
-     * 根据状态获取订单
+     * 在时间轮中登记支付超时任务
      */
-    public Map<String, Order> getOrdersByStatus(OrderStatus status) {
-        Map<String, Order> result = new ConcurrentHashMap<>();
-        for (Map.Entry<String, Order> entry : orders.entrySet()) {
-            if (entry.getValue().getStatus() == status) {
-                result.put(entry.getKey(), entry.getValue());
-            }
+    private void schedulePaymentTimeout(Order order) {
+        String orderId = order.getOrderId();
+        long delay = PAYMENT_TIMEOUT - (System.currentTimeMillis() - order.getCreateTime().getTime());
+        String trainNumber = order.getTrainNumber();
+        // 时间轮线程只负责把超时处理交给车次所属的分片
+        paymentTimeouts.put(orderId, timeoutWheel.schedule(
+                () -> ShardedEngine.getInstance().execute(trainNumber, () -> handlePaymentTimeout(orderId)), delay));
+    }
+
+    /**
+     * 撤销支付超时任务（订单已支付或已取消）
+     */
+    private void cancelPaymentTimeout(String orderId) {
+        TimingWheel.Timeout timeout = paymentTimeouts.remove(orderId);
+        if (timeout != null) {
+            timeout.cancel();
+        }
+    }
+
+    /**
+     * 获取所有订单（只读视图，不复制，按创建时间排序）
+     */
+    public Collection<Order> getAllOrders() {
+        return Collections.unmodifiableCollection(orders.values());
+    }
+
+    /**
+     * 根据状态获取订单（只读视图，代价与匹配的订单数相关，与订单总数无关）
+     */
+    public Collection<Order> getOrdersByStatus(OrderStatus status) {
+        return Collections.unmodifiableSet(ordersByStatus.get(status));
+    }
+
+    /**
+     * 根据车次获取订单（只读视图）
+     */
+    public Collection<Order> getOrdersByTrain(String trainNumber) {
+        Set<Order> result = ordersByTrain.get(trainNumber);
+        return result == null ? Collections.emptySet() : Collections.unmodifiableSet(result);
+    }
+
+    /**
+     * 根据终端获取订单（只读视图）
+     */
+    public Collection<Order> getOrdersByTerminal(String terminalId) {
+        Set<Order> result = ordersByTerminal.get(terminalId);
+        return result == null ? Collections.emptySet() : Collections.unmodifiableSet(result);
+    }
+
+    /**
+     * 获取指定状态的订单数量（常数时间，无分配）
+     */
+    public long getOrderCount(OrderStatus status) {
+        return statusCounts.get(status).sum();
+    }
+
+    /**
+     * 获取订单总数（跳表的 size() 需要遍历，这里用各状态计数求和）
+     */
+    public long getTotalOrderCount() {
+        long total = 0;
+        for (LongAdder count : statusCounts.values()) {
+            total += count.sum();
         }
-        return result;
+        return total;
     }
 
     /**
      * 获取订单统计信息
      */
     public String getOrderStatistics() {
-        long pending = orders.values().stream()
-                .filter(order -> order.getStatus() == OrderStatus.PENDING_PAYMENT)
-                .count();
-        long paid = orders.values().stream()
-                .filter(order -> order.getStatus() == OrderStatus.PAID)
-                .count();
-        long cancelled = orders.values().stream()
-                .filter(order -> order.getStatus() == OrderStatus.CANCELLED)
-                .count();
-        long timeout = orders.values().stream()
-                .filter(order -> order.getStatus() == OrderStatus.TIMEOUT)
-                .count();
-
         return String.format("订单统计 - 待支付: %d, 已支付: %d, 已取消: %d, 已超时: %d, 总计: %d",
-                pending, paid, cancelled, timeout, orders.size());
+                getOrderCount(OrderStatus.PENDING_PAYMENT),
+                getOrderCount(OrderStatus.PAID),
+                getOrderCount(OrderStatus.CANCELLED),
+                getOrderCount(OrderStatus.TIMEOUT),
+                getTotalOrderCount());
     }
 
     /**
      * 关闭服务
      */
     public void shutdown() {
-        if (timeoutTimer != null) {
-            timeoutTimer.cancel();
+        if (timeoutWheel != null) {
+            timeoutWheel.stop();
             System.out.println("OrderService 超时检查器已关闭");
         }
     }
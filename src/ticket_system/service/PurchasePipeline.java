@@ -0,0 +1,382 @@
+package ticket_system.service;
+
+import ticket_system.entity.Order;
+import ticket_system.entity.TicketRequest;
+import ticket_system.util.WriteAheadLog;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 购票流水线（Disruptor 风格）：解码 → 校验 → 锁票 → 建单 → 落盘 → 响应
+ *
+ * 各阶段共用一个启动时预先分配好的环形数组，槽位对象反复复用，请求路径上不再分配队列节点。
+ * 每个阶段一个线程，各自记录已处理到的序号，只处理上游阶段已完成的槽位；
+ * 生产者只有在响应阶段释放槽位后才能覆盖它，因此一个槽位同一时刻只被一个阶段读写，槽位本身不需要加锁。
+ *
+ * 每个阶段一次取走上游已完成的全部槽位成批处理：
+ * 锁票阶段把一批请求中车次、席别、日期、区间相同的合为一组，一次遍历座位图完成分配（TrainService.lockTicketsBatch）；
+ * 建单阶段在一个延迟落盘作用域中创建整批订单，落盘阶段对整批记录只等待一次刷盘。
+ *
+ * 锁票、建单各只有一个线程，同一车次的请求严格按进入流水线的顺序处理。
+ * 支付、取消和超时释放仍由分片引擎执行；开启流水线时座位图保留车厢锁（见 ShardedEngine.ownsSeatMaps），与流水线并发修改是安全的。
+ *
+ * 环形数组已满时 submit 立即返回系统繁忙，不阻塞调用线程。
+ */
+public class PurchasePipeline {
+    private static final String BUSY = "ERROR|系统繁忙，请稍后重试";
+    private static final int SPIN_TRIES = 100;
+    private static final int YIELD_TRIES = 200;
+    private static final long PARK_NANOS = 50_000;
+
+    private final TicketService ticketService;
+    private final TrainService trainService;
+    private final OrderService orderService;
+    private final WriteAheadLog journal;
+
+    private final Slot[] ring;
+    private final int mask;
+    private final AtomicLong claimed = new AtomicLong(-1); // 生产者已领取的最大序号
+    private final AtomicLongArray published;               // 每个槽位最后一次发布的序号
+    private volatile boolean running = true;
+
+    private final Stage decode;
+    private final Stage validate;
+    private final Stage reserve;
+    private final Stage create;
+    private final Stage persist;
+    private final Stage respond;
+
+    /**
+     * @param size 环形数组大小，向上取为 2 的幂
+     */
+    PurchasePipeline(TicketService ticketService, TrainService trainService,
+                     OrderService orderService, int size) {
+        this.ticketService = ticketService;
+        this.trainService = trainService;
+        this.orderService = orderService;
+        this.journal = WriteAheadLog.getInstance();
+
+        int capacity = Integer.highestOneBit(Math.max(2, size - 1)) << 1;
+        this.ring = new Slot[capacity];
+        for (int i = 0; i < capacity; i++) {
+            ring[i] = new Slot();
+        }
+        this.mask = capacity - 1;
+        this.published = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            published.set(i, -1);
+        }
+
+        decode = new Stage("Decode", null) {
+            @Override
+            long available(long next) {
+                // 多个生产者可能乱序发布，只推进到连续发布的最后一个序号
+                long last = next - 1;
+                while (published.get((int) (last + 1) & mask) == last + 1) {
+                    last++;
+                }
+                return last;
+            }
+
+            @Override
+            void process(long from, long to) {
+                decodeBatch(from, to);
+            }
+        };
+        validate = new Stage("Validate", decode) {
+            @Override
+            void process(long from, long to) {
+                validateBatch(from, to);
+            }
+        };
+        reserve = new Stage("Reserve", validate) {
+            @Override
+            void process(long from, long to) {
+                reserveBatch(from, to);
+            }
+        };
+        create = new Stage("Create", reserve) {
+            @Override
+            void process(long from, long to) {
+                createBatch(from, to);
+            }
+        };
+        persist = new Stage("Journal", create) {
+            @Override
+            void process(long from, long to) {
+                persistBatch(from, to);
+            }
+        };
+        respond = new Stage("Respond", persist) {
+            @Override
+            void process(long from, long to) {
+                respondBatch(from, to);
+            }
+        };
+        for (Stage stage : new Stage[]{decode, validate, reserve, create, persist, respond}) {
+            stage.start();
+        }
+        System.out.println("购票流水线已启动，环形数组大小: " + capacity);
+    }
+
+    /**
+     * 提交一条购票消息体（203 的 msgPayload）
+     * @return 响应；环形数组已满或流水线已关闭时立即返回系统繁忙错误
+     */
+    public CompletableFuture<String> submit(String payload, String clientNo) {
+        return submit(payload, clientNo, null);
+    }
+
+    /**
+     * 提交一个已解码的购票请求（二进制协议），跳过解码阶段的 JSON 解析
+     */
+    public CompletableFuture<String> submit(TicketRequest request) {
+        return submit(null, request.getTerminalId(), request);
+    }
+
+    private CompletableFuture<String> submit(String payload, String clientNo, TicketRequest request) {
+        long seq;
+        long current;
+        do {
+            current = claimed.get();
+            seq = current + 1;
+            if (!running || seq - ring.length > respond.sequence.get()) {
+                return CompletableFuture.completedFuture(BUSY);
+            }
+        } while (!claimed.compareAndSet(current, seq));
+
+        Slot slot = ring[(int) seq & mask];
+        CompletableFuture<String> reply = new CompletableFuture<>();
+        slot.payload = payload;
+        slot.clientNo = clientNo;
+        slot.request = request;
+        slot.reply = reply;
+        published.set((int) seq & mask, seq);
+        return reply;
+    }
+
+    private void decodeBatch(long from, long to) {
+        for (long seq = from; seq <= to; seq++) {
+            Slot slot = slot(seq);
+            if (slot.request != null) {
+                continue;
+            }
+            try {
+                slot.request = TicketRequest.fromJson(slot.payload, slot.clientNo);
+            } catch (IllegalArgumentException e) {
+                slot.response = "ERROR|" + e.getMessage();
+            }
+        }
+    }
+
+    private void validateBatch(long from, long to) {
+        boolean accepted = false;
+        for (long seq = from; seq <= to; seq++) {
+            Slot slot = slot(seq);
+            if (slot.response != null) {
+                continue;
+            }
+            if (ticketService.validateRequest(slot.request)) {
+                accepted = true;
+            } else {
+                slot.response = "ERROR|请求参数不合法";
+            }
+        }
+        if (accepted) {
+            ticketService.enterProcessing();
+        }
+    }
+
+    /**
+     * 锁票：整批请求一次交给 TrainService，同一车次同一区间的请求合并为一次座位图更新
+     */
+    private void reserveBatch(long from, long to) {
+        List<Order> orders = new ArrayList<>();
+        List<Slot> owners = new ArrayList<>();
+        for (long seq = from; seq <= to; seq++) {
+            Slot slot = slot(seq);
+            if (slot.response == null) {
+                orders.add(new Order(slot.request));
+                owners.add(slot);
+            }
+        }
+        if (orders.isEmpty()) {
+            return;
+        }
+        String[] results = trainService.lockTicketsBatch(orders);
+        for (int i = 0; i < results.length; i++) {
+            if (results[i].startsWith("SUCCESS")) {
+                owners.get(i).order = orders.get(i);
+            } else {
+                owners.get(i).response = results[i];
+            }
+        }
+    }
+
+    /**
+     * 建单：整批订单的日志记录在同一个延迟落盘作用域中写入，不在本阶段等待刷盘
+     */
+    private void createBatch(long from, long to) {
+        journal.beginDeferred();
+        CompletableFuture<Void> durable;
+        try {
+            for (long seq = from; seq <= to; seq++) {
+                Slot slot = slot(seq);
+                if (slot.order == null) {
+                    continue;
+                }
+                try {
+                    orderService.createOrder(slot.order);
+                    slot.response = TicketService.purchaseReply(slot.order);
+                } catch (Exception e) {
+                    ticketService.abortOrder(slot.order);
+                    slot.response = "ERROR|系统处理异常: " + e.getMessage();
+                    slot.order = null;
+                }
+            }
+        } finally {
+            durable = journal.endDeferred();
+        }
+        for (long seq = from; seq <= to; seq++) {
+            Slot slot = slot(seq);
+            if (slot.order != null) {
+                slot.durable = durable;
+            }
+        }
+    }
+
+    /**
+     * 落盘：等待本批订单记录刷盘后才允许响应
+     */
+    private void persistBatch(long from, long to) {
+        for (long seq = from; seq <= to; seq++) {
+            Slot slot = slot(seq);
+            if (slot.durable == null) {
+                continue;
+            }
+            try {
+                slot.durable.join();
+            } catch (CompletionException e) {
+                // 订单记录未落盘：撤销订单、退回座位后再返回错误
+                ticketService.abortOrder(slot.order);
+                slot.response = "ERROR|写入日志失败: " + e.getCause().getMessage();
+            }
+        }
+    }
+
+    private void respondBatch(long from, long to) {
+        for (long seq = from; seq <= to; seq++) {
+            Slot slot = slot(seq);
+            CompletableFuture<String> reply = slot.reply;
+            String response = slot.response;
+            slot.clear();
+            reply.complete(response);
+        }
+    }
+
+    private Slot slot(long seq) {
+        return ring[(int) seq & mask];
+    }
+
+    /**
+     * 关闭流水线：不再接受新请求，已进入流水线的请求处理完后各阶段线程退出
+     */
+    public void shutdown() {
+        running = false;
+        for (Stage stage : new Stage[]{decode, validate, reserve, create, persist, respond}) {
+            try {
+                stage.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * 流水线阶段：等待上游推进后，一次处理 [已处理序号 + 1, 上游序号] 内的全部槽位
+     * 空闲时先自旋、再让出 CPU、最后短暂挂起，兼顾延迟与空载时的 CPU 占用
+     */
+    private abstract class Stage extends Thread {
+        final AtomicLong sequence = new AtomicLong(-1);
+        private final Stage upstream;
+
+        Stage(String name, Stage upstream) {
+            super("PurchasePipeline-" + name);
+            this.upstream = upstream;
+            setDaemon(true);
+        }
+
+        /**
+         * 上游已完成的最大序号
+         */
+        long available(long next) {
+            return upstream.sequence.get();
+        }
+
+        abstract void process(long from, long to);
+
+        @Override
+        public void run() {
+            int idle = 0;
+            while (running || sequence.get() < claimed.get()) {
+                long next = sequence.get() + 1;
+                long last = available(next);
+                if (last < next) {
+                    idle = idle(idle);
+                    continue;
+                }
+                idle = 0;
+                try {
+                    process(next, last);
+                } catch (RuntimeException e) {
+                    for (long seq = next; seq <= last; seq++) {
+                        Slot slot = slot(seq);
+                        if (slot.response == null) {
+                            slot.response = "ERROR|系统处理异常: " + e.getMessage();
+                        }
+                    }
+                }
+                sequence.set(last);
+            }
+        }
+
+        private int idle(int idle) {
+            if (idle < SPIN_TRIES) {
+                Thread.onSpinWait();
+            } else if (idle < YIELD_TRIES) {
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(PARK_NANOS);
+            }
+            return idle + 1;
+        }
+    }
+
+    /**
+     * 环形数组中的槽位，各字段由处理它的阶段依次填写
+     */
+    private static final class Slot {
+        private String payload;
+        private String clientNo;
+        private CompletableFuture<String> reply;
+        private TicketRequest request;
+        private Order order;
+        private String response;
+        private CompletableFuture<Void> durable;
+
+        private void clear() {
+            payload = null;
+            clientNo = null;
+            reply = null;
+            request = null;
+            order = null;
+            response = null;
+            durable = null;
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package ticket_system.service;
+
+import ticket_system.entity.TicketRequest;
+import ticket_system.util.IdGenerator;
+import ticket_system.util.TimingWheel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 排队购票（秒杀模式）：请求先入队并立即返回排队号和排队位置，随后按车次先进先出处理，结果推送给终端
+ *
+ * 每个车次一个无锁队列，同一时刻最多一个处理线程在消费某车次的队列，保证同一车次严格按入队顺序出票。
+ * 处理线程每次取出一批请求，在车次所属分片上一次执行（TicketService.handlePurchaseBatch），整批共享一次刷盘。
+ *
+ * 某个席别/日期/区间出现“余票不足”后记为售罄：队列中同一条件、人数不少于失败人数的请求不再锁票，直接返回售罄，
+ * 热门车次售完后剩余排队请求可以立即清空。队列清空时售罄标记随之清除，下一轮排队重新按实际余票判断。
+ *
+ * 结果在推送之外还保留 RESULT_TTL_MILLIS，终端断线后可以用排队号查询（210）。
+ * 排队总人数上限由系统属性 ticket.queue.capacity 指定（默认 100000），超过后拒绝入队。
+ */
+public class PurchaseQueue {
+    private static final String ID_PREFIX = "Q_";
+    private static final int MAX_BATCH = 64;
+    private static final long RESULT_TTL_MILLIS = 10 * 60 * 1000;
+    private static final String SOLD_OUT = "ERROR|余票不足";
+
+    private final TicketService ticketService;
+    private final int capacity;
+    private final AtomicInteger queued = new AtomicInteger(); // 所有车次排队中的请求数
+    private final Map<String, TrainQueue> queues = new ConcurrentHashMap<>();
+    private final Map<Long, Ticket> tickets = new ConcurrentHashMap<>();
+    private final ExecutorService workers;
+    private final TimingWheel expiryWheel;
+
+    PurchaseQueue(TicketService ticketService) {
+        this.ticketService = ticketService;
+        this.capacity = Integer.getInteger("ticket.queue.capacity", 100_000);
+        int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        this.workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "PurchaseQueueWorker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.expiryWheel = new TimingWheel("QueueResultWheel", 1000);
+    }
+
+    /**
+     * 入队
+     * @param notifier 结果推送，参数为推送行；为 null 时只能通过排队号查询结果
+     * @return 排队号和排队位置；排队已满时返回错误
+     */
+    public String enqueue(TicketRequest request, Consumer<String> notifier) {
+        if (queued.incrementAndGet() > capacity) {
+            queued.decrementAndGet();
+            return "ERROR|排队人数已满，请稍后重试";
+        }
+        TrainQueue queue = queues.computeIfAbsent(request.getTrainNumber(), TrainQueue::new);
+        Ticket ticket = new Ticket(IdGenerator.getInstance().nextId(), request, notifier, queue);
+        tickets.put(ticket.id, ticket);
+        ticket.position = queue.tail.incrementAndGet();
+        queue.pending.add(ticket);
+        long ahead = ticket.position - queue.head.get();
+        if (queue.draining.compareAndSet(false, true)) {
+            workers.execute(() -> drain(queue));
+        }
+        return "SUCCESS|排队号:" + ticket.getTicketNo() + "|排队位置:" + Math.max(1, ahead);
+    }
+
+    /**
+     * 按排队号查询：排队中返回当前位置，已完成返回购票结果
+     */
+    public String query(String ticketNo) {
+        long id = IdGenerator.parse(ID_PREFIX, ticketNo);
+        Ticket ticket = id < 0 ? null : tickets.get(id);
+        if (ticket == null) {
+            return "ERROR|排队号不存在或已过期";
+        }
+        String result = ticket.result;
+        if (result != null) {
+            return result;
+        }
+        return "SUCCESS|排队中|排队位置:" + Math.max(1, ticket.position - ticket.queue.head.get());
+    }
+
+    /**
+     * 消费一个车次的队列，直到队列为空；退出前再检查一次，避免与入队竞争时遗漏请求
+     */
+    private void drain(TrainQueue queue) {
+        List<Ticket> batch = new ArrayList<>(MAX_BATCH);
+        while (true) {
+            Ticket ticket;
+            while (batch.size() < MAX_BATCH && (ticket = queue.pending.poll()) != null) {
+                batch.add(ticket);
+            }
+            if (!batch.isEmpty()) {
+                process(queue, batch);
+                batch.clear();
+                continue;
+            }
+            queue.soldOut.clear();
+            queue.draining.set(false);
+            if (queue.pending.isEmpty() || !queue.draining.compareAndSet(false, true)) {
+                return;
+            }
+        }
+    }
+
+    private void process(TrainQueue queue, List<Ticket> batch) {
+        List<Ticket> toPurchase = new ArrayList<>(batch.size());
+        List<TicketRequest> requests = new ArrayList<>(batch.size());
+        for (Ticket ticket : batch) {
+            Integer failed = queue.soldOut.get(ticket.conditionKey());
+            if (failed != null && ticket.request.getPassengerCount() >= failed) {
+                complete(queue, ticket, SOLD_OUT + "，需要：" + ticket.request.getPassengerCount());
+            } else {
+                toPurchase.add(ticket);
+                requests.add(ticket.request);
+            }
+        }
+        if (requests.isEmpty()) {
+            return;
+        }
+        String[] results = ticketService.handlePurchaseBatch(queue.trainNumber, requests);
+        for (int i = 0; i < results.length; i++) {
+            Ticket ticket = toPurchase.get(i);
+            if (results[i].startsWith(SOLD_OUT)) {
+                queue.soldOut.merge(ticket.conditionKey(), ticket.request.getPassengerCount(), Math::min);
+            }
+            complete(queue, ticket, results[i]);
+        }
+    }
+
+    private void complete(TrainQueue queue, Ticket ticket, String result) {
+        ticket.result = result;
+        queue.head.incrementAndGet();
+        queued.decrementAndGet();
+        expiryWheel.schedule(() -> tickets.remove(ticket.id), RESULT_TTL_MILLIS);
+        if (ticket.notifier != null) {
+            try {
+                ticket.notifier.accept("PUSH|" + ticket.getTicketNo() + "|" + result);
+            } catch (RuntimeException e) {
+                System.out.println("排队结果推送失败[" + ticket.getTicketNo() + "]: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 关闭：不再处理队列中剩余的请求
+     */
+    public void shutdown() {
+        workers.shutdownNow();
+        expiryWheel.stop();
+    }
+
+    /**
+     * 一个车次的排队队列；tail/head 为累计入队/出队数，两者之差即排队位置
+     */
+    private static final class TrainQueue {
+        private final String trainNumber;
+        private final Queue<Ticket> pending = new ConcurrentLinkedQueue<>();
+        private final AtomicLong tail = new AtomicLong();
+        private final AtomicLong head = new AtomicLong();
+        private final AtomicBoolean draining = new AtomicBoolean();
+        // 售罄条件（席别|日期|区间）-> 已失败的最小人数，同一时刻只由一个处理线程访问
+        private final Map<String, Integer> soldOut = new ConcurrentHashMap<>();
+
+        private TrainQueue(String trainNumber) {
+            this.trainNumber = trainNumber;
+        }
+    }
+
+    private static final class Ticket {
+        private final long id;
+        private final TicketRequest request;
+        private final Consumer<String> notifier;
+        private final TrainQueue queue;
+        private volatile long position;
+        private volatile String result;
+
+        private Ticket(long id, TicketRequest request, Consumer<String> notifier, TrainQueue queue) {
+            this.id = id;
+            this.request = request;
+            this.notifier = notifier;
+            this.queue = queue;
+        }
+
+        private String getTicketNo() {
+            return IdGenerator.format(ID_PREFIX, id);
+        }
+
+        private String conditionKey() {
+            return request.getSeatType() + "|" + request.getTravelDate() +
+                    "|" + request.getFromStation() + "|" + request.getToStation();
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package ticket_system.service;
+
+/**
+ * 推送目标：服务端主动推送消息的连接（库存推送、订单状态推送）
+ * 推送线程只通过 offer 发送，连接的待发送数据积压过多时返回 false，由发布方合并或丢弃，而不是无限排队
+ */
+public interface PushTarget {
+    /**
+     * 尝试发送一行推送消息；连接已关闭或待发送的数据已超过上限时不发送，返回 false
+     */
+    boolean offer(String line);
+
+    /**
+     * 连接是否仍然打开
+     */
+    boolean isOpen();
+}
@@ -0,0 +1,278 @@
+package ticket_system.service;
+
+import ticket_system.entity.Train;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 中转方案查询：在“车站 -> 停靠车次”邻接关系上搜索一次中转、两次中转的乘车方案
+ *
+ * 邻接关系由 TrainService 在新增车次时维护（trainsAt：车站 -> 车次，trainsBetween：站点对 -> 车次）。
+ * 一次中转：起点车次 A 的每个后续停靠站 X，用站点对索引直接取 X→终点 的车次 B；
+ * 两次中转：先从终点反向求出“能直达终点的车站 Y 及车次 C”，再枚举 A 到 X、X 上的车次 B 到 Y，与 C 拼接。
+ *
+ * 剪枝：
+ * - 每段都必须有余票（任一席别在该区间有空闲座位）。同一车次从同一站出发，区间越长空闲座位只会越少，
+ *   某一站没有余票后即可停止向后枚举；
+ * - 中转站互不相同，且不经过起点、终点，同一车次不重复乘坐；
+ * - 一次中转的方案已足够 MAX_RESULTS 个时不再搜索两次中转；
+ * - 只保留评分最好的 MAX_RESULTS 个方案，单次查询最多扩展 MAX_EXPANSIONS 步。
+ * 车次没有时刻表，方案按 换乘次数、乘坐站数 排序（站数近似代表旅行时间）。
+ *
+ * 结果按 (起点, 终点, 日期, 最多中转次数) 缓存，库存版本号变化（购票、退票、新增车次或余票）后重新计算。
+ */
+class RoutePlanner {
+    private static final int MAX_RESULTS = 20;
+    private static final int MAX_EXPANSIONS = 200_000;
+    private static final int CACHE_LIMIT = 10_000;
+    private static final int TRANSFER_PENALTY = 1000; // 每多一次中转相当于多坐的站数
+
+    private final TrainService trainService;
+    private final Map<String, CachedPlan> cache = new ConcurrentHashMap<>();
+
+    RoutePlanner(TrainService trainService) {
+        this.trainService = trainService;
+    }
+
+    /**
+     * 查询中转方案
+     * @param version 当前库存版本号，与缓存中的版本相同时直接返回缓存结果
+     */
+    String search(String from, String to, long day, int maxTransfers, long version) {
+        String key = from + "|" + to + "|" + day + "|" + maxTransfers;
+        CachedPlan cached = cache.get(key);
+        if (cached != null && cached.version == version) {
+            return cached.json;
+        }
+        String json = toJson(plan(from, to, day, maxTransfers), day);
+        if (cache.size() >= CACHE_LIMIT) {
+            cache.clear();
+        }
+        cache.put(key, new CachedPlan(version, json));
+        return json;
+    }
+
+    private List<Leg[]> plan(String from, String to, long day, int maxTransfers) {
+        Search search = new Search(day);
+
+        // 一次中转：A 从起点到 X，B 从 X 到终点
+        for (String a : trainService.trainsAt(from)) {
+            Train trainA = trainService.getTrain(a);
+            List<String> stopsA = trainA.getStops();
+            int i = trainA.stopIndex(from);
+            for (int k = i + 1; k < stopsA.size() && search.hasBudget(); k++) {
+                String x = stopsA.get(k);
+                if (x.equals(to) || !search.available(trainA, i, k)) {
+                    break;
+                }
+                for (String b : trainService.trainsBetween(x, to)) {
+                    Train trainB = trainService.getTrain(b);
+                    int p = trainB.stopIndex(x);
+                    int q = trainB.stopIndex(to);
+                    if (trainB != trainA && search.available(trainB, p, q)) {
+                        search.offer(new Leg(trainA, i, k), new Leg(trainB, p, q));
+                    }
+                }
+            }
+        }
+        if (maxTransfers < 2 || search.size() >= MAX_RESULTS) {
+            return search.results();
+        }
+
+        // 两次中转：先求出能直达终点的车站 Y（及对应车次 C）
+        Map<String, List<Leg>> toDestination = new HashMap<>();
+        for (String c : trainService.trainsAt(to)) {
+            Train trainC = trainService.getTrain(c);
+            int j = trainC.stopIndex(to);
+            for (int y = j - 1; y >= 0; y--) {
+                String station = trainC.getStops().get(y);
+                if (station.equals(from) || !search.available(trainC, y, j)) {
+                    break;
+                }
+                toDestination.computeIfAbsent(station, s -> new ArrayList<>()).add(new Leg(trainC, y, j));
+            }
+        }
+        if (toDestination.isEmpty()) {
+            return search.results();
+        }
+
+        // A 从起点到 X，B 从 X 到 Y，C 从 Y 到终点
+        for (String a : trainService.trainsAt(from)) {
+            Train trainA = trainService.getTrain(a);
+            List<String> stopsA = trainA.getStops();
+            int i = trainA.stopIndex(from);
+            for (int k = i + 1; k < stopsA.size() && search.hasBudget(); k++) {
+                String x = stopsA.get(k);
+                if (x.equals(to) || !search.available(trainA, i, k)) {
+                    break;
+                }
+                for (String b : trainService.trainsAt(x)) {
+                    Train trainB = trainService.getTrain(b);
+                    if (trainB == trainA) {
+                        continue;
+                    }
+                    List<String> stopsB = trainB.getStops();
+                    int p = trainB.stopIndex(x);
+                    for (int q = p + 1; q < stopsB.size() && search.hasBudget(); q++) {
+                        String y = stopsB.get(q);
+                        if (y.equals(to) || y.equals(from) || !search.available(trainB, p, q)) {
+                            break;
+                        }
+                        List<Leg> last = toDestination.get(y);
+                        if (last == null) {
+                            continue;
+                        }
+                        for (Leg legC : last) {
+                            if (legC.train != trainA && legC.train != trainB) {
+                                search.offer(new Leg(trainA, i, k), new Leg(trainB, p, q), legC);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return search.results();
+    }
+
+    private static String toJson(List<Leg[]> itineraries, long day) {
+        String travelDate = LocalDate.ofEpochDay(day).toString();
+        StringBuilder sb = new StringBuilder("SUCCESS|[");
+        for (int n = 0; n < itineraries.size(); n++) {
+            Leg[] legs = itineraries.get(n);
+            if (n > 0) sb.append(",");
+            sb.append("{\"transfers\":").append(legs.length - 1).append(",");
+            sb.append("\"date\":\"").append(travelDate).append("\",");
+            sb.append("\"legs\":[");
+            for (int m = 0; m < legs.length; m++) {
+                Leg leg = legs[m];
+                List<String> stops = leg.train.getStops();
+                if (m > 0) sb.append(",");
+                sb.append("{\"trainNumber\":\"").append(leg.train.getTrainNumber()).append("\",");
+                sb.append("\"from\":\"").append(stops.get(leg.from)).append("\",");
+                sb.append("\"to\":\"").append(stops.get(leg.to)).append("\",");
+                sb.append("\"seatInventory\":{");
+                boolean first = true;
+                for (String seatType : leg.train.getSeatTypes()) {
+                    if (!first) sb.append(",");
+                    sb.append("\"").append(seatType).append("\":")
+                            .append(leg.train.getSeatInventory(seatType, day, leg.from, leg.to));
+                    first = false;
+                }
+                sb.append("}}");
+            }
+            sb.append("]}");
+        }
+        return sb.append("]").toString();
+    }
+
+    /**
+     * 一次查询的搜索状态：区间余票的缓存、扩展步数和评分最好的若干方案
+     */
+    private static final class Search {
+        private final long day;
+        private final Map<Train, byte[]> availability = new HashMap<>(); // 区间下标 from*站数+to：0 未知，1 有票，2 无票
+        // 评分最差的在堆顶，便于淘汰
+        private final PriorityQueue<Candidate> best =
+                new PriorityQueue<>(Comparator.comparingInt((Candidate c) -> c.score).reversed());
+        private int expansions;
+
+        private Search(long day) {
+            this.day = day;
+        }
+
+        private boolean hasBudget() {
+            return expansions < MAX_EXPANSIONS;
+        }
+
+        /**
+         * 区间 [from, to) 是否有任一席别的空闲座位
+         */
+        private boolean available(Train train, int from, int to) {
+            expansions++;
+            int stops = train.getStops().size();
+            byte[] cached = availability.computeIfAbsent(train, t -> new byte[stops * stops]);
+            int index = from * stops + to;
+            if (cached[index] == 0) {
+                boolean free = false;
+                for (String seatType : train.getSeatTypes()) {
+                    if (train.getSeatInventory(seatType, day, from, to) > 0) {
+                        free = true;
+                        break;
+                    }
+                }
+                cached[index] = (byte) (free ? 1 : 2);
+            }
+            return cached[index] == 1;
+        }
+
+        private void offer(Leg... legs) {
+            int stops = 0;
+            for (Leg leg : legs) {
+                stops += leg.to - leg.from;
+            }
+            int score = (legs.length - 1) * TRANSFER_PENALTY + stops;
+            if (best.size() == MAX_RESULTS) {
+                if (score >= best.peek().score) {
+                    return;
+                }
+                best.poll();
+            }
+            best.add(new Candidate(legs, score));
+        }
+
+        private int size() {
+            return best.size();
+        }
+
+        private List<Leg[]> results() {
+            List<Candidate> sorted = new ArrayList<>(best);
+            sorted.sort(Comparator.comparingInt(c -> c.score));
+            List<Leg[]> itineraries = new ArrayList<>(sorted.size());
+            for (Candidate candidate : sorted) {
+                itineraries.add(candidate.legs);
+            }
+            return itineraries;
+        }
+    }
+
+    /**
+     * 方案中的一段：乘坐 train 从第 from 站到第 to 站
+     */
+    private static final class Leg {
+        private final Train train;
+        private final int from;
+        private final int to;
+
+        private Leg(Train train, int from, int to) {
+            this.train = train;
+            this.from = from;
+            this.to = to;
+        }
+    }
+
+    private static final class Candidate {
+        private final Leg[] legs;
+        private final int score;
+
+        private Candidate(Leg[] legs, int score) {
+            this.legs = legs;
+            this.score = score;
+        }
+    }
+
+    private static final class CachedPlan {
+        private final long version;
+        private final String json;
+
+        private CachedPlan(long version, String json) {
+            this.version = version;
+            this.json = json;
+        }
+    }
+}
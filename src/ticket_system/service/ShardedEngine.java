@@ -0,0 +1,238 @@
+package ticket_system.service;
+
+import ticket_system.util.WriteAheadLog;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * 单写者分片执行引擎：同一车次的所有变更（购票、支付、取消、超时释放）都由同一个分片线程串行执行
+ *
+ * 车次号按哈希路由到 N 个分片，每个分片一个有界队列和一个事件循环线程。
+ * 请求处理线程只把任务放入队列并等待结果，不再在库存和订单上互相竞争；
+ * 不同车次的请求在不同分片上并行，吞吐随核数增长（直到热点车次数）。
+ *
+ * 分片线程处理任务时开启预写日志的延迟落盘作用域：任务内的日志写入不阻塞分片线程，
+ * 结果在对应记录落盘后才交给等待的请求线程，因此一个分片可以连续处理多笔请求、共享一次刷盘。
+ *
+ * 任务内的日志记录最终写入失败时，结果改为错误，并在分片上执行任务登记的补偿（onJournalFailure），
+ * 例如撤销订单、释放座位，客户端收到错误时不会留下占着座位的订单。
+ *
+ * 车次的新增、加票和跨天推进也在所属分片上执行。未开启流水线时分片是座位图唯一的写者（ownsSeatMaps），
+ * 座位图不再加车厢锁；流水线的锁票阶段会直接修改座位图，开启流水线时座位图仍然加锁。
+ *
+ * 分片数由系统属性 ticket.shards 指定，默认等于 CPU 核数；设为 0 时不分片，任务在调用线程中直接执行。
+ * 同一分片内的任务可以再次调用 call（直接执行），但不应跨分片等待，以免分片之间互相阻塞。
+ */
+public class ShardedEngine {
+    private static ShardedEngine instance;
+    private static final int QUEUE_CAPACITY = 4096;
+    private static final int MAX_BATCH = 256;
+    private static final String BUSY = "ERROR|系统繁忙，请稍后重试";
+
+    private final Shard[] shards;
+    private final WriteAheadLog journal;
+
+    private ShardedEngine(int shardCount) {
+        this.journal = WriteAheadLog.getInstance();
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard(i);
+            shards[i].start();
+        }
+        if (shardCount > 0) {
+            System.out.println("分片执行引擎已启动，分片数: " + shardCount);
+        }
+    }
+
+    public static synchronized ShardedEngine getInstance() {
+        if (instance == null) {
+            int shardCount = Integer.getInteger("ticket.shards", Runtime.getRuntime().availableProcessors());
+            instance = new ShardedEngine(Math.max(0, shardCount));
+        }
+        return instance;
+    }
+
+    public boolean isEnabled() {
+        return shards.length > 0;
+    }
+
+    /**
+     * 座位图是否只由分片线程修改：开启分片且未开启流水线
+     */
+    public boolean ownsSeatMaps() {
+        return isEnabled() && !Boolean.getBoolean("ticket.pipeline");
+    }
+
+    /**
+     * 在车次所属分片上执行任务并等待结果（含日志落盘）
+     * @return 任务返回的响应；队列已满时返回系统繁忙错误
+     */
+    public String call(String trainNumber, Supplier<String> task) {
+        Shard shard = shardOf(trainNumber);
+        if (shard == null || Thread.currentThread() == shard) {
+            return task.get();
+        }
+        ShardTask shardTask = new ShardTask(task);
+        if (!shard.queue.offer(shardTask)) {
+            return BUSY;
+        }
+        try {
+            return shardTask.result.join();
+        } catch (CompletionException e) {
+            return "ERROR|系统处理异常: " + e.getCause().getMessage();
+        }
+    }
+
+    /**
+     * 在车次所属分片上异步执行任务（如支付超时），不等待结果，也不阻塞调用线程（调用方常是时间轮或日志线程）
+     * 队列已满时放入分片的溢出队列，由分片线程在处理完当前一批后取出，任务不会丢失，也不会在分片之外执行
+     */
+    public void execute(String trainNumber, Runnable task) {
+        Shard shard = shardOf(trainNumber);
+        if (shard == null || Thread.currentThread() == shard) {
+            task.run();
+            return;
+        }
+        shard.submit(new ShardTask(() -> {
+            task.run();
+            return null;
+        }));
+    }
+
+    /**
+     * 登记当前任务的补偿操作：任务内写入的日志记录最终落盘失败时，在同一分片上执行
+     * 不在分片线程上调用时忽略：此时日志同步写入，失败会直接抛出异常，由调用方处理
+     */
+    public void onJournalFailure(Runnable compensation) {
+        Thread current = Thread.currentThread();
+        if (current instanceof Shard) {
+            ((Shard) current).compensations.add(compensation);
+        }
+    }
+
+    private Shard shardOf(String trainNumber) {
+        if (shards.length == 0 || trainNumber == null) {
+            return null;
+        }
+        int h = trainNumber.hashCode();
+        h ^= h >>> 16;
+        return shards[Math.floorMod(h, shards.length)];
+    }
+
+    /**
+     * 关闭引擎：各分片处理完已排队的任务后退出
+     */
+    public void shutdown() {
+        for (Shard shard : shards) {
+            shard.running = false;
+        }
+        for (Shard shard : shards) {
+            try {
+                shard.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private final class Shard extends Thread {
+        private final BlockingQueue<ShardTask> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        private final Queue<ShardTask> overflow = new ConcurrentLinkedQueue<>(); // 队列已满时 execute 的任务
+        private final List<Runnable> compensations = new ArrayList<>();         // 当前任务登记的补偿
+        private volatile boolean running = true;
+
+        private Shard(int index) {
+            super("PurchaseShard-" + index);
+            setDaemon(true);
+        }
+
+        /**
+         * 不阻塞地提交任务：队列已满时放入溢出队列，再尝试放入一个空任务唤醒可能正在等待的分片线程
+         */
+        private void submit(ShardTask task) {
+            if (!queue.offer(task)) {
+                overflow.add(task);
+                queue.offer(WAKEUP);
+            }
+        }
+
+        @Override
+        public void run() {
+            List<ShardTask> batch = new ArrayList<>(MAX_BATCH);
+            while (running || !queue.isEmpty() || !overflow.isEmpty()) {
+                try {
+                    ShardTask first = overflow.isEmpty() ? queue.poll(100, TimeUnit.MILLISECONDS) : overflow.poll();
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                    queue.drainTo(batch, MAX_BATCH - 1);
+                    for (ShardTask task : batch) {
+                        runTask(task);
+                    }
+                } catch (InterruptedException e) {
+                    break;
+                } finally {
+                    batch.clear();
+                }
+            }
+        }
+
+        private void runTask(ShardTask task) {
+            if (task == WAKEUP) {
+                return;
+            }
+            journal.beginDeferred();
+            String result;
+            try {
+                result = task.body.get();
+            } catch (RuntimeException e) {
+                compensations.clear();
+                journal.endDeferred();
+                task.result.completeExceptionally(e);
+                return;
+            }
+            // 补偿只在出错时使用，没有登记时不复制
+            List<Runnable> undo = compensations.isEmpty() ? null : new ArrayList<>(compensations);
+            compensations.clear();
+            journal.endDeferred().whenComplete((ignored, error) -> {
+                if (error == null) {
+                    task.result.complete(result);
+                } else if (undo == null) {
+                    task.result.complete("ERROR|写入日志失败: " + error.getMessage());
+                } else {
+                    // 在日志线程中回调：补偿交回本分片执行，完成后再把错误交给等待的请求线程
+                    submit(new ShardTask(() -> {
+                        try {
+                            for (Runnable compensation : undo) {
+                                compensation.run();
+                            }
+                        } finally {
+                            task.result.complete("ERROR|写入日志失败: " + error.getMessage());
+                        }
+                        return null;
+                    }));
+                }
+            });
+        }
+    }
+
+    private static final ShardTask WAKEUP = new ShardTask(() -> null);
+
+    private static final class ShardTask {
+        private final Supplier<String> body;
+        private final CompletableFuture<String> result = new CompletableFuture<>();
+
+        private ShardTask(Supplier<String> body) {
+            this.body = body;
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package ticket_system.service;
+
+import ticket_system.entity.SeatCalendar;
+import ticket_system.entity.SeatMap;
+import ticket_system.entity.Train;
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 售罄快速拒绝表：已知车次号的集合，以及每个 车次+席别 在预售期内各天是否已完全售罄的位图
+ *
+ * 供接入层在解析消息、创建任何对象之前判断购票请求能否直接拒绝：
+ * 车次号直接在收到的消息行（或二进制帧的缓冲区）上按下标区间计算散列并比较字符，查找过程不分配对象；
+ * 售罄位图的第 (epochDay mod 64) 位表示该日期的座位图已没有任何空闲的 (座位, 区间)，任何上下车站组合都买不到票。
+ *
+ * 车次表为开放寻址散列表，只由 TrainService 在新增车次时写入（加锁、写时复制），读者无锁读取 volatile 引用。
+ * 位图由 TrainService 在每次库存变化之后、不持有任何全局锁时，只针对变化的 席别+日期 重新计算一位；
+ * 写入后再读一次座位图，状态已变化就重写：最后写入的一方一定是在写入之后确认过的，位图不会停留在过期状态。
+ *
+ * 只在能确定结果时给出结论：日期不在预售期内、已过午夜但预售期尚未推进、预售天数超过 64 时都返回 PASS，交给正常流程处理。
+ */
+public class SoldOutFilter {
+    /** 车次号不存在 */
+    public static final int UNKNOWN_TRAIN = 1;
+    /** 该席别在该日期已售罄 */
+    public static final int SOLD_OUT = 2;
+    /** 无法快速判断，走正常购票流程 */
+    public static final int PASS = 0;
+
+    private static final boolean ENABLED = SeatCalendar.PRESALE_DAYS <= 64;
+
+    private volatile Entry[] table = new Entry[64];
+    private int size; // 仅在同步方法内修改
+    private volatile long firstDay;
+    private volatile long dayEndMillis;
+
+    SoldOutFilter(long today) {
+        setFirstDay(today);
+    }
+
+    /**
+     * 登记车次号（车次号一旦存在就不会删除）
+     */
+    synchronized void addTrain(String trainNumber) {
+        Entry[] current = table;
+        if ((size + 1) * 2 > current.length) {
+            current = resize(current, current.length * 2);
+        } else {
+            current = current.clone();
+        }
+        insert(current, new Entry(trainNumber));
+        size++;
+        table = current;
+    }
+
+    private static Entry[] resize(Entry[] old, int length) {
+        Entry[] resized = new Entry[length];
+        for (Entry entry : old) {
+            if (entry != null) {
+                insert(resized, entry);
+            }
+        }
+        return resized;
+    }
+
+    private static void insert(Entry[] entries, Entry entry) {
+        int mask = entries.length - 1;
+        int index = spread(entry.hash) & mask;
+        while (entries[index] != null) {
+            index = (index + 1) & mask;
+        }
+        entries[index] = entry;
+    }
+
+    /**
+     * 按座位图重新计算车次一个席别在一天的售罄位（购票、退票后调用，只看变化的那一天）
+     */
+    void refresh(Train train, String seatType, long epochDay) {
+        Entry entry = find(train.getTrainNumber(), 0, train.getTrainNumber().length());
+        if (entry == null || !ENABLED) {
+            return;
+        }
+        SeatMask mask = maskOf(entry, seatType);
+        long bit = 1L << (epochDay & 63);
+        boolean soldOut = isSoldOut(train, seatType, epochDay);
+        while (true) {
+            long current = mask.days.get();
+            long updated = soldOut ? current | bit : current & ~bit;
+            if (current != updated && !mask.days.compareAndSet(current, updated)) {
+                continue;
+            }
+            boolean now = isSoldOut(train, seatType, epochDay);
+            if (now == soldOut) {
+                return;
+            }
+            soldOut = now; // 写入期间座位图又变了，按最新状态重写
+        }
+    }
+
+    /**
+     * 按座位图重新计算车次各席别在预售期内每天的售罄位（新增车次、加票、跨天推进后调用）
+     * 预售期外的位一并清零，新进入预售期的日期不会沿用 64 天前的旧位
+     */
+    void refresh(Train train) {
+        Entry entry = find(train.getTrainNumber(), 0, train.getTrainNumber().length());
+        if (entry == null || !ENABLED) {
+            return;
+        }
+        for (String seatType : train.getSeatTypes()) {
+            SeatMask mask = maskOf(entry, seatType);
+            long bits = soldOutDays(train, seatType);
+            while (true) {
+                long current = mask.days.get();
+                if (current != bits && !mask.days.compareAndSet(current, bits)) {
+                    continue;
+                }
+                long now = soldOutDays(train, seatType);
+                if (now == bits) {
+                    break;
+                }
+                bits = now;
+            }
+        }
+    }
+
+    private static long soldOutDays(Train train, String seatType) {
+        long first = train.getFirstSaleDay();
+        long bits = 0;
+        for (long day = first; day < first + SeatCalendar.PRESALE_DAYS; day++) {
+            if (isSoldOut(train, seatType, day)) {
+                bits |= 1L << (day & 63);
+            }
+        }
+        return bits;
+    }
+
+    private static boolean isSoldOut(Train train, String seatType, long epochDay) {
+        SeatMap seatMap = train.getSeatMap(seatType, epochDay);
+        return seatMap != null && seatMap.isSoldOut();
+    }
+
+    /**
+     * 席别的售罄位图，新开售的席别整体替换数组：读者看到的要么是旧数组要么是新数组
+     */
+    private SeatMask maskOf(Entry entry, String seatType) {
+        for (SeatMask mask : entry.masks) {
+            if (mask.seatType.equals(seatType)) {
+                return mask;
+            }
+        }
+        synchronized (entry) {
+            SeatMask[] masks = entry.masks;
+            for (SeatMask mask : masks) {
+                if (mask.seatType.equals(seatType)) {
+                    return mask;
+                }
+            }
+            SeatMask mask = new SeatMask(seatType);
+            SeatMask[] grown = new SeatMask[masks.length + 1];
+            System.arraycopy(masks, 0, grown, 0, masks.length);
+            grown[masks.length] = mask;
+            entry.masks = grown;
+            return mask;
+        }
+    }
+
+    /**
+     * 预售期推进：记录新的第一天和当天结束的时刻
+     */
+    void setFirstDay(long today) {
+        dayEndMillis = LocalDate.ofEpochDay(today + 1).atStartOfDay(ZoneId.systemDefault())
+                .toInstant().toEpochMilli();
+        firstDay = today;
+    }
+
+    /**
+     * 按消息行上的下标区间判断购票请求
+     * @param line 收到的消息行
+     * @param trainStart 车次号在 line 中的起始下标（含）
+     * @param trainEnd 车次号在 line 中的结束下标（不含）
+     * @param seatStart 席别在 line 中的起始下标（含），席别未开售时不做售罄判断
+     * @param seatEnd 席别在 line 中的结束下标（不含）
+     * @param epochDay 乘车日期；为 -1 表示当天
+     * @return UNKNOWN_TRAIN、SOLD_OUT 或 PASS
+     */
+    public int check(String line, int trainStart, int trainEnd, int seatStart, int seatEnd, long epochDay) {
+        Entry entry = find(line, trainStart, trainEnd);
+        if (entry == null) {
+            return UNKNOWN_TRAIN;
+        }
+        long dayBit = dayBit(epochDay);
+        if (dayBit == 0) {
+            return PASS;
+        }
+        int seatLength = seatEnd - seatStart;
+        for (SeatMask mask : entry.masks) {
+            if (mask.seatType.length() == seatLength && line.regionMatches(seatStart, mask.seatType, 0, seatLength)) {
+                return (mask.days.get() & dayBit) != 0 ? SOLD_OUT : PASS;
+            }
+        }
+        return PASS;
+    }
+
+    /**
+     * 按二进制帧上的下标区间判断购票请求，车次号为 ASCII 字节（含非 ASCII 字节时返回 PASS）
+     * @param seatType 席别，TicketRequest 中的常量
+     * @see #check(String, int, int, int, int, long)
+     */
+    public int check(ByteBuffer frame, int trainStart, int trainEnd, String seatType, long epochDay) {
+        int hash = 0;
+        for (int i = trainStart; i < trainEnd; i++) {
+            byte b = frame.get(i);
+            if (b < 0) {
+                return PASS;
+            }
+            hash = 31 * hash + b;
+        }
+        Entry entry = find(frame, trainStart, trainEnd, hash);
+        if (entry == null) {
+            return UNKNOWN_TRAIN;
+        }
+        long dayBit = dayBit(epochDay);
+        if (dayBit == 0) {
+            return PASS;
+        }
+        for (SeatMask mask : entry.masks) {
+            if (mask.seatType.equals(seatType)) {
+                return (mask.days.get() & dayBit) != 0 ? SOLD_OUT : PASS;
+            }
+        }
+        return PASS;
+    }
+
+    /**
+     * 乘车日期在售罄位图中的位；无法判断（已过午夜、不在预售期内）时返回 0
+     */
+    private long dayBit(long epochDay) {
+        if (!ENABLED || System.currentTimeMillis() >= dayEndMillis) {
+            return 0;
+        }
+        long first = firstDay;
+        long day = epochDay < 0 ? first : epochDay;
+        if (day < first || day >= first + SeatCalendar.PRESALE_DAYS) {
+            return 0;
+        }
+        return 1L << (day & 63);
+    }
+
+    private Entry find(String line, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + line.charAt(i);
+        }
+        int length = end - start;
+        Entry[] entries = table;
+        int mask = entries.length - 1;
+        int index = spread(hash) & mask;
+        Entry entry;
+        while ((entry = entries[index]) != null) {
+            if (entry.hash == hash && entry.trainNumber.length() == length
+                    && line.regionMatches(start, entry.trainNumber, 0, length)) {
+                return entry;
+            }
+            index = (index + 1) & mask;
+        }
+        return null;
+    }
+
+    private Entry find(ByteBuffer frame, int start, int end, int hash) {
+        int length = end - start;
+        Entry[] entries = table;
+        int mask = entries.length - 1;
+        int index = spread(hash) & mask;
+        Entry entry;
+        while ((entry = entries[index]) != null) {
+            if (entry.hash == hash && entry.trainNumber.length() == length && matches(frame, start, entry.trainNumber)) {
+                return entry;
+            }
+            index = (index + 1) & mask;
+        }
+        return null;
+    }
+
+    private static boolean matches(ByteBuffer frame, int start, String trainNumber) {
+        for (int i = 0; i < trainNumber.length(); i++) {
+            if (frame.get(start + i) != trainNumber.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static final class Entry {
+        private final String trainNumber;
+        private final int hash; // 与 String.hashCode 相同
+        private volatile SeatMask[] masks = new SeatMask[0];
+
+        private Entry(String trainNumber) {
+            this.trainNumber = trainNumber;
+            this.hash = trainNumber.hashCode();
+        }
+    }
+
+    private static final class SeatMask {
+        private final String seatType;
+        private final AtomicLong days = new AtomicLong();
+
+        private SeatMask(String seatType) {
+            this.seatType = seatType;
+        }
+    }
+}
@@ -4,16 +4,37 @@ import ticket_system.entity.Order;
 import ticket_system.entity.OrderStatus;
 import ticket_system.entity.SystemState;
 import ticket_system.entity.TicketRequest;
+import ticket_system.util.WriteAheadLog;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
 public class TicketService {
     private static TicketService instance;
     private OrderService orderService;
     private TrainService trainService;
-    private SystemState currentState = SystemState.READY;
+    // 同一车次的购票、支付、取消在同一个分片线程上串行执行
+    private final ShardedEngine engine;
+    // 流水线模式（系统属性 ticket.pipeline=true）下购票改由流水线处理，未开启时为 null
+    private final PurchasePipeline pipeline;
+    // 排队购票（209/210）
+    private final PurchaseQueue purchaseQueue;
+    private volatile SystemState currentState = SystemState.READY;
+    // 使用显式锁而不是 synchronized，避免虚拟线程在此处钉住载体线程
+    private final ReentrantLock stateLock = new ReentrantLock();
 
     private TicketService() {
         this.orderService = OrderService.getInstance();
         this.trainService = TrainService.getInstance();
+        this.engine = ShardedEngine.getInstance();
+        this.pipeline = Boolean.getBoolean("ticket.pipeline")
+                ? new PurchasePipeline(this, trainService, orderService, Integer.getInteger("ticket.pipeline.size", 4096))
+                : null;
+        this.purchaseQueue = new PurchaseQueue(this);
+        // 车次和订单都已从日志恢复、登记为检查点来源后才开启检查点，快照不会缺少任何一方
+        WriteAheadLog.getInstance().startCheckpoints();
     }
 
     public static synchronized TicketService getInstance() {
@@ -34,43 +55,177 @@ public class TicketService {
             return "ERROR|请求参数不合法";
         }
 
-        // T1 → T2: 就绪状态 → 处理中状态
+        enterProcessing();
+        return engine.call(request.getTrainNumber(), () -> purchase(request));
+    }
+
+    public boolean isPipelineEnabled() {
+        return pipeline != null;
+    }
+
+    /**
+     * 流水线模式下提交购票消息体，解析和校验也在流水线中完成
+     */
+    public CompletableFuture<String> submitPurchase(String payload, String clientNo) {
+        return pipeline.submit(payload, clientNo);
+    }
+
+    /**
+     * 流水线模式下提交已解码的购票请求（二进制协议）
+     */
+    public CompletableFuture<String> submitPurchase(TicketRequest request) {
+        return pipeline.submit(request);
+    }
+
+    /**
+     * 排队购票：校验后入队，立即返回排队号和排队位置，结果通过 notifier 推送
+     */
+    public String enqueuePurchase(TicketRequest request, Consumer<String> notifier) {
+        if (!validateRequest(request)) {
+            return "ERROR|请求参数不合法";
+        }
+        if (trainService.getTrain(request.getTrainNumber()) == null) {
+            return "ERROR|车次不存在：" + request.getTrainNumber();
+        }
+        return purchaseQueue.enqueue(request, notifier);
+    }
+
+    /**
+     * 按排队号查询排队购票的位置或结果
+     */
+    public String queryQueuedPurchase(String ticketNo) {
+        return purchaseQueue.query(ticketNo);
+    }
+
+    /**
+     * 候补购票：有余票时直接出票；余票不足时加入候补，座位释放后自动出票并通过 notifier 推送
+     */
+    public String joinWaitlist(TicketRequest request, Consumer<String> notifier) {
+        if (!validateRequest(request)) {
+            return "ERROR|请求参数不合法";
+        }
+        enterProcessing();
+        return engine.call(request.getTrainNumber(), () -> {
+            Order order = new Order(request);
+            String lockResult = trainService.lockTickets(order);
+            if (lockResult.startsWith("ERROR|余票不足")) {
+                return WaitlistService.getInstance().join(order, request, notifier);
+            }
+            if (!lockResult.startsWith("SUCCESS")) {
+                return lockResult;
+            }
+            return createLockedOrder(order);
+        });
+    }
+
+    /**
+     * 取消候补
+     */
+    public String cancelWaitlist(String waitlistId) {
+        return WaitlistService.getInstance().cancel(waitlistId);
+    }
+
+    /**
+     * 同一车次的一批购票请求在所属分片上按顺序一次执行，整批共享一次刷盘
+     * @return 与 requests 一一对应的响应
+     */
+    String[] handlePurchaseBatch(String trainNumber, List<TicketRequest> requests) {
+        String[] results = new String[requests.size()];
+        enterProcessing();
+        String status = engine.call(trainNumber, () -> {
+            for (int i = 0; i < results.length; i++) {
+                results[i] = purchase(requests.get(i));
+            }
+            return "SUCCESS";
+        });
+        if (!status.startsWith("SUCCESS")) {
+            // 分片繁忙或日志写入失败：整批按同一错误返回
+            Arrays.fill(results, status);
+        }
+        return results;
+    }
+
+    /**
+     * T1 → T2: 就绪状态 → 处理中状态
+     */
+    void enterProcessing() {
         if (currentState == SystemState.READY) {
-            synchronized (this) {
+            stateLock.lock();
+            try {
                 currentState = SystemState.PROCESSING;
                 System.out.println("系统状态: READY → PROCESSING");
+            } finally {
+                stateLock.unlock();
             }
         }
+    }
 
+    /**
+     * 锁定票源并创建订单（在车次所属分片上执行）
+     */
+    private String purchase(TicketRequest request) {
         try {
-            // 向票源系统锁定票源
-            String lockResult = trainService.lockTickets(
-                    request.getTrainNumber(),
-                    request.getSeatType(),
-                    request.getPassengerCount()
-            );
+            // 向票源系统锁定票源，分配的座位记录在订单中
+            Order order = new Order(request);
+            String lockResult = trainService.lockTickets(order);
 
             if (!lockResult.startsWith("SUCCESS")) {
                 return lockResult; // 直接返回错误信息
             }
 
             // 创建订单
-            Order order = new Order(request);
-            orderService.createOrder(order);
-
-            // 返回成功响应
-            return "SUCCESS|订单创建成功:" + order.getOrderId() +
-                    "|请在1分钟内完成支付";
-
+            return createLockedOrder(order);
         } catch (Exception e) {
             return "ERROR|系统处理异常: " + e.getMessage();
         }
     }
 
+    /**
+     * 为已锁定座位的订单建单
+     * 建单失败时立即撤销；在分片上执行时再登记补偿，订单记录最终未能落盘时同样撤销，客户端收到错误时座位已退回
+     */
+    String createLockedOrder(Order order) {
+        try {
+            orderService.createOrder(order);
+        } catch (RuntimeException e) {
+            abortOrder(order);
+            return "ERROR|系统处理异常: " + e.getMessage();
+        }
+        engine.onJournalFailure(() -> abortOrder(order));
+        return purchaseReply(order);
+    }
+
+    /**
+     * 撤销未能成功建单的订单并释放它锁定的座位；订单已被支付、取消或超时时不再处理
+     */
+    void abortOrder(Order order) {
+        if (orderService.abortOrder(order)) {
+            trainService.releaseTickets(order);
+            System.out.println("撤销未落盘的订单并释放座位: " + order.getOrderId());
+        }
+    }
+
+    /**
+     * 购票成功的响应
+     */
+    static String purchaseReply(Order order) {
+        return "SUCCESS|订单创建成功:" + order.getOrderId() +
+                "|请在1分钟内完成支付" +
+                "|座位号:" + order.getSeatNumbers();
+    }
+
     /**
      * 确认支付
      */
     public String confirmPayment(String orderId) {
+        Order order = orderService.getOrder(orderId);
+        if (order == null) {
+            return "ERROR|支付确认失败，订单不存在或状态不正确";
+        }
+        return engine.call(order.getTrainNumber(), () -> doConfirmPayment(orderId));
+    }
+
+    private String doConfirmPayment(String orderId) {
         try {
             boolean success = orderService.confirmPayment(orderId);
             if (success) {
@@ -88,32 +243,30 @@ public class TicketService {
      * 取消订单
      */
     public String cancelOrder(String orderId) {
+        Order order = orderService.getOrder(orderId);
+        if (order == null) {
+            return "ERROR|订单不存在";
+        }
+        return engine.call(order.getTrainNumber(), () -> doCancelOrder(order));
+    }
+
+    private String doCancelOrder(Order order) {
+        String orderId = order.getOrderId();
         try {
-            Order order = orderService.getOrder(orderId);
-            if (order == null) {
-                return "ERROR|订单不存在";
+            // 先原子地把订单从待支付改为已取消，保证与支付超时并发时只释放一次票源
+            boolean success = orderService.cancelOrder(orderId);
+            if (!success) {
+                return "ERROR|订单取消失败";
             }
 
             // 向票源系统释放票源
-            if (order.getStatus() == OrderStatus.PENDING_PAYMENT) {
-                String releaseResult = trainService.releaseTickets(
-                        order.getTrainNumber(),
-                        order.getSeatType(),
-                        order.getPassengerCount()
-                );
-
-                if (!releaseResult.startsWith("SUCCESS")) {
-                    return releaseResult;
-                }
+            String releaseResult = trainService.releaseTickets(order);
+            if (!releaseResult.startsWith("SUCCESS")) {
+                return releaseResult;
             }
 
-            boolean success = orderService.cancelOrder(orderId);
-            if (success) {
-                updateSystemState();
-                return "SUCCESS|订单取消成功";
-            } else {
-                return "ERROR|订单取消失败";
-            }
+            updateSystemState();
+            return "SUCCESS|订单取消成功";
         } catch (Exception e) {
             return "ERROR|取消订单异常: " + e.getMessage();
         }
@@ -133,6 +286,8 @@ public class TicketService {
                     "|车次:" + order.getTrainNumber() +
                     "|座位:" + order.getSeatType() +
                     "|人数:" + order.getPassengerCount() +
+                    "|乘车日期:" + order.getTravelDate() +
+                    "|座位号:" + order.getSeatNumbers() +
                     "|创建时间:" + order.getCreateTime();
         } catch (Exception e) {
             return "ERROR|查询订单异常: " + e.getMessage();
@@ -153,7 +308,7 @@ public class TicketService {
     /**
      * 验证请求参数
      */
-    private boolean validateRequest(TicketRequest request) {
+    boolean validateRequest(TicketRequest request) {
         if (request.getPassengerCount() < 1 || request.getPassengerCount() > 5) {
             System.out.println("参数验证失败: 人数范围错误 " + request.getPassengerCount());
             return false;
@@ -174,13 +329,15 @@ public class TicketService {
      */
     private void updateSystemState() {
         // 检查是否所有订单都已处理完成
-        boolean allProcessed = orderService.getAllOrders().values().stream()
-                .noneMatch(order -> order.getStatus() == OrderStatus.PENDING_PAYMENT);
+        boolean allProcessed = orderService.getOrderCount(OrderStatus.PENDING_PAYMENT) == 0;
 
         if (allProcessed && currentState != SystemState.READY) {
-            synchronized (this) {
+            stateLock.lock();
+            try {
                 currentState = SystemState.READY;
                 System.out.println("系统状态: PROCESSING → READY");
+            } finally {
+                stateLock.unlock();
             }
         }
     }
@@ -196,7 +353,13 @@ public class TicketService {
      * 关闭服务
      */
     public void shutdown() {
+        purchaseQueue.shutdown();
+        if (pipeline != null) {
+            pipeline.shutdown();
+        }
+        engine.shutdown();
         orderService.shutdown();
+        WriteAheadLog.getInstance().close();
         System.out.println("TicketService 已关闭");
     }
 }
\ No newline at end of file
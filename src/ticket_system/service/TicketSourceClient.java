@@ -1,41 +1,154 @@
 package ticket_system.service;
 
 import java.io.*;
+import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.Map;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+/**
+ * 票源系统客户端：维护到票源系统的一组长连接，每次调用只需一次往返，不再为每个请求建立和关闭 TCP 连接
+ *
+ * 连接池大小固定（系统属性 ticket.source.pool.size，默认 4），连接在第一次需要时建立、断开后按需重连。
+ * 每个连接支持流水线：多个线程可以连续写入请求而不必等待前一个响应，票源系统按收到的顺序逐行响应，
+ * 客户端按发送顺序把响应交给对应的请求。调用时选择未完成请求最少的连接，所有连接都已建立时请求分散到各个连接上。
+ *
+ * 健康检查：
+ * - 读线程读到连接关闭或读写出错时立即关闭连接，连接上未完成的请求全部返回连接失败；
+ * - 请求在 TIMEOUT_MILLIS 内没有响应时关闭该连接（之后的响应无法再与请求对应）；
+ * - 后台每 HEALTH_CHECK_MILLIS 对空闲超过该时长的连接发送一次心跳（207 系统状态），没有响应的连接被关闭。
+ */
 public class TicketSourceClient {
-    private String host;
-    private int port;
-    private String clientNo;
-    private Map<String, Socket> connectionPool = new ConcurrentHashMap<>();
+    private static final int MAX_IN_FLIGHT = 64;           // 每个连接上未收到响应的请求上限
+    private static final int CONNECT_TIMEOUT_MILLIS = 1000;
+    private static final long TIMEOUT_MILLIS = 3000;
+    private static final long HEALTH_CHECK_MILLIS = 10_000;
+    private static final String CONNECT_FAILED = "ERROR|连接票源系统失败";
+
+    private final String host;
+    private final int port;
+    private final String clientNo;
+    private final Connection[] connectionPool;
+    private final ScheduledExecutorService healthChecker;
 
     public TicketSourceClient(String host, int port) {
+        this(host, port, Integer.getInteger("ticket.source.pool.size", 4));
+    }
+
+    public TicketSourceClient(String host, int port, int poolSize) {
         this.host = host;
         this.port = port;
         this.clientNo = "TICKET_SYSTEM_" + System.currentTimeMillis();
+        this.connectionPool = new Connection[Math.max(1, poolSize)];
+        for (int i = 0; i < connectionPool.length; i++) {
+            connectionPool[i] = new Connection(i);
+        }
+        this.healthChecker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "TicketSourceHealthCheck");
+            thread.setDaemon(true);
+            return thread;
+        });
+        healthChecker.scheduleWithFixedDelay(this::checkHealth,
+                HEALTH_CHECK_MILLIS, HEALTH_CHECK_MILLIS, TimeUnit.MILLISECONDS);
     }
 
     /**
-     * 发送消息到票源系统
+     * 发送消息到票源系统并等待响应
      * 格式: clientNo|msgType|msgPayload
      */
     private String sendMessage(String message) {
-        try (Socket socket = new Socket(host, port);
-             PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
-             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+        System.out.println("发送到票源系统: " + message);
+        CompletableFuture<String> reply = null;
+        Connection connection = null;
+        // 写入失败（通常是票源系统已关闭的空闲连接）时换一个连接重试一次
+        for (int attempt = 0; attempt < 2 && reply == null; attempt++) {
+            connection = choose();
+            if (connection == null) {
+                return "ERROR|票源系统繁忙，请稍后重试";
+            }
+            try {
+                reply = connection.send(message);
+            } catch (IOException e) {
+                System.out.println("连接票源系统失败: " + e.getMessage());
+            }
+        }
+        if (reply == null) {
+            return CONNECT_FAILED;
+        }
+        String response = await(connection, reply);
+        System.out.println("票源系统响应: " + response);
+        return response;
+    }
 
-            System.out.println("发送到票源系统: " + message);
-            out.println(message);
+    private String await(Connection connection, CompletableFuture<String> reply) {
+        try {
+            return reply.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            connection.close("响应超时");
+            return "ERROR|票源系统响应超时";
+        } catch (ExecutionException e) {
+            return CONNECT_FAILED;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CONNECT_FAILED;
+        }
+    }
 
-            String response = in.readLine();
-            System.out.println("票源系统响应: " + response);
-            return response;
+    /**
+     * 选择未完成请求最少的连接；空闲时总是优先使用编号小的连接，只有并发请求多时才建立更多连接
+     * @return 所有连接都已达到在途请求上限时返回 null
+     */
+    private Connection choose() {
+        Connection best = null;
+        for (Connection connection : connectionPool) {
+            int inFlight = connection.inFlight;
+            if (inFlight >= MAX_IN_FLIGHT) {
+                continue;
+            }
+            if (best == null || inFlight < best.inFlight) {
+                best = connection;
+                if (inFlight == 0 && connection.isOpen()) {
+                    break;
+                }
+            }
+        }
+        return best;
+    }
 
-        } catch (IOException e) {
-            System.out.println("连接票源系统失败: " + e.getMessage());
-            return "ERROR|连接票源系统失败";
+    /**
+     * 心跳：空闲连接发送 207，超时无响应或出错的连接关闭，下次使用时重连
+     */
+    private void checkHealth() {
+        long now = System.currentTimeMillis();
+        for (Connection connection : connectionPool) {
+            if (!connection.isOpen() || connection.inFlight > 0 || now - connection.lastUsed < HEALTH_CHECK_MILLIS) {
+                continue;
+            }
+            try {
+                CompletableFuture<String> reply = connection.send(clientNo + "|207|");
+                reply.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (IOException | ExecutionException | TimeoutException e) {
+                connection.close("心跳失败");
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * 关闭所有连接并停止健康检查
+     */
+    public void close() {
+        healthChecker.shutdownNow();
+        for (Connection connection : connectionPool) {
+            connection.close("客户端关闭");
         }
     }
 
@@ -110,4 +223,125 @@ public class TicketSourceClient {
         String[] parts = response.split("\\|", 2);
         return parts.length > 1 ? parts[1] : "";
     }
-}
\ No newline at end of file
+
+    /**
+     * 连接池中的一个长连接
+     * 写入请求和登记等待响应在同一把锁内完成，保证等待队列的顺序与请求在连接上的顺序一致；
+     * 读线程按顺序取出等待者交付响应。socket 为 null 表示尚未建立或已关闭。
+     */
+    private final class Connection {
+        private final int index;
+        private final ArrayDeque<CompletableFuture<String>> pending = new ArrayDeque<>();
+        private Socket socket;
+        private Writer out;
+        private volatile int inFlight;
+        private volatile long lastUsed = System.currentTimeMillis();
+
+        private Connection(int index) {
+            this.index = index;
+        }
+
+        private synchronized boolean isOpen() {
+            return socket != null;
+        }
+
+        /**
+         * 在连接上写入一个请求（必要时先建立连接）
+         * @return 响应的 future；连接关闭时以异常完成
+         */
+        private synchronized CompletableFuture<String> send(String message) throws IOException {
+            if (socket == null) {
+                connect();
+            }
+            CompletableFuture<String> reply = new CompletableFuture<>();
+            pending.addLast(reply);
+            inFlight = pending.size();
+            lastUsed = System.currentTimeMillis();
+            try {
+                out.write(message);
+                out.write('\n');
+                out.flush();
+            } catch (IOException e) {
+                close(socket, "写入失败: " + e.getMessage());
+                throw e;
+            }
+            return reply;
+        }
+
+        private void connect() throws IOException {
+            Socket created = new Socket();
+            try {
+                created.setTcpNoDelay(true);
+                created.setKeepAlive(true);
+                created.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+                out = new BufferedWriter(new OutputStreamWriter(created.getOutputStream(), StandardCharsets.UTF_8));
+                BufferedReader in = new BufferedReader(
+                        new InputStreamReader(created.getInputStream(), StandardCharsets.UTF_8));
+                socket = created;
+                Thread reader = new Thread(() -> readLoop(created, in), "TicketSourceReader-" + index);
+                reader.setDaemon(true);
+                reader.start();
+                System.out.println("已连接票源系统[" + index + "]: " + host + ":" + port);
+            } catch (IOException e) {
+                created.close();
+                throw e;
+            }
+        }
+
+        /**
+         * 读线程：按顺序把每一行响应交给最早的等待者；推送消息（PUSH|）不对应任何请求，直接忽略
+         */
+        private void readLoop(Socket owner, BufferedReader in) {
+            try {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (line.startsWith("PUSH|")) {
+                        continue;
+                    }
+                    CompletableFuture<String> reply;
+                    synchronized (this) {
+                        if (socket != owner) {
+                            return;
+                        }
+                        reply = pending.pollFirst();
+                        inFlight = pending.size();
+                    }
+                    if (reply != null) {
+                        reply.complete(line);
+                    }
+                }
+                close(owner, "票源系统关闭连接");
+            } catch (IOException e) {
+                close(owner, e.getMessage());
+            }
+        }
+
+        private synchronized void close(String reason) {
+            if (socket != null) {
+                close(socket, reason);
+            }
+        }
+
+        /**
+         * 关闭指定的 socket（已被替换为新连接时不做任何事），未完成的请求全部以异常完成
+         */
+        private synchronized void close(Socket owner, String reason) {
+            if (socket != owner) {
+                return;
+            }
+            try {
+                owner.close();
+            } catch (IOException ignored) {
+            }
+            socket = null;
+            out = null;
+            IOException failure = new IOException(reason);
+            CompletableFuture<String> reply;
+            while ((reply = pending.pollFirst()) != null) {
+                reply.completeExceptionally(failure);
+            }
+            inFlight = 0;
+            System.out.println("票源系统连接已关闭[" + index + "]: " + reason);
+        }
+    }
+}
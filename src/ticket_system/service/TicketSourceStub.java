@@ -0,0 +1,150 @@
+package ticket_system.service;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 本地票源系统桩：实现 TicketSourceClient 使用的消息（200-205、207），余票只保存在内存中
+ *
+ * 用于在没有真实票源系统时联调和测量客户端延迟。每个连接一个线程，按收到的顺序逐行响应，
+ * 与票源系统约定的流水线语义一致。可通过系统属性 ticket.source.stub.delay.micros 为每个请求加上固定处理延迟。
+ *
+ * 单独运行：java ticket_system.service.TicketSourceStub [端口，默认 9999]
+ */
+public class TicketSourceStub {
+    private final int port;
+    private final long delayNanos = Long.getLong("ticket.source.stub.delay.micros", 0) * 1000;
+    private final Map<String, Integer> inventory = new ConcurrentHashMap<>(); // 车次|座位类型 -> 余票
+    private volatile ServerSocket serverSocket;
+
+    public TicketSourceStub(int port) {
+        this.port = port;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 9999;
+        TicketSourceStub stub = new TicketSourceStub(port);
+        stub.start();
+        System.out.println("票源系统桩已启动，监听端口: " + stub.getPort());
+    }
+
+    /**
+     * 开始监听（端口为 0 时由系统分配，通过 getPort 获取）
+     */
+    public void start() throws IOException {
+        serverSocket = new ServerSocket(port);
+        Thread acceptor = new Thread(this::acceptLoop, "TicketSourceStub-Accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public void stop() {
+        try {
+            serverSocket.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void acceptLoop() {
+        try {
+            while (true) {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                Thread handler = new Thread(() -> serve(socket), "TicketSourceStub-" + socket.getPort());
+                handler.setDaemon(true);
+                handler.start();
+            }
+        } catch (IOException e) {
+            // 已停止
+        }
+    }
+
+    /**
+     * 逐行处理请求；批量到达的请求处理完后一次刷出响应
+     */
+    private void serve(Socket socket) {
+        try (Socket s = socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+             BufferedWriter out = new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                out.write(handle(line));
+                out.write('\n');
+                if (!in.ready()) {
+                    out.flush();
+                }
+            }
+        } catch (IOException e) {
+            // 客户端断开
+        }
+    }
+
+    String handle(String message) {
+        if (delayNanos > 0) {
+            long deadline = System.nanoTime() + delayNanos;
+            while (System.nanoTime() < deadline) {
+                Thread.onSpinWait();
+            }
+        }
+        String[] parts = message.split("\\|", 3);
+        if (parts.length < 3) {
+            return "ERROR|消息格式错误，需要：clientNo|msgType|msgPayload";
+        }
+        String[] fields = parts[2].split("\\|");
+        try {
+            switch (parts[1]) {
+                case "200":
+                    return "SUCCESS|" + inventory;
+                case "201":
+                    return "SUCCESS|车次添加成功：" + fields[0];
+                case "202":
+                    if (fields.length != 3) {
+                        return "ERROR|格式错误，需要：车次号|座位类型|数量";
+                    }
+                    inventory.merge(key(fields[0], fields[1]), Integer.parseInt(fields[2]), Integer::sum);
+                    return "SUCCESS|余票增加成功";
+                case "203": {
+                    if (fields.length != 3) {
+                        return "ERROR|格式错误，需要：车次号|座位类型|数量";
+                    }
+                    int count = Integer.parseInt(fields[2]);
+                    boolean[] locked = new boolean[1];
+                    inventory.computeIfPresent(key(fields[0], fields[1]), (k, left) -> {
+                        locked[0] = left >= count;
+                        return locked[0] ? left - count : left;
+                    });
+                    return locked[0] ? "SUCCESS|锁定成功" : "ERROR|余票不足";
+                }
+                case "204":
+                    if (fields.length != 3) {
+                        return "ERROR|格式错误，需要：车次号|座位类型|数量";
+                    }
+                    inventory.merge(key(fields[0], fields[1]), Integer.parseInt(fields[2]), Integer::sum);
+                    return "SUCCESS|释放成功";
+                case "205":
+                    if (fields.length != 2) {
+                        return "ERROR|格式错误，需要：车次号|座位类型";
+                    }
+                    return "SUCCESS|" + inventory.getOrDefault(key(fields[0], fields[1]), 0);
+                case "207":
+                    return "SUCCESS|系统状态:READY";
+                default:
+                    return "ERROR|不支持的消息类型: " + parts[1];
+            }
+        } catch (NumberFormatException e) {
+            return "ERROR|格式错误，数量必须是整数";
+        }
+    }
+
+    private static String key(String trainNumber, String seatType) {
+        return trainNumber + "|" + seatType;
+    }
+}
@@ -1,16 +1,78 @@
 package ticket_system.service;
 
+import ticket_system.entity.Order;
+import ticket_system.entity.OrderStatus;
+import ticket_system.entity.SeatCalendar;
 import ticket_system.entity.Train;
+import ticket_system.util.WriteAheadLog;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 import java.util.Map;
 
 public class TrainService {
     private static TrainService instance;
     private Map<String, Train> trainMap;
+    // 站点对索引："上车站|下车站" -> 按车次号排序的车次数组，新增车次时整体替换数组（写时复制）
+    private final ConcurrentHashMap<String, String[]> routeIndex = new ConcurrentHashMap<>();
+    // 车站 -> 停靠该站的车次（按车次号排序），中转查询的邻接关系
+    private final ConcurrentHashMap<String, String[]> stationIndex = new ConcurrentHashMap<>();
+    private final RoutePlanner routePlanner = new RoutePlanner(this);
+    private static final String[] NO_TRAINS = new String[0];
+    // 库存版本号：任何车次或余票变化都会递增，客户端据此判断是否需要刷新
+    // 只在 versionLock 内写入，且在变化的车次打好版本号之后才发布，读者无锁读取
+    private final AtomicLong inventoryVersion = new AtomicLong();
+    private final ReentrantLock versionLock = new ReentrantLock();
+    private volatile TrainListSnapshot listSnapshot = new TrainListSnapshot(-1, -1, "SUCCESS|", null);
+    private volatile TrainListSnapshot deltaSnapshot = new TrainListSnapshot(-1, -1, "", null);
+    private final InventoryPublisher inventoryPublisher = new InventoryPublisher(this);
+
+    // 预写日志记录类型；LOCK/RELEASE 只出现在旧版本写入的日志中，座位占用改由订单记录恢复
+    // SEATS 记录加票后的总座位数，重复回放结果不变；旧版本写入的 ADD_TICKETS 记录增量，仍按增量回放
+    private static final String LOG_ADD_TRAIN = "ADD_TRAIN";
+    private static final String LOG_SEATS = "SEATS";
+    private static final String LOG_ADD_TICKETS = "ADD_TICKETS";
+    private static final String LOG_LOCK = "LOCK";
+    private static final String LOG_RELEASE = "RELEASE";
+    private final WriteAheadLog journal;
+    // 车次的新增、加票、跨天推进都在车次所属分片上执行；singleWriter 时座位图只由分片修改，不加锁
+    private final ShardedEngine engine;
+    private final boolean singleWriter;
+    // 预售期第一天（epochDay），由 DayRollover 线程在零点推进所有车次的座位日历，请求线程只读取
+    private volatile long currentDay = SeatCalendar.today();
+    private final ScheduledExecutorService dayRollover = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "DayRollover");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // 车次号集合和售罄位图，接入层据此在解析消息前直接拒绝必然失败的购票请求
+    private final SoldOutFilter soldOutFilter = new SoldOutFilter(currentDay);
 
     private TrainService() {
         this.trainMap = new ConcurrentHashMap<>();
-        initializeSampleData();
+        this.journal = WriteAheadLog.getInstance();
+        this.engine = ShardedEngine.getInstance();
+        this.singleWriter = engine.ownsSeatMaps();
+        if (journal.hasRecords()) {
+            replayJournal();
+        } else {
+            initializeSampleData();
+        }
+        journal.addSnapshotSource(this::writeSnapshot);
+        scheduleDayRollover();
     }
 
     public static synchronized TrainService getInstance() {
@@ -21,28 +83,178 @@ public class TrainService {
     }
 
     /**
-     * 初始化示例数据
+     * 初始化示例数据（首次启动、日志为空时），同样写入日志
+     * 在构造过程中直接执行，不经过分片：此时还没有其他线程能访问这些车次
      */
     private void initializeSampleData() {
         // 添加示例车次 - 只有一等座和二等座
-        Train train1 = new Train("G1001", "北京", "上海");
-        train1.addSeatInventory("二等座", 200);
-        train1.addSeatInventory("一等座", 100);
-        trainMap.put("G1001", train1);
+        doAddTrain("G1001|北京|上海|济南西,南京南");
+        doAddTickets("G1001|二等座|200");
+        doAddTickets("G1001|一等座|100");
 
-        Train train2 = new Train("G1002", "北京", "上海");
-        train2.addSeatInventory("二等座", 180);
-        train2.addSeatInventory("一等座", 80);
-        trainMap.put("G1002", train2);
+        doAddTrain("G1002|北京|上海|天津南,济南西,徐州东,南京南");
+        doAddTickets("G1002|二等座|180");
+        doAddTickets("G1002|一等座|80");
 
-        Train train3 = new Train("G2001", "北京", "广州");
-        train3.addSeatInventory("二等座", 150);
-        train3.addSeatInventory("一等座", 60);
-        trainMap.put("G2001", train3);
+        doAddTrain("G2001|北京|广州|石家庄,郑州东,武汉,长沙南");
+        doAddTickets("G2001|二等座|150");
+        doAddTickets("G2001|一等座|60");
 
         System.out.println("初始化车次数据完成，共 " + trainMap.size() + " 个车次");
     }
 
+    /**
+     * 从预写日志恢复车次和座位容量：按顺序重放每一次变更
+     * 座位占用随后由 OrderService 按仍有效的订单恢复（见 restoreOccupancy）
+     */
+    private void replayJournal() {
+        int[] count = new int[1];
+        journal.replay(record -> {
+            if (applyJournalRecord(record)) {
+                count[0]++;
+            }
+        });
+        for (Train train : trainMap.values()) {
+            markModified(train);
+        }
+        System.out.println("从预写日志恢复车次数据完成，重放 " + count[0] + " 条记录，共 " + trainMap.size() + " 个车次");
+    }
+
+    /**
+     * 重放一条日志记录，不再写日志；与车次无关的记录直接忽略
+     * 旧日志中的锁定/释放记录也忽略：它们的先后顺序与座位图上的实际先后不一定一致
+     *（释放先改座位图后写日志，其间另一订单可能已占用同一座位），按顺序重放会把仍被占用的座位算作空闲
+     */
+    private boolean applyJournalRecord(String record) {
+        String[] parts = record.split("\\|");
+        try {
+            switch (parts[0]) {
+                case LOG_ADD_TRAIN:
+                    putTrain(new Train(parts[1], buildStops(parts[2], parts[3], parts.length > 4 ? parts[4] : ""), singleWriter));
+                    return true;
+                case LOG_SEATS:
+                    trainMap.get(parts[1]).ensureSeatCapacity(parts[2], Integer.parseInt(parts[3]));
+                    return true;
+                case LOG_ADD_TICKETS:
+                    trainMap.get(parts[1]).addSeats(parts[2], Integer.parseInt(parts[3]));
+                    return true;
+                case LOG_LOCK:
+                case LOG_RELEASE:
+                    return false;
+                default:
+                    return false;
+            }
+        } catch (RuntimeException e) {
+            System.out.println("忽略无法重放的日志记录: " + record);
+            return false;
+        }
+    }
+
+    /**
+     * 检查点：把当前全部车次和各座位类型的座位数写成日志记录，回放结果与重放完整历史相同
+     */
+    private void writeSnapshot(Consumer<String> out) {
+        for (Train train : trainMap.values()) {
+            out.accept(trainRecord(train));
+            for (String seatType : train.getSeatTypes()) {
+                out.accept(seatsRecord(train.getTrainNumber(), seatType, train.getSeatCapacity(seatType)));
+            }
+        }
+    }
+
+    private static String trainRecord(Train train) {
+        List<String> stops = train.getStops();
+        return LOG_ADD_TRAIN + "|" + train.getTrainNumber() + "|" + train.getDeparture() + "|" +
+                train.getDestination() + "|" + String.join(",", stops.subList(1, stops.size() - 1));
+    }
+
+    private static String seatsRecord(String trainNumber, String seatType, int total) {
+        return LOG_SEATS + "|" + trainNumber + "|" + seatType + "|" + total;
+    }
+
+    /**
+     * 恢复时按仍有效（待支付、已支付）的订单重新占用座位，在 OrderService 回放完订单后调用
+     * 座位归属只由订单的最终状态决定，与日志记录的先后顺序无关：一个座位先随订单 A 取消释放、
+     * 再分配给订单 B，无论两条记录以什么顺序落盘，恢复后都只属于 B
+     * @return 恢复了座位的订单数（乘车日期已过的订单不再占座）
+     */
+    int restoreOccupancy(Collection<Order> liveOrders) {
+        Set<Train> touched = new HashSet<>();
+        int restored = 0;
+        for (Order order : liveOrders) {
+            if (order.getStatus() != OrderStatus.PENDING_PAYMENT && order.getStatus() != OrderStatus.PAID) {
+                continue; // 已不再有效（如已超时），不再占座
+            }
+            Train train = trainMap.get(order.getTrainNumber());
+            int[] range = train == null ? null : resolveRange(train, order);
+            if (range == null) {
+                System.out.println("订单的车次或乘车区间已不存在，不恢复座位: " + order.getOrderId());
+                continue;
+            }
+            long day = order.getTravelDate() == null ? currentDay : order.getTravelDate().toEpochDay();
+            if (train.occupySeats(order.getSeatType(), day, order.getSeats(), range[0], range[1])) {
+                touched.add(train);
+                restored++;
+            }
+        }
+        for (Train train : touched) {
+            markModified(train);
+        }
+        return restored;
+    }
+
+    /**
+     * 在下一个零点推进预售期；最多等待一分钟就重新检查一次，系统时间被调整时也不会错过跨天
+     */
+    private void scheduleDayRollover() {
+        long delay = Math.min(SeatCalendar.millisUntilTomorrow(), 60_000);
+        dayRollover.schedule(() -> {
+            try {
+                rollover();
+            } catch (RuntimeException e) {
+                System.out.println("推进预售期失败: " + e.getMessage());
+            } finally {
+                scheduleDayRollover();
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 跨天：推进所有车次的预售期，并让车次列表缓存失效；由 DayRollover 线程发起，各车次在所属分片上推进，不阻塞请求线程
+     * 先推进 currentDay，之后的请求立即拒绝已过期的日期；新开售日期在对应车次推进完成后才可购买
+     */
+    private void rollover() {
+        long today = SeatCalendar.today();
+        if (today <= currentDay) {
+            return;
+        }
+        currentDay = today;
+        soldOutFilter.setFirstDay(today);
+        for (Train train : trainMap.values()) {
+            engine.execute(train.getTrainNumber(), () -> {
+                train.rollTo(today);
+                markModified(train);
+            });
+        }
+        System.out.println("预售期已推进: " + LocalDate.ofEpochDay(today) + " 至 " +
+                LocalDate.ofEpochDay(today + SeatCalendar.PRESALE_DAYS - 1));
+    }
+
+    /**
+     * 按运行顺序组装停靠站：出发站、经停站（逗号分隔，可为空）、到达站
+     */
+    private static List<String> buildStops(String departure, String destination, String via) {
+        List<String> stops = new ArrayList<>();
+        stops.add(departure);
+        for (String station : via.split(",")) {
+            if (!station.trim().isEmpty()) {
+                stops.add(station.trim());
+            }
+        }
+        stops.add(destination);
+        return stops;
+    }
+
     /**
      * 刷新数据 - 重新加载数据
      */
@@ -54,13 +266,103 @@ public class TrainService {
 
     /**
      * 获取所有车次信息（JSON格式）
+     * 库存版本号未变化时直接返回上次生成的结果；有变化时只重新序列化发生变化的车次
      */
     public String getAllTrainsJson() {
+        return currentList().json;
+    }
+
+    /**
+     * 200 的完整响应（SUCCESS|车次列表）的 UTF-8 编码，与 getAllTrainsJson 共用同一份缓存，
+     * 版本未变化时直接返回同一个数组，不再重新序列化和编码；调用方不得修改
+     */
+    public byte[] getAllTrainsReply() {
+        return currentList().reply();
+    }
+
+    private TrainListSnapshot currentList() {
+        long version = inventoryVersion.get();
+        TrainListSnapshot snapshot = listSnapshot;
+        if (snapshot.toVersion == version) {
+            return snapshot;
+        }
+        snapshot = new TrainListSnapshot(-1, version, "SUCCESS|", buildTrainsJson(-1));
+        listSnapshot = snapshot;
+        return snapshot;
+    }
+
+    /**
+     * 按客户端持有的版本号返回车次信息
+     * 版本相同返回 NOT_MODIFIED|版本号；客户端版本有效时返回 DELTA|版本号|变化的车次；
+     * 否则返回 FULL|版本号|全部车次
+     */
+    public String getTrainsSince(long clientVersion) {
+        long version = inventoryVersion.get();
+        if (clientVersion == version) {
+            return "NOT_MODIFIED|" + version;
+        }
+        if (clientVersion <= 0 || clientVersion > version) {
+            return "FULL|" + version + "|" + getAllTrainsJson();
+        }
+        TrainListSnapshot delta = currentDelta(clientVersion, version);
+        return delta.head + delta.json;
+    }
+
+    /**
+     * getTrainsSince 响应的 UTF-8 编码；增量响应与 getTrainsSince 共用同一份缓存，调用方不得修改
+     */
+    public byte[] getTrainsSinceReply(long clientVersion) {
+        long version = inventoryVersion.get();
+        if (clientVersion > 0 && clientVersion < version) {
+            return currentDelta(clientVersion, version).reply();
+        }
+        return getTrainsSince(clientVersion).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 同一时刻大量客户端持有相同的旧版本，复用上一次计算的增量
+     */
+    private TrainListSnapshot currentDelta(long clientVersion, long version) {
+        TrainListSnapshot delta = deltaSnapshot;
+        if (delta.fromVersion == clientVersion && delta.toVersion == version) {
+            return delta;
+        }
+        delta = new TrainListSnapshot(clientVersion, version, "DELTA|" + version + "|", buildTrainsJson(clientVersion));
+        deltaSnapshot = delta;
+        return delta;
+    }
+
+    /**
+     * 获取当前库存版本号：不大于它的变更都已打好版本号，并已通知库存推送
+     */
+    public long getInventoryVersion() {
+        return inventoryVersion.get();
+    }
+
+    /**
+     * 订阅库存推送（215），target 为订阅者的连接，断线时用它取消订阅
+     * @param clientVersion 客户端已有的车次列表版本号，订阅后先推送该版本之后的变化作为基线
+     */
+    public String subscribeInventory(PushTarget target, long clientVersion) {
+        return inventoryPublisher.subscribe(target, clientVersion);
+    }
+
+    public void unsubscribeInventory(PushTarget target) {
+        inventoryPublisher.unsubscribe(target);
+    }
+
+    /**
+     * 拼接版本号大于 sinceVersion 的车次 JSON（每个车次的 JSON 自带缓存）
+     */
+    private String buildTrainsJson(long sinceVersion) {
         StringBuilder sb = new StringBuilder();
         sb.append("[");
 
         boolean first = true;
         for (Train train : trainMap.values()) {
+            if (train.getVersion() <= sinceVersion) {
+                continue;
+            }
             if (!first) sb.append(",");
             sb.append(train.toJson());
             first = false;
@@ -71,13 +373,52 @@ public class TrainService {
     }
 
     /**
-     * 新增车次
+     * 记录车次某一席别、某一天的库存变更（购票、退票，在库存修改完成之后调用）
+     * 售罄位图只重新计算这一位，且在全局锁之外完成
+     */
+    private void markModified(Train train, String seatType, long epochDay) {
+        soldOutFilter.refresh(train, seatType, epochDay);
+        stampVersion(train);
+    }
+
+    /**
+     * 记录车次变更（新增车次、加票、跨天等，在库存修改完成之后调用），重新计算该车次全部售罄位
+     */
+    private void markModified(Train train) {
+        soldOutFilter.refresh(train);
+        stampVersion(train);
+    }
+
+    /**
+     * 先给车次打上新版本号，最后才发布全局版本号：读者无锁读到版本 v 时，所有不大于 v 的变更都已打好版本号，
+     * 尚未发布的变更将来一定大于 v，会出现在下一次增量中。临界区内只有这两次写入。
+     * 推送的变化标记在打版本号之前记录：推送线程先读版本号再取走标记，不大于该版本的变化一定已被标记。
+     */
+    private void stampVersion(Train train) {
+        inventoryPublisher.markDirty(train.getTrainNumber());
+        versionLock.lock();
+        try {
+            long version = inventoryVersion.get() + 1;
+            train.markModified(version);
+            inventoryVersion.set(version);
+        } finally {
+            versionLock.unlock();
+        }
+    }
+
+    /**
+     * 新增车次，在车次所属分片上执行
+     * 格式：车次号|出发站|到达站，或 车次号|出发站|到达站|经停站1,经停站2,...
      */
     public String addTrain(String trainInfo) {
+        return engine.call(trainNumberOf(trainInfo), () -> doAddTrain(trainInfo));
+    }
+
+    private String doAddTrain(String trainInfo) {
         try {
             String[] parts = trainInfo.split("\\|");
-            if (parts.length != 3) {
-                return "ERROR|车次信息格式错误，需要：车次号|出发站|到达站";
+            if (parts.length != 3 && parts.length != 4) {
+                return "ERROR|车次信息格式错误，需要：车次号|出发站|到达站[|经停站1,经停站2]";
             }
 
             String trainNumber = parts[0];
@@ -85,8 +426,17 @@ public class TrainService {
                 return "ERROR|车次已存在：" + trainNumber;
             }
 
-            Train train = new Train(trainNumber, parts[1], parts[2]);
-            trainMap.put(trainNumber, train);
+            String via = parts.length == 4 ? parts[3] : "";
+            List<String> stops = buildStops(parts[1], parts[2], via);
+            if (new HashSet<>(stops).size() != stops.size()) {
+                return "ERROR|停靠站重复：" + stops;
+            }
+            Train train = new Train(trainNumber, stops, singleWriter);
+            if (!putTrain(train)) {
+                return "ERROR|车次已存在：" + trainNumber;
+            }
+            markModified(train);
+            journal.append(trainRecord(train));
 
             return "SUCCESS|车次添加成功：" + trainNumber;
         } catch (Exception e) {
@@ -95,9 +445,131 @@ public class TrainService {
     }
 
     /**
-     * 给车次增加余票
+     * 登记车次并把它加入站点对索引：停靠站中任意一对（前站, 后站）都能查到该车次
+     * @return 车次号已存在时返回 false
+     */
+    private boolean putTrain(Train train) {
+        if (trainMap.putIfAbsent(train.getTrainNumber(), train) != null) {
+            return false;
+        }
+        String trainNumber = train.getTrainNumber();
+        soldOutFilter.addTrain(trainNumber);
+        List<String> stops = train.getStops();
+        for (int i = 0; i < stops.size(); i++) {
+            stationIndex.compute(stops.get(i), (key, trains) -> insertSorted(trains, trainNumber));
+            for (int j = i + 1; j < stops.size(); j++) {
+                routeIndex.compute(stops.get(i) + "|" + stops.get(j), (key, trains) -> insertSorted(trains, trainNumber));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 返回插入车次号后的新有序数组（原数组不变，供读者无锁读取）
+     */
+    private static String[] insertSorted(String[] trains, String trainNumber) {
+        if (trains == null) {
+            return new String[]{trainNumber};
+        }
+        int position = -Arrays.binarySearch(trains, trainNumber) - 1;
+        String[] grown = new String[trains.length + 1];
+        System.arraycopy(trains, 0, grown, 0, position);
+        grown[position] = trainNumber;
+        System.arraycopy(trains, position, grown, position + 1, trains.length - position);
+        return grown;
+    }
+
+    /**
+     * 停靠某站的所有车次（按车次号排序，调用方不得修改）
+     */
+    String[] trainsAt(String station) {
+        return stationIndex.getOrDefault(station, NO_TRAINS);
+    }
+
+    /**
+     * 先后经过 from、to 两站的车次（按车次号排序，调用方不得修改）
+     */
+    String[] trainsBetween(String from, String to) {
+        return routeIndex.getOrDefault(from + "|" + to, NO_TRAINS);
+    }
+
+    /**
+     * 中转方案查询（一次或两次中转），结果按库存版本号缓存
+     * @param date 乘车日期，null 表示当天
+     * @param maxTransfers 最多中转次数，1 或 2
+     */
+    public String queryTransfers(String from, String to, LocalDate date, int maxTransfers) {
+        long day = date == null ? currentDay : date.toEpochDay();
+        if (day < currentDay || day >= currentDay + SeatCalendar.PRESALE_DAYS) {
+            return presaleError();
+        }
+        if (from.equals(to)) {
+            return "ERROR|出发站与到达站相同";
+        }
+        return routePlanner.search(from, to, day, Math.max(1, Math.min(2, maxTransfers)), inventoryVersion.get());
+    }
+
+    private String presaleError() {
+        return "ERROR|乘车日期不在预售期内：" + LocalDate.ofEpochDay(currentDay) + " 至 " +
+                LocalDate.ofEpochDay(currentDay + SeatCalendar.PRESALE_DAYS - 1);
+    }
+
+    /**
+     * 按上车站、下车站查询车次，只返回经过这两站（且先到上车站）的车次及其在该区间、该日期的余票
+     * 通过站点对索引直接定位车次，耗时与结果数量成正比，与车次总数无关
+     * @param date 乘车日期，null 表示当天
+     */
+    public String queryRoute(String from, String to, LocalDate date) {
+        long day = date == null ? currentDay : date.toEpochDay();
+        if (day < currentDay || day >= currentDay + SeatCalendar.PRESALE_DAYS) {
+            return presaleError();
+        }
+        String travelDate = LocalDate.ofEpochDay(day).toString();
+
+        StringBuilder sb = new StringBuilder("SUCCESS|[");
+        boolean first = true;
+        for (String trainNumber : trainsBetween(from, to)) {
+            Train train = trainMap.get(trainNumber);
+            int fromIndex = train.stopIndex(from);
+            int toIndex = train.stopIndex(to);
+            if (!first) sb.append(",");
+            sb.append("{\"trainNumber\":\"").append(trainNumber).append("\",");
+            sb.append("\"from\":\"").append(from).append("\",");
+            sb.append("\"to\":\"").append(to).append("\",");
+            sb.append("\"date\":\"").append(travelDate).append("\",");
+            sb.append("\"seatInventory\":{");
+            boolean firstType = true;
+            for (String seatType : train.getSeatTypes()) {
+                if (!firstType) sb.append(",");
+                sb.append("\"").append(seatType).append("\":")
+                        .append(train.getSeatInventory(seatType, day, fromIndex, toIndex));
+                firstType = false;
+            }
+            sb.append("}}");
+            first = false;
+        }
+        return sb.append("]").toString();
+    }
+
+    /**
+     * 给车次增加余票，在车次所属分片上执行
      */
     public String addTickets(String ticketInfo) {
+        return engine.call(trainNumberOf(ticketInfo), () -> doAddTickets(ticketInfo));
+    }
+
+    /**
+     * 管理消息中的车次号（第一个字段），用于选择分片；格式错误时由各自的处理方法返回错误
+     */
+    private static String trainNumberOf(String info) {
+        if (info == null) {
+            return null;
+        }
+        int end = info.indexOf('|');
+        return end < 0 ? info : info.substring(0, end);
+    }
+
+    private String doAddTickets(String ticketInfo) {
         try {
             String[] parts = ticketInfo.split("\\|");
             if (parts.length != 3) {
@@ -121,7 +593,10 @@ public class TrainService {
                 return "ERROR|数量必须大于0";
             }
 
-            train.addSeatInventory(seatType, quantity);
+            int total = train.addSeats(seatType, quantity);
+            markModified(train);
+            journal.append(seatsRecord(trainNumber, seatType, total));
+            WaitlistService.getInstance().onSeatsReleased(trainNumber, seatType, -1);
 
             return "SUCCESS|余票添加成功：" + trainNumber + " " + seatType + " " + quantity + "张";
         } catch (NumberFormatException e) {
@@ -131,6 +606,13 @@ public class TrainService {
         }
     }
 
+    /**
+     * 售罄快速拒绝表
+     */
+    public SoldOutFilter getSoldOutFilter() {
+        return soldOutFilter;
+    }
+
     /**
      * 根据车次号获取车次信息
      */
@@ -146,37 +628,139 @@ public class TrainService {
     }
 
     /**
-     * 锁定票源
+     * 锁定票源：为订单分配具体座位，座位编号写入订单
      */
-    public String lockTickets(String trainNumber, String seatType, int quantity) {
+    public String lockTickets(Order order) {
         try {
-            Train train = trainMap.get(trainNumber);
-            if (train == null) {
-                return "ERROR|车次不存在：" + trainNumber;
+            Train train = trainMap.get(order.getTrainNumber());
+            String error = checkLock(train, order);
+            if (error != null) {
+                return error;
             }
+            int[] range = resolveRange(train, order);
+            long day = order.getTravelDate().toEpochDay();
 
-            if (!"一等座".equals(seatType) && !"二等座".equals(seatType)) {
-                return "ERROR|不支持的座位类型，只支持：一等座、二等座";
+            // 锁定票源（在当天的座位图中选出区间内空闲的座位并占用，在车厢锁内一次完成，避免超卖）
+            int[] seats = train.allocateSeats(order.getSeatType(), day, order.getPassengerCount(), range[0], range[1]);
+            if (seats == null) {
+                return "ERROR|余票不足，需要：" + order.getPassengerCount();
+            }
+            markModified(train, order.getSeatType(), day);
+            return onLocked(order, seats);
+        } catch (Exception e) {
+            return "ERROR|锁定票源失败：" + e.getMessage();
+        }
+    }
+
+    /**
+     * 批量锁定票源：车次、席别、日期、区间都相同的订单合为一组，每组只遍历一次座位图、只更新一次库存版本
+     * 组内按订单顺序分配，与逐个调用 lockTickets 的先后顺序一致
+     * @return 与 orders 一一对应的锁定结果
+     */
+    public String[] lockTicketsBatch(List<Order> orders) {
+        String[] results = new String[orders.size()];
+        Map<String, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < orders.size(); i++) {
+            Order order = orders.get(i);
+            try {
+                Train train = trainMap.get(order.getTrainNumber());
+                String error = checkLock(train, order);
+                if (error != null) {
+                    results[i] = error;
+                    continue;
+                }
+                int[] range = resolveRange(train, order);
+                String key = order.getTrainNumber() + "|" + order.getSeatType() + "|" +
+                        order.getTravelDate().toEpochDay() + "|" + range[0] + "|" + range[1];
+                groups.computeIfAbsent(key, k -> new ArrayList<>()).add(i);
+            } catch (Exception e) {
+                results[i] = "ERROR|锁定票源失败：" + e.getMessage();
             }
+        }
 
-            int available = train.getSeatInventory(seatType);
-            if (available < quantity) {
-                return "ERROR|余票不足，需要：" + quantity + "，可用：" + available;
+        for (List<Integer> group : groups.values()) {
+            Order head = orders.get(group.get(0));
+            try {
+                Train train = trainMap.get(head.getTrainNumber());
+                int[] range = resolveRange(train, head);
+                long day = head.getTravelDate().toEpochDay();
+                int[] quantities = new int[group.size()];
+                for (int k = 0; k < quantities.length; k++) {
+                    quantities[k] = orders.get(group.get(k)).getPassengerCount();
+                }
+                int[][] seats = train.allocateSeatsBatch(head.getSeatType(), day, quantities, range[0], range[1]);
+                for (int k = 0; k < quantities.length; k++) {
+                    int i = group.get(k);
+                    if (seats == null || seats[k] == null) {
+                        results[i] = "ERROR|余票不足，需要：" + quantities[k];
+                    } else {
+                        results[i] = onLocked(orders.get(i), seats[k]);
+                    }
+                }
+                markModified(train, head.getSeatType(), day);
+            } catch (Exception e) {
+                for (int i : group) {
+                    if (results[i] == null) {
+                        results[i] = "ERROR|锁定票源失败：" + e.getMessage();
+                    }
+                }
             }
+        }
+        return results;
+    }
 
-            // 锁定票源（减少库存）
-            train.addSeatInventory(seatType, -quantity);
+    /**
+     * 锁票前的检查：车次、席别、人数、乘车区间和预售期；未指定乘车日期的订单按当天处理
+     * @return 错误响应；检查通过返回 null
+     */
+    private String checkLock(Train train, Order order) {
+        if (train == null) {
+            return "ERROR|车次不存在：" + order.getTrainNumber();
+        }
 
-            return "SUCCESS|票源锁定成功：" + trainNumber + " " + seatType + " " + quantity + "张";
-        } catch (Exception e) {
-            return "ERROR|锁定票源失败：" + e.getMessage();
+        String seatType = order.getSeatType();
+        if (!"一等座".equals(seatType) && !"二等座".equals(seatType)) {
+            return "ERROR|不支持的座位类型，只支持：一等座、二等座";
+        }
+
+        if (order.getPassengerCount() <= 0) {
+            return "ERROR|数量必须大于0";
+        }
+
+        if (resolveRange(train, order) == null) {
+            return "ERROR|乘车区间不正确：" + order.getFromStation() + "-" + order.getToStation();
         }
+
+        if (order.getTravelDate() == null) {
+            order.setTravelDate(LocalDate.ofEpochDay(currentDay));
+        }
+        long day = order.getTravelDate().toEpochDay();
+        // 零点之后、车次推进之前，座位图里还有昨天的日期，这里先按 currentDay 拒绝
+        if (day < currentDay || train.getSeatMap(seatType, day) == null) {
+            return "ERROR|乘车日期不在预售期内：" + LocalDate.ofEpochDay(train.getFirstSaleDay()) + " 至 " +
+                    LocalDate.ofEpochDay(train.getFirstSaleDay() + SeatCalendar.PRESALE_DAYS - 1);
+        }
+        return null;
     }
 
     /**
-     * 释放票源
+     * 座位已占用：写入订单
+     * 占座不单独写日志：随后的订单记录带有座位、区间和日期，恢复时据此重新占座，
+     * 锁票后、建单前崩溃的座位在恢复后自然空闲，不会泄漏
      */
-    public String releaseTickets(String trainNumber, String seatType, int quantity) {
+    private String onLocked(Order order, int[] seats) {
+        order.setSeats(seats);
+        return "SUCCESS|票源锁定成功：" + order.getTrainNumber() + " " + order.getSeatType() + " " + order.getSeatNumbers();
+    }
+
+    /**
+     * 释放票源：归还订单占用的座位
+     * 释放不单独写日志：订单的状态记录（已取消、已超时）已表示座位归还，恢复时只为有效订单占座
+     */
+    public String releaseTickets(Order order) {
+        String trainNumber = order.getTrainNumber();
+        String seatType = order.getSeatType();
+        int[] seats = order.getSeats();
         try {
             Train train = trainMap.get(trainNumber);
             if (train == null) {
@@ -187,12 +771,64 @@ public class TrainService {
                 return "ERROR|不支持的座位类型，只支持：一等座、二等座";
             }
 
-            // 释放票源（增加库存）
-            train.addSeatInventory(seatType, quantity);
+            int[] range = resolveRange(train, order);
+            if (range == null) {
+                return "ERROR|乘车区间不正确：" + order.getFromStation() + "-" + order.getToStation();
+            }
+
+            // 释放票源（归还座位在乘车区间内的占用）；乘车日期已过期时座位图已下架，无需释放
+            long day = order.getTravelDate() == null ? currentDay : order.getTravelDate().toEpochDay();
+            if (!train.releaseSeats(seatType, day, seats, range[0], range[1])) {
+                return "SUCCESS|乘车日期已过，无需释放票源：" + trainNumber;
+            }
+            markModified(train, seatType, day);
+            // 释放的座位优先兑现给候补者
+            WaitlistService.getInstance().onSeatsReleased(trainNumber, seatType, day);
 
-            return "SUCCESS|票源释放成功：" + trainNumber + " " + seatType + " " + quantity + "张";
+            return "SUCCESS|票源释放成功：" + trainNumber + " " + seatType + " " + seats.length + "张";
         } catch (Exception e) {
             return "ERROR|释放票源失败：" + e.getMessage();
         }
     }
+
+    /**
+     * 把订单的上车站/下车站换算为站序号区间 [from, to)，未指定时为始发站/终点站
+     * @return {from, to}；车站不在停靠站中或顺序颠倒时返回 null
+     */
+    private static int[] resolveRange(Train train, Order order) {
+        int from = order.getFromStation() == null ? 0 : train.stopIndex(order.getFromStation());
+        int to = order.getToStation() == null ? train.getSegmentCount() : train.stopIndex(order.getToStation());
+        if (from < 0 || to < 0 || from >= to) {
+            return null;
+        }
+        return new int[]{from, to};
+    }
+
+    /**
+     * 车次列表序列化结果及其对应的版本区间
+     */
+    private static final class TrainListSnapshot {
+        private final long fromVersion;
+        private final long toVersion;
+        private final String head; // 响应头，如 SUCCESS|、DELTA|12|
+        private final String json;
+        private volatile byte[] reply; // head + json 的 UTF-8 编码，第一次按字节发送时生成
+
+        private TrainListSnapshot(long fromVersion, long toVersion, String head, String json) {
+            this.fromVersion = fromVersion;
+            this.toVersion = toVersion;
+            this.head = head;
+            this.json = json;
+        }
+
+        private byte[] reply() {
+            byte[] bytes = reply;
+            if (bytes == null) {
+                // 并发的首次调用可能各编码一次，结果相同，无需加锁
+                bytes = (head + json).getBytes(StandardCharsets.UTF_8);
+                reply = bytes;
+            }
+            return bytes;
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,171 @@
+package ticket_system.service;
+
+import ticket_system.entity.Order;
+import ticket_system.entity.TicketRequest;
+import ticket_system.util.IdGenerator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * 候补购票：车次售罄后终端可以加入候补，有座位释放（取消、支付超时、增加余票）时按加入顺序自动为候补者出票
+ *
+ * 每个 车次+席别 一个候补队列，按加入顺序保存候补者（乘车日期、区间、人数）。
+ * 座位释放后在释放它的同一个操作中依次尝试为同一天的候补者锁票并创建待支付订单：
+ * 人数较多的候补者暂时凑不齐座位时跳过，继续尝试后面的候补者，不阻塞人数少的请求。
+ * 出票结果以 PUSH|候补号|结果 推送给终端，终端不必轮询余票。
+ *
+ * 兑现过程在车次所属分片上执行（释放操作本身已在分片上时直接执行），与购票、取消串行。
+ * 候补队列只保存在内存中，服务重启后需要重新加入；兑现产生的订单照常写入预写日志。
+ * 每个候补队列的人数上限由系统属性 ticket.waitlist.capacity 指定（默认 1000）。
+ */
+public class WaitlistService {
+    private static WaitlistService instance;
+    private static final String ID_PREFIX = "W_";
+    private static final String SOLD_OUT = "ERROR|余票不足";
+
+    private final int capacity = Integer.getInteger("ticket.waitlist.capacity", 1000);
+    private final Map<String, Waitlist> waitlists = new ConcurrentHashMap<>(); // 车次|席别 -> 候补队列
+    private final Map<Long, Waiter> waiters = new ConcurrentHashMap<>();       // 候补号 -> 候补者
+
+    private WaitlistService() {
+    }
+
+    public static synchronized WaitlistService getInstance() {
+        if (instance == null) {
+            instance = new WaitlistService();
+        }
+        return instance;
+    }
+
+    /**
+     * 加入候补
+     * @param order 刚因余票不足而锁票失败的订单，乘车日期已确定
+     * @param notifier 兑现结果推送，为 null 时终端只能通过查询订单获知结果
+     */
+    public String join(Order order, TicketRequest request, Consumer<String> notifier) {
+        Waitlist list = waitlists.computeIfAbsent(key(order.getTrainNumber(), order.getSeatType()), k -> new Waitlist());
+        request.setTravelDate(order.getTravelDate()); // 固定乘车日期，跨天后仍按原日期兑现
+        Waiter waiter = new Waiter(IdGenerator.getInstance().nextId(), request,
+                order.getTravelDate().toEpochDay(), notifier, list);
+        int position;
+        synchronized (list) {
+            if (list.waiters.size() >= capacity) {
+                return "ERROR|候补人数已满";
+            }
+            list.waiters.put(waiter.id, waiter);
+            waiters.put(waiter.id, waiter);
+            position = list.waiters.size();
+        }
+        System.out.println("加入候补: " + waiter.getWaitlistId() + ", 车次: " + order.getTrainNumber() +
+                ", 座位: " + order.getSeatType() + ", 人数: " + order.getPassengerCount());
+        return "SUCCESS|已加入候补|候补号:" + waiter.getWaitlistId() + "|候补位置:" + position;
+    }
+
+    /**
+     * 取消候补；与兑现在同一把队列锁内判断，已兑现的候补不能再取消
+     */
+    public String cancel(String waitlistId) {
+        long id = IdGenerator.parse(ID_PREFIX, waitlistId);
+        Waiter waiter = id < 0 ? null : waiters.get(id);
+        if (waiter == null) {
+            return "ERROR|候补不存在或已兑现";
+        }
+        synchronized (waiter.list) {
+            if (waiter.list.waiters.remove(id) == null) {
+                return "ERROR|候补不存在或已兑现";
+            }
+            waiters.remove(id);
+        }
+        return "SUCCESS|候补已取消";
+    }
+
+    /**
+     * 座位释放通知：有候补者时在车次所属分片上兑现
+     * @param epochDay 释放座位的乘车日期；为 -1 表示预售期内每天都有新增座位
+     */
+    public void onSeatsReleased(String trainNumber, String seatType, long epochDay) {
+        Waitlist list = waitlists.get(key(trainNumber, seatType));
+        if (list == null || list.isEmpty()) {
+            return;
+        }
+        ShardedEngine.getInstance().execute(trainNumber, () -> fill(list, epochDay));
+    }
+
+    /**
+     * 按加入顺序为候补者锁票并创建待支付订单
+     */
+    private void fill(Waitlist list, long epochDay) {
+        TrainService trainService = TrainService.getInstance();
+        synchronized (list) {
+            Iterator<Waiter> iterator = list.waiters.values().iterator();
+            while (iterator.hasNext()) {
+                Waiter waiter = iterator.next();
+                if (epochDay >= 0 && waiter.epochDay != epochDay) {
+                    continue;
+                }
+                Order order = new Order(waiter.request);
+                String result = trainService.lockTickets(order);
+                if (result.startsWith(SOLD_OUT)) {
+                    continue;
+                }
+                iterator.remove();
+                waiters.remove(waiter.id);
+                if (result.startsWith("SUCCESS")) {
+                    result = TicketService.getInstance().createLockedOrder(order);
+                }
+                // 其他错误（如乘车日期已过预售期）不会再成功，移出候补并通知终端
+                System.out.println("候补兑现: " + waiter.getWaitlistId() + " -> " + result);
+                notify(waiter, result);
+            }
+        }
+    }
+
+    private void notify(Waiter waiter, String result) {
+        if (waiter.notifier == null) {
+            return;
+        }
+        try {
+            waiter.notifier.accept("PUSH|" + waiter.getWaitlistId() + "|" + result);
+        } catch (RuntimeException e) {
+            System.out.println("候补结果推送失败[" + waiter.getWaitlistId() + "]: " + e.getMessage());
+        }
+    }
+
+    private static String key(String trainNumber, String seatType) {
+        return trainNumber + "|" + seatType;
+    }
+
+    /**
+     * 一个 车次+席别 的候补队列，按加入顺序排列，访问时对队列对象加锁
+     */
+    private static final class Waitlist {
+        private final LinkedHashMap<Long, Waiter> waiters = new LinkedHashMap<>();
+
+        private synchronized boolean isEmpty() {
+            return waiters.isEmpty();
+        }
+    }
+
+    private static final class Waiter {
+        private final long id;
+        private final TicketRequest request;
+        private final long epochDay;
+        private final Consumer<String> notifier;
+        private final Waitlist list;
+
+        private Waiter(long id, TicketRequest request, long epochDay, Consumer<String> notifier, Waitlist list) {
+            this.id = id;
+            this.request = request;
+            this.epochDay = epochDay;
+            this.notifier = notifier;
+            this.list = list;
+        }
+
+        private String getWaitlistId() {
+            return IdGenerator.format(ID_PREFIX, id);
+        }
+    }
+}
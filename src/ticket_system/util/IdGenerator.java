@@ -0,0 +1,98 @@
+package ticket_system.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 64 位唯一 ID 生成器（Snowflake 结构）
+ *
+ * 布局：1 位符号(0) | 41 位毫秒时间（自 2024-01-01 起，约 69 年）| 10 位节点号 | 12 位序号
+ * 同一节点生成的 ID 严格递增，因此可以直接作为有序结构（如跳表）的键，按 ID 排序即按创建时间排序。
+ *
+ * 生成过程无锁：用一个 AtomicLong 保存“上次的时间和序号”，CAS 更新。
+ * 同一毫秒内序号用完（每毫秒 4096 个）或系统时钟回拨时，不等待也不报错，
+ * 而是继续在上次的时间上递增（序号进位到时间），逻辑时间暂时领先于系统时钟，直到时钟追上。
+ * 重启后“上次”从日志中已有的 ID 恢复（见 observe），重启期间时钟回拨也不会重复发出已有的 ID。
+ *
+ * 节点号由系统属性 ticket.node.id 指定（0-1023，默认 0），多个服务实例应使用不同节点号。
+ */
+public final class IdGenerator {
+    private static final long EPOCH = 1704067200000L; // 2024-01-01 00:00:00 UTC
+    private static final int NODE_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+    private static final long MAX_NODE = (1L << NODE_BITS) - 1;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    private static final IdGenerator INSTANCE =
+            new IdGenerator(Long.getLong("ticket.node.id", 0L));
+
+    private final long nodeBits;
+    // 高位为时间、低 12 位为序号，与 ID 中去掉节点号后的部分相同
+    private final AtomicLong lastState = new AtomicLong();
+
+    public IdGenerator(long nodeId) {
+        if (nodeId < 0 || nodeId > MAX_NODE) {
+            throw new IllegalArgumentException("节点号必须在 0-" + MAX_NODE + " 之间: " + nodeId);
+        }
+        this.nodeBits = nodeId << SEQUENCE_BITS;
+    }
+
+    public static IdGenerator getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * 生成下一个 ID
+     */
+    public long nextId() {
+        while (true) {
+            long last = lastState.get();
+            long now = (System.currentTimeMillis() - EPOCH) << SEQUENCE_BITS;
+            // 时钟前进则从序号 0 开始；否则（同一毫秒或时钟回拨）在上次基础上递增
+            long next = now > last ? now : last + 1;
+            if (lastState.compareAndSet(last, next)) {
+                return ((next >>> SEQUENCE_BITS) << (NODE_BITS + SEQUENCE_BITS)) | nodeBits | (next & SEQUENCE_MASK);
+            }
+        }
+    }
+
+    /**
+     * 登记一个已经发出的 ID（如从日志恢复的订单号），之后生成的 ID 的时间和序号部分都大于它
+     */
+    public void observe(long id) {
+        long state = ((id >>> (NODE_BITS + SEQUENCE_BITS)) << SEQUENCE_BITS) | (id & SEQUENCE_MASK);
+        long last;
+        while ((last = lastState.get()) < state && !lastState.compareAndSet(last, state)) {
+            // 其他线程同时推进了状态，重新比较
+        }
+    }
+
+    /**
+     * 把 ID 渲染为紧凑字符串（前缀 + 36 进制大写），仅在协议边界使用
+     */
+    public static String format(String prefix, long id) {
+        return prefix + Long.toString(id, Character.MAX_RADIX).toUpperCase();
+    }
+
+    /**
+     * 解析 format 生成的字符串
+     * @return ID；格式不正确时返回 -1
+     */
+    public static long parse(String prefix, String text) {
+        if (text == null || !text.startsWith(prefix) || text.length() == prefix.length()) {
+            return -1;
+        }
+        try {
+            long id = Long.parseLong(text.substring(prefix.length()), Character.MAX_RADIX);
+            return id < 0 ? -1 : id;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 从 ID 中取出生成时间（毫秒时间戳）
+     */
+    public static long timestampOf(long id) {
+        return (id >>> (NODE_BITS + SEQUENCE_BITS)) + EPOCH;
+    }
+}
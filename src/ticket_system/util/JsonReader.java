@@ -0,0 +1,398 @@
+package ticket_system.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 单遍扫描的轻量 JSON 对象读取器
+ *
+ * 构造时对对象做一次扫描，只记录每个字段键和值在原字符串中的位置，不创建任何中间字符串；
+ * 取值时直接在原字符串上比较键、解析数字。字符串值只在调用 getString 时截取一次，
+ * 取枚举型字段（如座位类型）可用 match 直接返回常量。
+ * 支持字段乱序、任意空白、字符串中的逗号/括号/转义字符以及嵌套对象和数组。
+ */
+public final class JsonReader {
+    private static final int SLOT = 4; // 每个字段占用：键起点、键终点、值起点、值终点
+
+    private final String json;
+    private final int from;
+    private final int to;
+    private int[] fields = new int[SLOT * 4];
+    private int fieldCount = 0;
+
+    public JsonReader(String json) {
+        this(json, 0, json == null ? 0 : json.length());
+    }
+
+    /**
+     * 读取 json 中 [from, to) 范围内的对象，不复制字符串
+     */
+    public JsonReader(String json, int from, int to) {
+        this.json = json;
+        this.from = from;
+        this.to = to;
+        if (json != null) {
+            scanObject();
+        }
+    }
+
+    /**
+     * 读取 JSON 数组中的每个对象元素
+     */
+    public static List<JsonReader> readArray(String json) {
+        List<JsonReader> result = new ArrayList<>();
+        if (json == null) {
+            return result;
+        }
+        int end = json.length();
+        int i = skipWhitespace(json, 0, end);
+        if (i >= end || json.charAt(i) != '[') {
+            return result;
+        }
+        i++;
+        while (true) {
+            i = skipWhitespace(json, i, end);
+            if (i >= end || json.charAt(i) == ']') {
+                break;
+            }
+            int valueEnd = skipValue(json, i, end);
+            if (valueEnd < 0) {
+                break;
+            }
+            if (json.charAt(i) == '{') {
+                result.add(new JsonReader(json, i, valueEnd));
+            }
+            i = skipWhitespace(json, valueEnd, end);
+            if (i >= end || json.charAt(i) != ',') {
+                break;
+            }
+            i++;
+        }
+        return result;
+    }
+
+    /**
+     * 是否包含指定字段
+     */
+    public boolean has(String key) {
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * 获取字段值：字符串去掉引号并处理转义，其他类型返回原始文本；字段不存在返回 null
+     */
+    public String getString(String key) {
+        int index = indexOf(key);
+        if (index < 0) {
+            return null;
+        }
+        int start = fields[index + 2];
+        int end = fields[index + 3];
+        if (json.charAt(start) != '"') {
+            return json.substring(start, end);
+        }
+        for (int i = start + 1; i < end - 1; i++) {
+            if (json.charAt(i) == '\\') {
+                return unescape(start + 1, end - 1);
+            }
+        }
+        return json.substring(start + 1, end - 1);
+    }
+
+    /**
+     * 把字段值与候选常量逐一比较，返回相等的那个常量，不截取字符串
+     * @return 匹配的候选常量；字段不存在或都不匹配时返回 null
+     */
+    public String match(String key, String... candidates) {
+        int index = indexOf(key);
+        if (index < 0) {
+            return null;
+        }
+        int start = fields[index + 2];
+        int end = fields[index + 3];
+        if (json.charAt(start) == '"') {
+            start++;
+            end--;
+        }
+        int length = end - start;
+        for (String candidate : candidates) {
+            if (candidate.length() == length && json.regionMatches(start, candidate, 0, length)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 在原字符串上直接解析整数字段（允许带引号的数字）
+     * @throws NumberFormatException 字段值不是整数
+     */
+    public int getInt(String key, int defaultValue) {
+        long value = getLong(key, defaultValue);
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new NumberFormatException("数值超出范围: " + key);
+        }
+        return (int) value;
+    }
+
+    /**
+     * 在原字符串上直接解析长整数字段（允许带引号的数字）
+     * @throws NumberFormatException 字段值不是整数
+     */
+    public long getLong(String key, long defaultValue) {
+        int index = indexOf(key);
+        if (index < 0) {
+            return defaultValue;
+        }
+        int start = fields[index + 2];
+        int end = fields[index + 3];
+        if (json.charAt(start) == '"') {
+            start++;
+            end--;
+        }
+        boolean negative = false;
+        if (start < end && json.charAt(start) == '-') {
+            negative = true;
+            start++;
+        }
+        if (start >= end || end - start > 18) {
+            throw new NumberFormatException("不是有效的整数: " + key);
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            char c = json.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new NumberFormatException("不是有效的整数: " + key);
+            }
+            value = value * 10 + (c - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * 获取嵌套对象字段，返回共享原字符串的读取器；字段不存在或不是对象时返回 null
+     */
+    public JsonReader getObject(String key) {
+        int index = indexOf(key);
+        if (index < 0 || json.charAt(fields[index + 2]) != '{') {
+            return null;
+        }
+        return new JsonReader(json, fields[index + 2], fields[index + 3]);
+    }
+
+    /**
+     * 获取字符串数组字段，如 ["济南西","南京南"]；字段不存在或不是数组时返回 null
+     */
+    public List<String> getStringList(String key) {
+        int index = indexOf(key);
+        if (index < 0 || json.charAt(fields[index + 2]) != '[') {
+            return null;
+        }
+        List<String> result = new ArrayList<>();
+        int end = fields[index + 3] - 1; // 结束的 ']'
+        int i = fields[index + 2] + 1;
+        while (true) {
+            i = skipWhitespace(json, i, end);
+            if (i >= end) {
+                break;
+            }
+            int valueEnd = skipValue(json, i, end);
+            if (valueEnd < 0) {
+                break;
+            }
+            int trimmed = trimEnd(i, valueEnd);
+            if (json.charAt(i) == '"') {
+                int backslash = json.indexOf('\\', i);
+                result.add(backslash >= 0 && backslash < trimmed
+                        ? unescape(i + 1, trimmed - 1) : json.substring(i + 1, trimmed - 1));
+            } else {
+                result.add(json.substring(i, trimmed));
+            }
+            i = skipWhitespace(json, valueEnd, end);
+            if (i >= end || json.charAt(i) != ',') {
+                break;
+            }
+            i++;
+        }
+        return result;
+    }
+
+    /**
+     * 字段数量
+     */
+    public int size() {
+        return fieldCount;
+    }
+
+    /**
+     * 按位置获取字段名
+     */
+    public String keyAt(int position) {
+        int index = position * SLOT;
+        return json.substring(fields[index], fields[index + 1]);
+    }
+
+    // ---------------- 扫描 ----------------
+
+    private void scanObject() {
+        int i = skipWhitespace(json, from, to);
+        if (i >= to || json.charAt(i) != '{') {
+            return;
+        }
+        i++;
+        while (true) {
+            i = skipWhitespace(json, i, to);
+            if (i >= to || json.charAt(i) != '"') {
+                return; // 对象结束或格式错误，保留已解析的字段
+            }
+            int keyEnd = skipString(json, i, to);
+            if (keyEnd < 0) {
+                return;
+            }
+            int colon = skipWhitespace(json, keyEnd, to);
+            if (colon >= to || json.charAt(colon) != ':') {
+                return;
+            }
+            int valueStart = skipWhitespace(json, colon + 1, to);
+            int valueEnd = skipValue(json, valueStart, to);
+            if (valueEnd < 0) {
+                return;
+            }
+            addField(i + 1, keyEnd - 1, valueStart, trimEnd(valueStart, valueEnd));
+
+            i = skipWhitespace(json, valueEnd, to);
+            if (i >= to || json.charAt(i) != ',') {
+                return;
+            }
+            i++;
+        }
+    }
+
+    private void addField(int keyStart, int keyEnd, int valueStart, int valueEnd) {
+        int index = fieldCount * SLOT;
+        if (index + SLOT > fields.length) {
+            fields = Arrays.copyOf(fields, fields.length * 2);
+        }
+        fields[index] = keyStart;
+        fields[index + 1] = keyEnd;
+        fields[index + 2] = valueStart;
+        fields[index + 3] = valueEnd;
+        fieldCount++;
+    }
+
+    private int indexOf(String key) {
+        int length = key.length();
+        for (int f = 0; f < fieldCount; f++) {
+            int index = f * SLOT;
+            int keyStart = fields[index];
+            if (fields[index + 1] - keyStart == length && json.regionMatches(keyStart, key, 0, length)) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    private int trimEnd(int start, int end) {
+        while (end > start && isWhitespace(json.charAt(end - 1))) {
+            end--;
+        }
+        return end;
+    }
+
+    private static int skipWhitespace(String s, int i, int end) {
+        while (i < end && isWhitespace(s.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+    }
+
+    /**
+     * 跳过从 i 开始的字符串（i 指向开头引号），返回结束引号之后的位置；未闭合返回 -1
+     */
+    private static int skipString(String s, int i, int end) {
+        for (int j = i + 1; j < end; j++) {
+            char c = s.charAt(j);
+            if (c == '\\') {
+                j++;
+            } else if (c == '"') {
+                return j + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 跳过一个值（字符串、对象、数组或字面量），返回值之后的位置；格式错误返回 -1
+     */
+    private static int skipValue(String s, int i, int end) {
+        if (i >= end) {
+            return -1;
+        }
+        char c = s.charAt(i);
+        if (c == '"') {
+            return skipString(s, i, end);
+        }
+        if (c == '{' || c == '[') {
+            int depth = 0;
+            for (int j = i; j < end; j++) {
+                char ch = s.charAt(j);
+                if (ch == '"') {
+                    j = skipString(s, j, end);
+                    if (j < 0) {
+                        return -1;
+                    }
+                    j--;
+                } else if (ch == '{' || ch == '[') {
+                    depth++;
+                } else if (ch == '}' || ch == ']') {
+                    depth--;
+                    if (depth == 0) {
+                        return j + 1;
+                    }
+                }
+            }
+            return -1;
+        }
+        int j = i;
+        while (j < end) {
+            char ch = s.charAt(j);
+            if (ch == ',' || ch == '}' || ch == ']') {
+                break;
+            }
+            j++;
+        }
+        return j == i ? -1 : j;
+    }
+
+    private String unescape(int start, int end) {
+        StringBuilder sb = new StringBuilder(end - start);
+        for (int i = start; i < end; i++) {
+            char c = json.charAt(i);
+            if (c != '\\' || i + 1 >= end) {
+                sb.append(c);
+                continue;
+            }
+            char next = json.charAt(++i);
+            switch (next) {
+                case 'n': sb.append('\n'); break;
+                case 't': sb.append('\t'); break;
+                case 'r': sb.append('\r'); break;
+                case 'b': sb.append('\b'); break;
+                case 'f': sb.append('\f'); break;
+                case 'u':
+                    if (i + 4 < end) {
+                        sb.append((char) Integer.parseInt(json.substring(i + 1, i + 5), 16));
+                        i += 4;
+                    }
+                    break;
+                default: sb.append(next); break;
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -10,25 +10,7 @@ public class JsonUtil {
      */
     public static String extractValue(String json, String key) {
         try {
-            String searchKey = "\"" + key + "\":";
-            int startIndex = json.indexOf(searchKey);
-            if (startIndex == -1) return null;
-
-            startIndex += searchKey.length();
-            int endIndex = json.indexOf(",", startIndex);
-            if (endIndex == -1) {
-                endIndex = json.indexOf("}", startIndex);
-            }
-            if (endIndex == -1) return null;
-
-            String value = json.substring(startIndex, endIndex).trim();
-
-            // 去除引号
-            if (value.startsWith("\"") && value.endsWith("\"")) {
-                value = value.substring(1, value.length() - 1);
-            }
-
-            return value;
+            return new JsonReader(json).getString(key);
         } catch (Exception e) {
             return null;
         }
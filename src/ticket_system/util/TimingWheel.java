@@ -0,0 +1,247 @@
+package ticket_system.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 分层时间轮定时器
+ *
+ * 每层 60 个槽位，第 0 层一个槽位等于一个 tick，第 n 层一个槽位等于 60^n 个 tick。
+ * 任务按到期时间放入能容纳它的最低一层，上层槽位到点后整体下沉（cascade）到下层。
+ * 注册和取消都是 O(1)，每个 tick 只处理到期（或需要下沉）的任务，与任务总数无关。
+ *
+ * 时间轮结构只由内部的 tick 线程访问；其他线程的注册/取消通过无锁队列交给 tick 线程。
+ * 到期任务在 tick 线程中执行，任务本身应当足够轻量。
+ */
+public class TimingWheel {
+    private static final int WHEEL_SIZE = 60;
+    private static final int LEVELS = 4;
+
+    private final long tickNanos;
+    private final long startNanos;
+    private final Bucket[][] wheels = new Bucket[LEVELS][WHEEL_SIZE];
+    private final Queue<Timeout> pendingAdds = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> pendingCancels = new ConcurrentLinkedQueue<>();
+    private final Thread worker;
+    private volatile boolean running = true;
+    private long currentTick = 0; // 仅 tick 线程访问
+
+    public TimingWheel(String name, long tickMillis) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        for (int level = 0; level < LEVELS; level++) {
+            for (int slot = 0; slot < WHEEL_SIZE; slot++) {
+                wheels[level][slot] = new Bucket();
+            }
+        }
+        this.startNanos = System.nanoTime();
+        this.worker = new Thread(this::run, name);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * 注册一个延时任务
+     * @param delayMillis 延迟毫秒数，小于等于0时在下一个 tick 执行
+     */
+    public Timeout schedule(Runnable task, long delayMillis) {
+        long deadline = System.nanoTime() - startNanos + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMillis));
+        // 向上取整，保证任务不会早于设定时间执行
+        Timeout timeout = new Timeout(this, task, (deadline + tickNanos - 1) / tickNanos);
+        pendingAdds.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * 停止时间轮，未到期的任务不再执行
+     */
+    public void stop() {
+        running = false;
+        worker.interrupt();
+    }
+
+    private void run() {
+        while (running) {
+            long nextTickNanos = startNanos + (currentTick + 1) * tickNanos;
+            long sleepNanos = nextTickNanos - System.nanoTime();
+            if (sleepNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException e) {
+                    if (!running) {
+                        break;
+                    }
+                }
+                continue;
+            }
+            currentTick++;
+            processCancels();
+            processAdds();
+            advance();
+        }
+    }
+
+    private void processAdds() {
+        Timeout timeout;
+        while ((timeout = pendingAdds.poll()) != null) {
+            if (timeout.state.get() == Timeout.PENDING) {
+                place(timeout);
+            }
+        }
+    }
+
+    private void processCancels() {
+        Timeout timeout;
+        while ((timeout = pendingCancels.poll()) != null) {
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+            }
+        }
+    }
+
+    /**
+     * 把任务放入能容纳其到期时间的最低一层
+     */
+    private void place(Timeout timeout) {
+        long span = 1;
+        for (int level = 0; level < LEVELS; level++) {
+            long expire = timeout.expireTick / span;
+            long current = currentTick / span;
+            if (expire - current < WHEEL_SIZE || level == LEVELS - 1) {
+                if (level == 0 && expire <= current) {
+                    expire(timeout); // 已经到期
+                } else {
+                    wheels[level][(int) (Math.min(expire, current + WHEEL_SIZE - 1) % WHEEL_SIZE)].add(timeout);
+                }
+                return;
+            }
+            span *= WHEEL_SIZE;
+        }
+    }
+
+    /**
+     * 推进一个 tick：先把到点的上层槽位下沉，再执行第 0 层当前槽位中的任务
+     */
+    private void advance() {
+        long span = (long) Math.pow(WHEEL_SIZE, LEVELS - 1);
+        for (int level = LEVELS - 1; level >= 1; level--) {
+            if (currentTick % span == 0) {
+                Bucket bucket = wheels[level][(int) ((currentTick / span) % WHEEL_SIZE)];
+                Timeout timeout;
+                while ((timeout = bucket.poll()) != null) {
+                    place(timeout);
+                }
+            }
+            span /= WHEEL_SIZE;
+        }
+
+        Bucket bucket = wheels[0][(int) (currentTick % WHEEL_SIZE)];
+        Timeout timeout;
+        while ((timeout = bucket.poll()) != null) {
+            expire(timeout);
+        }
+    }
+
+    private void expire(Timeout timeout) {
+        if (timeout.state.compareAndSet(Timeout.PENDING, Timeout.EXPIRED)) {
+            try {
+                timeout.task.run();
+            } catch (Exception e) {
+                System.out.println("定时任务执行异常: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 已注册任务的句柄，可用于取消
+     */
+    public static final class Timeout {
+        private static final int PENDING = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+
+        private final TimingWheel wheel;
+        private final Runnable task;
+        private final long expireTick;
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+
+        // 以下字段仅 tick 线程访问
+        private Bucket bucket;
+        private Timeout prev;
+        private Timeout next;
+
+        private Timeout(TimingWheel wheel, Runnable task, long expireTick) {
+            this.wheel = wheel;
+            this.task = task;
+            this.expireTick = expireTick;
+        }
+
+        /**
+         * 取消任务
+         * @return 任务尚未执行且本次取消成功返回 true
+         */
+        public boolean cancel() {
+            if (state.compareAndSet(PENDING, CANCELLED)) {
+                wheel.pendingCancels.add(this);
+                return true;
+            }
+            return false;
+        }
+
+        public boolean isExpired() {
+            return state.get() == EXPIRED;
+        }
+
+        public boolean isCancelled() {
+            return state.get() == CANCELLED;
+        }
+    }
+
+    /**
+     * 槽位：双向链表，支持 O(1) 删除
+     */
+    private static final class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            timeout.prev = tail;
+            timeout.next = null;
+            if (tail == null) {
+                head = timeout;
+            } else {
+                tail.next = timeout;
+            }
+            tail = timeout;
+        }
+
+        void remove(Timeout timeout) {
+            if (timeout.bucket != this) {
+                return;
+            }
+            if (timeout.prev == null) {
+                head = timeout.next;
+            } else {
+                timeout.prev.next = timeout.next;
+            }
+            if (timeout.next == null) {
+                tail = timeout.prev;
+            } else {
+                timeout.next.prev = timeout.prev;
+            }
+            timeout.bucket = null;
+            timeout.prev = null;
+            timeout.next = null;
+        }
+
+        Timeout poll() {
+            Timeout timeout = head;
+            if (timeout != null) {
+                remove(timeout);
+            }
+            return timeout;
+        }
+    }
+}
@@ -0,0 +1,566 @@
+package ticket_system.util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 预写日志（WAL）：只追加的文本日志，每条记录一行
+ *
+ * 组提交：所有线程把记录放入同一个队列，由单独的写线程一次取出当前排队的全部记录，
+ * 一次 write + 一次 fsync 后统一通知等待者，高并发下多笔购票共享一次刷盘。
+ * 记录在文件中的顺序与入队顺序一致，因此等待某条记录落盘即可保证它之前的记录都已落盘。
+ *
+ * 检查点：日志按代号分段，活动段就是 ticket.wal.file，首行 SEGMENT|代号（旧版本的日志没有首行，代号为 0）。
+ * 活动段超过 ticket.wal.checkpoint.bytes 时，写线程在两批记录之间把它改名为 文件名.代号 并开启新的活动段；
+ * 随后检查点线程让各服务（SnapshotSource）把当前状态写成记录，存入 文件名.snapshot（首行 CHECKPOINT|新代号），
+ * 写完刷盘后原子改名替换旧快照，再删除代号更小的段。回放顺序为：快照、代号不小于快照代号的已关闭段、活动段。
+ * 快照在轮转之后生成，可能已包含活动段中部分记录的效果，因此各服务的记录必须可以重复回放（结果相同）。
+ *
+ * 配置（系统属性）：
+ *   ticket.wal.file  日志文件路径，默认 data/ticket_system.wal
+ *   ticket.wal.fsync 是否每批强制刷盘，默认 true；设为 false 时只写入操作系统缓存
+ *   ticket.wal.checkpoint.bytes 活动段达到多少字节时做检查点，默认 64MB；设为 0 时不自动做检查点
+ */
+public class WriteAheadLog {
+    private static WriteAheadLog instance;
+    private static final int MAX_BATCH = 4096;
+    private static final String SEGMENT = "SEGMENT";       // 活动段首行：SEGMENT|代号
+    private static final String CHECKPOINT = "CHECKPOINT"; // 快照首行：CHECKPOINT|代号，快照已包含代号更小的全部段
+
+    private final Path file;
+    private final Path snapshotFile;
+    private final boolean fsync;
+    private final long checkpointBytes;
+    private final boolean hasSnapshot;          // 启动时是否有快照
+    private final List<Long> recoveredSegments; // 启动时待回放的已关闭段代号（升序）
+    private final long recoveredLength; // 启动时活动段的长度，回放只读取这一部分
+    private FileChannel channel;        // 只由写线程使用，轮转时替换
+    private long generation;            // 活动段代号，只由写线程修改
+    private long activeBytes;           // 活动段长度
+    private final List<SnapshotSource> snapshotSources = new CopyOnWriteArrayList<>();
+    private final ExecutorService checkpointer;
+    private volatile boolean checkpointsEnabled;
+    private volatile boolean checkpointRunning;
+    private final BlockingQueue<PendingRecord> queue = new LinkedBlockingQueue<>();
+    // 延迟落盘作用域：线程处于作用域内时 append 不等待，只记下最后一条记录的 Future
+    private final ThreadLocal<DeferredScope> deferredScope = new ThreadLocal<>();
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    /**
+     * 各服务把自己的当前状态写成日志记录，用于检查点
+     */
+    public interface SnapshotSource {
+        void writeSnapshot(Consumer<String> out);
+    }
+
+    public WriteAheadLog(Path file, boolean fsync) throws IOException {
+        this(file, fsync, 0);
+    }
+
+    public WriteAheadLog(Path file, boolean fsync, long checkpointBytes) throws IOException {
+        this.file = file;
+        this.fsync = fsync;
+        this.checkpointBytes = checkpointBytes;
+        this.snapshotFile = sibling(".snapshot");
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        long covered = readHeader(snapshotFile, CHECKPOINT);
+        this.hasSnapshot = covered >= 0;
+        this.recoveredSegments = new ArrayList<>(deleteSegmentsBelow(Math.max(covered, 0)));
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.recoveredLength = truncateTornTail();
+        this.channel.position(recoveredLength); // 只有写线程写入，从文件末尾顺序追加
+        long header = readHeader(file, SEGMENT);
+        if (header >= 0) {
+            this.generation = header;
+        } else if (recoveredLength == 0) {
+            // 空的活动段（首次启动，或轮转时在写首行前崩溃）：代号接在已有的快照和段之后
+            long last = recoveredSegments.isEmpty() ? -1 : recoveredSegments.get(recoveredSegments.size() - 1);
+            this.generation = Math.max(Math.max(covered, 0), last + 1);
+            if (generation > 0) {
+                writeHeader();
+            }
+        } else {
+            this.generation = 0; // 旧版本写入的日志
+        }
+        this.activeBytes = channel.size();
+        this.checkpointer = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "WAL-Checkpoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.writer = new Thread(this::writeLoop, "WAL-GroupCommit");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * 上次运行若在写入中途崩溃，最后一行可能不完整：截掉最后一个换行符之后的内容
+     */
+    private long truncateTornTail() throws IOException {
+        long size = channel.size();
+        ByteBuffer one = ByteBuffer.allocate(1);
+        long end = size;
+        while (end > 0) {
+            one.clear();
+            channel.read(one, end - 1);
+            if (one.get(0) == '\n') {
+                break;
+            }
+            end--;
+        }
+        if (end < size) {
+            System.out.println("预写日志末尾有不完整记录，已截断 " + (size - end) + " 字节");
+            channel.truncate(end);
+        }
+        return end;
+    }
+
+    public static synchronized WriteAheadLog getInstance() {
+        if (instance == null) {
+            Path path = Paths.get(System.getProperty("ticket.wal.file", "data/ticket_system.wal"));
+            boolean fsync = Boolean.parseBoolean(System.getProperty("ticket.wal.fsync", "true"));
+            long checkpointBytes = Long.getLong("ticket.wal.checkpoint.bytes", 64L << 20);
+            try {
+                instance = new WriteAheadLog(path, fsync, checkpointBytes);
+                System.out.println("预写日志已打开: " + path.toAbsolutePath() + "，已有 " + instance.recoveredLength + " 字节");
+            } catch (IOException e) {
+                throw new IllegalStateException("无法打开预写日志: " + path + " - " + e.getMessage(), e);
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * 启动时日志中是否已有记录（含快照和已关闭的段）
+     */
+    public boolean hasRecords() {
+        return hasSnapshot || !recoveredSegments.isEmpty() || recoveredLength > headerLength();
+    }
+
+    private long headerLength() {
+        return generation > 0 ? (SEGMENT + "|" + generation + "\n").length() : 0;
+    }
+
+    /**
+     * 回放启动时已有的全部记录：快照、已关闭的段、活动段（不包含本次运行期间追加的记录）
+     * 应在开启检查点（startCheckpoints）之前完成
+     */
+    public void replay(Consumer<String> consumer) {
+        try {
+            if (hasSnapshot) {
+                replayFile(snapshotFile, Long.MAX_VALUE, consumer);
+            }
+            for (long segment : recoveredSegments) {
+                replayFile(segmentFile(segment), Long.MAX_VALUE, consumer);
+            }
+            if (recoveredLength > 0) {
+                replayFile(file, recoveredLength, consumer);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("回放预写日志失败: " + e.getMessage(), e);
+        }
+    }
+
+    private static void replayFile(Path path, long limit, Consumer<String> consumer) throws IOException {
+        try (InputStream raw = Channels.newInputStream(FileChannel.open(path, StandardOpenOption.READ));
+             BufferedReader reader = new BufferedReader(new InputStreamReader(
+                     new BoundedInputStream(raw, limit), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty() && !line.startsWith(SEGMENT + "|") && !line.startsWith(CHECKPOINT + "|")) {
+                    consumer.accept(line);
+                }
+            }
+        }
+    }
+
+    /**
+     * 登记检查点来源；快照按登记顺序依次写入各来源的记录
+     */
+    public void addSnapshotSource(SnapshotSource source) {
+        snapshotSources.add(source);
+    }
+
+    /**
+     * 开启自动检查点：所有检查点来源都已登记后调用，否则快照会缺少未登记服务的状态
+     */
+    public void startCheckpoints() {
+        checkpointsEnabled = true;
+    }
+
+    /**
+     * 立即做一次检查点
+     * @return 快照写完、旧的段删除后完成的 Future
+     */
+    public CompletableFuture<Void> checkpoint() {
+        PendingRecord marker = new PendingRecord(null);
+        if (!running) {
+            marker.future.completeExceptionally(new IOException("预写日志已关闭"));
+            return marker.future;
+        }
+        queue.add(marker);
+        return marker.future;
+    }
+
+    /**
+     * 追加一条记录并等待其落盘
+     * 当前线程处于延迟落盘作用域（beginDeferred）时不等待，由作用域结束时统一等待
+     */
+    public void append(String record) {
+        DeferredScope scope = deferredScope.get();
+        if (scope != null) {
+            scope.last = appendAsync(record);
+            return;
+        }
+        try {
+            appendAsync(record).join();
+        } catch (CompletionException e) {
+            throw new IllegalStateException("写入预写日志失败: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    /**
+     * 追加一条记录，不等待落盘；返回的 Future 在记录落盘后完成
+     */
+    public CompletableFuture<Void> appendAsync(String record) {
+        PendingRecord pending = new PendingRecord(record);
+        if (!running) {
+            pending.future.completeExceptionally(new IOException("预写日志已关闭"));
+            return pending.future;
+        }
+        queue.add(pending);
+        return pending.future;
+    }
+
+    /**
+     * 开始延迟落盘作用域：之后当前线程的 append 立即返回，不阻塞当前线程
+     * 适用于单线程处理大量请求的场景（如分片事件循环），避免每个请求都等待一次刷盘
+     */
+    public void beginDeferred() {
+        deferredScope.set(new DeferredScope());
+    }
+
+    /**
+     * 结束延迟落盘作用域
+     * @return 作用域内最后一条记录落盘后完成的 Future；落盘顺序与写入顺序一致，因此它完成时作用域内所有记录均已落盘
+     */
+    public CompletableFuture<Void> endDeferred() {
+        DeferredScope scope = deferredScope.get();
+        deferredScope.remove();
+        return scope == null || scope.last == null ? CompletableFuture.completedFuture(null) : scope.last;
+    }
+
+    /**
+     * 写线程：批量取出排队记录，一次写入、一次刷盘
+     * 批中的检查点请求把批分成前后两段：之前的记录写入旧段，轮转后之后的记录写入新段
+     */
+    private void writeLoop() {
+        List<PendingRecord> batch = new ArrayList<>();
+        StringBuilder sb = new StringBuilder();
+        while (running || !queue.isEmpty()) {
+            try {
+                PendingRecord first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, MAX_BATCH - 1);
+
+                int from = 0;
+                for (int i = 0; i < batch.size(); i++) {
+                    if (batch.get(i).record == null) {
+                        writeBatch(batch, from, i, sb);
+                        rotate(batch.get(i).future);
+                        from = i + 1;
+                    }
+                }
+                writeBatch(batch, from, batch.size(), sb);
+                if (checkpointsEnabled && checkpointBytes > 0 && activeBytes >= checkpointBytes && !checkpointRunning) {
+                    rotate(null);
+                }
+            } catch (IOException e) {
+                System.out.println("写入预写日志失败: " + e.getMessage());
+                for (PendingRecord pending : batch) {
+                    pending.future.completeExceptionally(e); // 已完成的不受影响
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void writeBatch(List<PendingRecord> batch, int from, int to, StringBuilder sb) throws IOException {
+        if (from >= to) {
+            return;
+        }
+        sb.setLength(0);
+        for (int i = from; i < to; i++) {
+            sb.append(batch.get(i).record).append('\n');
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+        activeBytes += buffer.remaining();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        if (fsync) {
+            channel.force(false);
+        }
+        for (int i = from; i < to; i++) {
+            batch.get(i).future.complete(null);
+        }
+    }
+
+    /**
+     * 在写线程中轮转：活动段改名为 文件名.代号，新的活动段从下一个代号开始，然后交给检查点线程生成快照
+     * @param done 检查点完成后通知的 Future，可以为 null
+     */
+    private void rotate(CompletableFuture<Void> done) throws IOException {
+        channel.force(false);
+        channel.close();
+        try {
+            Files.move(file, segmentFile(generation), StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            // 改名失败时重新打开原文件继续追加
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            channel.position(channel.size());
+        }
+        syncDirectory();
+        generation++;
+        writeHeader();
+        activeBytes = channel.size();
+        long covered = generation;
+        checkpointRunning = true;
+        checkpointer.execute(() -> runCheckpoint(covered, done));
+    }
+
+    private void writeHeader() throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap((SEGMENT + "|" + generation + "\n").getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+    }
+
+    /**
+     * 检查点线程：写快照，成功后删除快照已包含的段；失败时保留全部段，下一次检查点再覆盖
+     */
+    private void runCheckpoint(long covered, CompletableFuture<Void> done) {
+        long start = System.nanoTime();
+        try {
+            long records = writeSnapshot(covered);
+            deleteSegmentsBelow(covered);
+            System.out.println("预写日志检查点完成: 快照 " + records + " 条记录，" + Files.size(snapshotFile) +
+                    " 字节，耗时 " + (System.nanoTime() - start) / 1_000_000 + " ms");
+            if (done != null) {
+                done.complete(null);
+            }
+        } catch (IOException | RuntimeException e) {
+            System.out.println("预写日志检查点失败: " + e.getMessage());
+            if (done != null) {
+                done.completeExceptionally(e);
+            }
+        } finally {
+            checkpointRunning = false;
+        }
+    }
+
+    /**
+     * 先写临时文件并刷盘，再原子改名为快照：崩溃时要么是旧快照，要么是完整的新快照
+     * @return 写入的记录数
+     */
+    private long writeSnapshot(long covered) throws IOException {
+        Path tmp = sibling(".snapshot.tmp");
+        long[] count = new long[1];
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             Writer writer = new BufferedWriter(Channels.newWriter(out, StandardCharsets.UTF_8.name()), 1 << 16)) {
+            writer.write(CHECKPOINT + "|" + covered + "\n");
+            for (SnapshotSource source : snapshotSources) {
+                source.writeSnapshot(record -> {
+                    try {
+                        writer.write(record);
+                        writer.write('\n');
+                        count[0]++;
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            }
+            writer.flush();
+            out.force(true);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        Files.move(tmp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory();
+        return count[0];
+    }
+
+    /**
+     * 改名后刷新目录项，否则断电时改名本身可能丢失；不支持打开目录的平台上忽略
+     */
+    private void syncDirectory() {
+        try (FileChannel dir = FileChannel.open(file.toAbsolutePath().getParent(), StandardOpenOption.READ)) {
+            dir.force(true);
+        } catch (IOException e) {
+            // 忽略
+        }
+    }
+
+    /**
+     * 删除代号小于 generation 的已关闭段
+     * @return 其余已关闭段的代号（升序）
+     */
+    private TreeSet<Long> deleteSegmentsBelow(long generation) throws IOException {
+        TreeSet<Long> remaining = new TreeSet<>();
+        Path dir = file.toAbsolutePath().getParent();
+        String prefix = file.getFileName() + ".";
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, file.getFileName() + ".*")) {
+            for (Path path : stream) {
+                String suffix = path.getFileName().toString().substring(prefix.length());
+                if (suffix.isEmpty() || !suffix.chars().allMatch(Character::isDigit)) {
+                    continue;
+                }
+                long segment = Long.parseLong(suffix);
+                if (segment < generation) {
+                    Files.deleteIfExists(path);
+                } else {
+                    remaining.add(segment);
+                }
+            }
+        }
+        return remaining;
+    }
+
+    /**
+     * 读取文件首行的 类型|代号，文件不存在或首行不是该类型时返回 -1
+     */
+    private static long readHeader(Path path, String type) throws IOException {
+        if (!Files.exists(path)) {
+            return -1;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line = reader.readLine();
+            if (line == null || !line.startsWith(type + "|")) {
+                return -1;
+            }
+            return Long.parseLong(line.substring(type.length() + 1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private Path segmentFile(long segment) {
+        return sibling("." + segment);
+    }
+
+    private Path sibling(String suffix) {
+        return file.resolveSibling(file.getFileName() + suffix);
+    }
+
+    /**
+     * 关闭日志：等待已排队的记录写完
+     */
+    public void close() {
+        running = false;
+        try {
+            writer.join(5000);
+            checkpointer.shutdown();
+            checkpointer.awaitTermination(5, TimeUnit.SECONDS);
+            channel.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.out.println("关闭预写日志异常: " + e.getMessage());
+        }
+    }
+
+    private static final class DeferredScope {
+        private CompletableFuture<Void> last;
+    }
+
+    private static final class PendingRecord {
+        private final String record;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        private PendingRecord(String record) {
+            this.record = record;
+        }
+    }
+
+    /**
+     * 只读取前 limit 个字节的输入流
+     */
+    private static final class BoundedInputStream extends InputStream {
+        private final InputStream in;
+        private long remaining;
+
+        private BoundedInputStream(InputStream in, long limit) {
+            this.in = in;
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = in.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buf, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = in.read(buf, off, (int) Math.min(len, remaining));
+            if (n > 0) {
+                remaining -= n;
+            }
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}